@@ -54,6 +54,15 @@ public class ACKPacket extends TFTPPacket {
 		return blockNumber;
 	}
 	
+	/**
+	 * Getter function for returning block number as the unsigned value sent on the wire
+	 * 
+	 * @return block number between 0 and 65535
+	 */
+	public int getUnsignedBlockNumber() {
+		return Short.toUnsignedInt(blockNumber);
+	}
+	
 	/**
 	 * Returns an ACK packet given the attributes
 	 * 
@@ -91,7 +100,7 @@ public class ACKPacket extends TFTPPacket {
 	}
 	
 	public String toString() {
-		return String.format("ACK Packet: OPCode: %d, Block number: %d, Packet size: %d", opCode, blockNumber, packetLength);
+		return String.format("ACK Packet: OPCode: %d, Block number: %d, Packet size: %d", opCode, getUnsignedBlockNumber(), packetLength);
 	}
 	
 }
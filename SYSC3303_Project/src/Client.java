@@ -1,6 +1,6 @@
+import java.io.File;
 import java.net.*;
 import java.nio.file.Paths;
-import java.util.Queue;
 
 /**
  * This class represents the client1
@@ -44,23 +44,24 @@ public class Client {
 	 * @param packetType   packet type that you wan the function to return
 	 * @param fileName     name of the file that is requested to be read or written
 	 * @param mode         mode
+	 * @param transferSize size of the file that is written, 0 for a read request
 	 * @param ipAddress    server IP address
 	 * @param port         server port
 	 * 
 	 * @Return read or write request packet
 	 */
-	private RRQWRQPacket makeReadWriteRequest(TFTPPacketType packetType, String fileName, String mode, InetAddress ipAddress, int port) {
+	private RRQWRQPacket makeReadWriteRequest(TFTPPacketType packetType, String fileName, String mode, long transferSize, InetAddress ipAddress, int port) {
 		RRQWRQPacket requestPacket = null;
 		
 		String verboseMessage = null;
 		if (packetType == TFTPPacketType.RRQ) {
 			// get read request packet
-			requestPacket = TFTPPacketBuilder.getRRQWRQDatagramPacket(TFTPPacketType.RRQ, fileName, mode, ipAddress, port);
+			requestPacket = TFTPPacketBuilder.getRRQWRQDatagramPacket(TFTPPacketType.RRQ, fileName, mode, TFTPOptions.getRequestedOptions(transferSize), ipAddress, port);
 			verboseMessage = String.format("sent RRQ packet: %s", requestPacket.toString());
 		}
 		else {
 			// get write request packet
-			requestPacket = TFTPPacketBuilder.getRRQWRQDatagramPacket(TFTPPacketType.WRQ, fileName, mode, ipAddress, port);
+			requestPacket = TFTPPacketBuilder.getRRQWRQDatagramPacket(TFTPPacketType.WRQ, fileName, mode, TFTPOptions.getRequestedOptions(transferSize), ipAddress, port);
 			verboseMessage = String.format("sent WRQ packet: %s", requestPacket.toString());
 		}
 		
@@ -76,6 +77,37 @@ public class Client {
         
         return requestPacket;
 	}
+	
+	/**
+	 * Checks the options acknowledged by the server, an error packet with error code 8
+	 * is sent if they cannot be accepted
+	 * 
+	 * @param oackPacket     OACK packet received from the server
+	 * @param requestPacket  request packet that asked for the options
+	 * 
+	 * @return negotiated options, null if the connection has to be terminated
+	 */
+	private TFTPOptions acceptOptions(OACKPacket oackPacket, RRQWRQPacket requestPacket) {
+		TFTPOptions options = null;
+		try {
+			options = TFTPOptions.accept(oackPacket, requestPacket.getOptions());
+		} catch (TFTPOptionError e) {
+			UIManager.printErrorMessage("Client", e.getMessage());
+			errorHandler.sendOptionNegotiationErrorPacket(e.getMessage(), oackPacket.getRemoteAddress(), oackPacket.getRemotePort());
+			return null;
+		}
+		
+		// make room for the negotiated block size
+		tftpSocket.setMaxPacketLength(options.getMaxPacketLength());
+		
+		String[] messages = {
+				"",
+				String.format("server accepted options: %s", options.toString())
+		};
+		UIManager.printMessage("Client", messages);
+		
+		return options;
+	}
    
 	/**
 	* Handle DATA packets received from server with file data
@@ -88,36 +120,70 @@ public class Client {
 		String fileName = Paths.get(filePath).getFileName().toString();
 		
 		// make a read request and wait for response
-		RRQWRQPacket requestPacket = makeReadWriteRequest(TFTPPacketType.RRQ, fileName, mode, serverAddress, serverPort);
+		RRQWRQPacket requestPacket = makeReadWriteRequest(TFTPPacketType.RRQ, fileName, mode, 0, serverAddress, serverPort);
 		
 		// create a packet handler to handle sending and receiving packets
 		packetHandler = new PacketHandler(tftpSocket, errorHandler, serverAddress, serverPort);
+		
+		// a connection uses the default block size until the server acknowledges options
+		TFTPOptions options = new TFTPOptions();
+		tftpSocket.setMaxPacketLength(options.getMaxPacketLength());
+		
+		// the server answers with DATA packet 1, or with an OACK packet if it accepted options
+		TFTPPacket response = packetHandler.receiveRequestResponse(requestPacket);
+		if (response == null) {
+			return;
+		}
+		
+		DATAPacket dataPacket = null;
+		if (response.getPacketType() == TFTPPacketType.OACK) {
+			options = acceptOptions((OACKPacket) response, requestPacket);
+			if (options == null) {
+				return;
+			}
+			
+			// refuse a file that does not fit before any of it is transferred
+			if (options.getTransferSize() > 0 && fileManager.checkUsableSpace(options.getTransferSize()).error) {
+				errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), response.getRemoteAddress(), response.getRemotePort());
+				return;
+			}
+			
+			// DATA packet 1 is sent once the server receives ACK packet 0
+			packetHandler.applyOptions(options);
+			packetHandler.acknowledgeOACKPacket();
+		}
+		else {
+			dataPacket = (DATAPacket) response;
+		}
 				
 		// expect to receive DATA with valid block number
 	    short expectedBlockNumber = 1;
+	    
+	    // file that is written, opened with the first DATA packet
+	    FileBlockWriter fileWriter = null;
 	 
 	   	// receive all data packets from server that wants to transfer a file.
-		// once the data length is less than 512 bytes then stop listening for
+		// once the packet is shorter than a full block then stop listening for
 		// data packets from the server
-        int fileDataLen = NetworkConfig.DATAGRAM_PACKET_MAX_LEN;
-        while (fileDataLen == NetworkConfig.DATAGRAM_PACKET_MAX_LEN) {
+        int fileDataLen = options.getMaxPacketLength();
+        while (fileDataLen == options.getMaxPacketLength()) {
             // receive datagram packet
-        	DATAPacket dataPacket = null;
-        	
-        	if (expectedBlockNumber == 1)
-        		dataPacket = packetHandler.receiveDATAPacket(expectedBlockNumber, requestPacket);
-        	else {
+        	if (dataPacket == null)
         		dataPacket = packetHandler.receiveDATAPacket(expectedBlockNumber);
-        	}
         	
         	// if the returned data packet is null, then an error occurred
         	if (dataPacket == null) {
+        		// the partial file of a transfer that ended early is never published
+        		if (fileWriter != null) {
+        			fileManager.closeFileWriter(fileWriter);
+        			fileManager.discardFile(fileName);
+        		}
         		return;
         	}
         	if (dataPacket.getBlockNumber() == expectedBlockNumber) {
-        		// creates a file first
+        		// creates a file first, block 1 comes back when the block number wraps around
             	FileManager.FileManagerResult fmRes;
-            	if (dataPacket.getBlockNumber() == 1) {
+            	if (fileWriter == null) {
             		fmRes = fileManager.createFile(fileName);
             		
             		if (fmRes.error) {
@@ -132,14 +198,42 @@ public class Client {
             				errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
             			return;
             		}
+            		
+            		// reserve the space of the whole file once the server reported its size
+            		if (options.getTransferSize() > 0) {
+            			fmRes = fileManager.allocateFile(fileName, options.getTransferSize());
+            			
+            			if (fmRes.error) {
+            				if (fmRes.diskFull)
+            					errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+            				else
+            					errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+            				fileManager.discardFile(fileName);
+            				return;
+            			}
+            		}
+            		
+            		// keep the file open for the whole transfer
+            		fmRes = fileManager.openFileWriter(fileName, NetworkConfig.PIPELINED_WRITES);
+            		
+            		if (fmRes.error) {
+            			errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+            			fileManager.discardFile(fileName);
+            			return;
+            		}
+            		
+            		fileWriter = fmRes.fileWriter;
             	}
             	
                 // gets the data bytes from the DATA packet and converts it into a string
             	byte[] fileData = dataPacket.getDataBytes();
                 
                 // write file on client side
-                fmRes = fileManager.writeFile(fileName, fileData);           
+                fmRes = fileManager.writeFile(fileWriter, fileData);           
                 if (fmRes.error) {
+        			fileManager.closeFileWriter(fileWriter);
+        			fileManager.discardFile(fileName);
+        			
         			if (fmRes.accessViolation)
         				// access violation error will send an error packet with error code 2 and the connection
         				errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
@@ -158,8 +252,26 @@ public class Client {
 		        expectedBlockNumber++;
         	}
 	        
-	        // send ACK packet
-	        packetHandler.sendACKPacket(dataPacket.getBlockNumber());
+	        // the file is flushed as far as the durability policy requires and published
+	        // before the last block is acknowledged
+	        boolean lastBlock = fileDataLen < options.getMaxPacketLength();
+	        if (lastBlock) {
+	        	FileManager.FileManagerResult fmRes = fileManager.finishFile(fileName, fileWriter, NetworkConfig.DURABILITY_POLICY);
+	        	
+	        	if (fmRes.error) {
+	        		if (fmRes.fileAlreadyExist)
+	        			errorHandler.sendFileExistsErrorPacket(String.format("file already exists: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+	        		else if (fmRes.diskFull)
+	        			errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+	        		else
+	        			errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), dataPacket.getRemoteAddress(), dataPacket.getRemotePort());
+	        		return;
+	        	}
+	        }
+	        
+	        // send ACK packet once per window
+	        packetHandler.acknowledgeDATAPacket(dataPacket, lastBlock);
+	        dataPacket = null;
         }
         
         String[] messages = {
@@ -181,58 +293,70 @@ public class Client {
         String fileName = Paths.get(filePath).getFileName().toString();
         
         // make a write request and wait for response
-        RRQWRQPacket requestPacket = makeReadWriteRequest(TFTPPacketType.WRQ, fileName, mode, serverAddress, serverPort);
+        RRQWRQPacket requestPacket = makeReadWriteRequest(TFTPPacketType.WRQ, fileName, mode, new File(filePath).length(), serverAddress, serverPort);
         
         // create a packet handler to handle sending and receiving packets
      	packetHandler = new PacketHandler(tftpSocket, errorHandler, serverAddress, serverPort);
      		
-        ACKPacket ackPacket = packetHandler.receiveACKPacket(requestPacket);
+        // the server answers with ACK packet 0, or with an OACK packet if it accepted options
+        TFTPPacket response = packetHandler.receiveRequestResponse(requestPacket);
         
-        // if the returned ACK packet is null, then an error occurred
-        if (ackPacket == null) {
+        // if the returned packet is null, then an error occurred
+        if (response == null) {
         	return;
         }
         
-        if (ackPacket.getBlockNumber() == 0) {
-	        // reads a file on client side to create on the server side
-        	FileManager.FileManagerResult res = fileManager.readFile(filePath);
+        TFTPOptions options = new TFTPOptions();
+        if (response.getPacketType() == TFTPPacketType.OACK) {
+        	options = acceptOptions((OACKPacket) response, requestPacket);
+        	if (options == null) {
+        		return;
+        	}
         	
-    		byte[] fileData = null;
-    		
-    		if (!res.error) {
-    			fileData = res.fileBytes;
-    		}
-    		else {
-    			if (res.accessViolation)
-    				// access violation error will send an error packet with error code 2 and the connection
-    				errorHandler.sendAccessViolationErrorPacket(String.format("read access denied to file: %s", fileName), serverAddress, serverPort);
-    			else if (res.fileNotFound)
-    				// file not found error will send an error packet with error code 1 and the connection
-    				errorHandler.sendFileNotFoundErrorPacket(String.format("file not found: %s", fileName), serverAddress, serverPort);
-    			return;
-    		}
-	        
-	        // create list of DATA datagram packets that contain up to 512 bytes of file data
-	        Queue<DATAPacket> dataPacketStack = TFTPPacketBuilder.getStackOfDATADatagramPackets(fileData, ackPacket.getRemoteAddress(), ackPacket.getRemotePort());
-	        
-	        DATAPacket dataPacket = null;
-	        while (!dataPacketStack.isEmpty()) {
-				// send each datagram packet in order and wait for acknowledgement packet from the client
-				dataPacket = dataPacketStack.peek();
-				
-				packetHandler.sendDATAPacket(dataPacket);
+        	packetHandler.applyOptions(options);
+        }
+        
+		// opens the file on client side to create on the server side, its blocks are read as they are sent
+		FileManager.FileManagerResult res = fileManager.openFile(filePath);
+		
+		if (res.error) {
+			if (res.accessViolation)
+				// access violation error will send an error packet with error code 2 and the connection
+				errorHandler.sendAccessViolationErrorPacket(String.format("read access denied to file: %s", fileName), serverAddress, serverPort);
+			else if (res.fileNotFound)
+				// file not found error will send an error packet with error code 1 and the connection
+				errorHandler.sendFileNotFoundErrorPacket(String.format("file not found: %s", fileName), serverAddress, serverPort);
+			else
+				// any other read error will send an error packet with error code 0
+				errorHandler.sendNotDefinedErrorPacket(String.format("cannot read file: %s", fileName), serverAddress, serverPort);
+			return;
+		}
+		
+		// window of DATA datagram packets that contain up to a block of file data
+		DATABlockSource blockSource = new DATABlockSource(res.fileChannel, res.fileSize, options.getBlockSize(), response.getRemoteAddress(), response.getRemotePort());
+		DATAPacketWindow dataPacketWindow = new DATAPacketWindow(blockSource, options.getWindowSize());
+		
+		try {
+			while (!dataPacketWindow.isComplete()) {
+				// send a window of datagram packets in order and wait for acknowledgement packet from the server
+				if (!dataPacketWindow.send(packetHandler)) {
+					errorHandler.sendNotDefinedErrorPacket(String.format("cannot read file: %s", fileName), serverAddress, serverPort);
+					return;
+				}
 				
-				ackPacket = packetHandler.receiveACKPacket(dataPacket);
+				ACKPacket ackPacket = packetHandler.receiveACKPacket(dataPacketWindow);
 				
 				// if the returned ACK packet is null, then an error occurred
 				if (ackPacket == null) {
 					return;
 				}
 				
-				// remove DATA packet from queue
-				dataPacketStack.poll();
-	        }
-        }
+				// slide the window past the acknowledged DATA packets
+				dataPacketWindow.acknowledge(ackPacket.getBlockNumber());
+			}
+		} finally {
+			blockSource.close();
+		}
         
         String[] messages = {
         		"finished writing file",
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * This class reads the DATA packets of a file on demand. Each block is read
+ * from its position in the file when it is about to be sent, so a connection
+ * only keeps the blocks of its window in memory whatever the size of the file.
+ * The packets of a file kept by the file cache are shared with the other connections
+ * that read it with the same block size, or copied from its content if the cache
+ * has no room for them. A file opened for asynchronous reads is read ahead of the
+ * window so that the packets are not waited for, a connection of an event loop is
+ * told when a block it could not get is read instead of waiting for it
+ *
+ * @author Group 8
+ */
+public class DATABlockSource {
+	private FileChannel fileChannel;
+	// reads the blocks of the file ahead of the window, null if they are read when they are sent
+	private ReadAheadRing readAheadRing;
+	// file kept by the file cache, closed with the connection, null if it is read from the file
+	private FileContentCache.CachedFile cachedFile;
+	// content of the file if it is served from the file cache, null if it is read from the file
+	private ByteBuffer fileContent;
+	// packets of the file encoded by the file cache, null if they are built by the connection
+	private EncodedDATABlocks encodedBlocks;
+	private long fileSize;
+	private int blockSize;
+
+	private InetAddress remoteAddress;
+	private int remotePort;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileChannel   channel of the file opened for reading
+	 * @param fileSize      size of the file in bytes
+	 * @param blockSize     number of data bytes in a full DATA packet
+	 * @param remoteAddress IP address where the DATA packets will be sent to
+	 * @param remotePort    port where the DATA packets will be sent to
+	 */
+	public DATABlockSource(FileChannel fileChannel, long fileSize, int blockSize, InetAddress remoteAddress, int remotePort) {
+		this.fileChannel = fileChannel;
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.remoteAddress = remoteAddress;
+		this.remotePort = remotePort;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileChannel       channel of the file opened for asynchronous reads
+	 * @param fileSize          size of the file in bytes
+	 * @param blockSize         number of data bytes in a full DATA packet
+	 * @param windowSize        number of packets of the window
+	 * @param readAheadDistance number of blocks read ahead of the window, at least the window size
+	 *                          so that the next window is read while this one is acknowledged
+	 * @param remoteAddress     IP address where the DATA packets will be sent to
+	 * @param remotePort        port where the DATA packets will be sent to
+	 */
+	public DATABlockSource(AsynchronousFileChannel fileChannel, long fileSize, int blockSize, int windowSize,
+			int readAheadDistance, InetAddress remoteAddress, int remotePort) {
+		this.readAheadRing = new ReadAheadRing(fileChannel, fileSize, blockSize, Math.max(windowSize, readAheadDistance));
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.remoteAddress = remoteAddress;
+		this.remotePort = remotePort;
+	}
+
+	/**
+	 * Constructor, the cached file is closed with the source
+	 *
+	 * @param cachedFile    file kept by the file cache
+	 * @param blockSize     number of data bytes in a full DATA packet
+	 * @param remoteAddress IP address where the DATA packets will be sent to
+	 * @param remotePort    port where the DATA packets will be sent to
+	 */
+	public DATABlockSource(FileContentCache.CachedFile cachedFile, int blockSize, InetAddress remoteAddress, int remotePort) {
+		this.cachedFile = cachedFile;
+		this.fileContent = cachedFile.getContent();
+		this.encodedBlocks = cachedFile.getEncodedBlocks(blockSize);
+		this.fileSize = cachedFile.getSize();
+		this.blockSize = blockSize;
+		this.remoteAddress = remoteAddress;
+		this.remotePort = remotePort;
+	}
+
+	/**
+	 * Gives the blocks read ahead that are not read yet as null instead of waiting for
+	 * them, for a connection that must not be blocked
+	 *
+	 * @param listenerExecutor executor of the thread of the connection
+	 * @param readyListener    listener run on that thread once the block is read
+	 */
+	public void setReadyListener(Executor listenerExecutor, Runnable readyListener) {
+		if (readAheadRing != null)
+			readAheadRing.setReadyListener(listenerExecutor, readyListener);
+	}
+
+	/**
+	 * @return number of DATA packets of the file, the last one is shorter
+	 *         than a full block and may be empty
+	 */
+	public long getBlockCount() {
+		return fileSize / blockSize + 1;
+	}
+
+	/**
+	 * Reads a block of the file into a DATA packet
+	 *
+	 * @param index position of the block in the file, starting at 0
+	 * @return DATA packet of the block, numbered from 1 and wrapping around after 65535, or null
+	 *         if the block is still being read and the ready listener will be run once it is
+	 * @throws IOException if the file cannot be read
+	 */
+	public DATAPacket getDATAPacket(long index) throws IOException {
+		// the packet encoded by the file cache is sent as it is
+		if (encodedBlocks != null)
+			return TFTPPacketBuilder.getDATADatagram(encodedBlocks.getPacketBytes(index), remoteAddress, remotePort);
+
+		// the block was read into the bytes of its packet ahead of the window
+		if (readAheadRing != null) {
+			byte[] packetBytes = readAheadRing.getPacketBytes(index);
+			return packetBytes != null ? TFTPPacketBuilder.getDATADatagram(packetBytes, remoteAddress, remotePort) : null;
+		}
+
+		long position = index * blockSize;
+		int length = (int) Math.min(blockSize, fileSize - position);
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		if (fileContent != null) {
+			// the content is shared by every connection, it is read through a view of the block
+			ByteBuffer block = fileContent.duplicate();
+			block.position(fileContent.position() + (int) position).limit(fileContent.position() + (int) position + length);
+			buffer.put(block);
+		} else {
+			while (buffer.hasRemaining()) {
+				if (fileChannel.read(buffer, position + buffer.position()) == -1)
+					throw new IOException("file is shorter than its size");
+			}
+		}
+
+		return TFTPPacketBuilder.getDATADatagram((short) (index + 1), buffer.array(), remoteAddress, remotePort);
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Closes the file once the connection is finished
+	 */
+	public void close() {
+		if (cachedFile != null) {
+			cachedFile.close();
+			cachedFile = null;
+		}
+
+		try {
+			if (fileChannel != null)
+				fileChannel.close();
+			if (readAheadRing != null)
+				readAheadRing.close();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("DATABlockSource", "cannot close file");
+		}
+	}
+}
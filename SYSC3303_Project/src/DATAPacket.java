@@ -9,6 +9,7 @@ import java.util.Arrays;
  */
 public class DATAPacket extends TFTPPacket {
 	public static final int MAX_DATA_SIZE_BYTES = 512;
+	public static final short OP_CODE = 3;
 	private short blockNumber;
 	private byte[] dataBytes;
 	
@@ -71,12 +72,25 @@ public class DATAPacket extends TFTPPacket {
 		return blockNumber;
 	}
 	
+	/**
+	 * Getter function for returning block number as the unsigned value sent on the wire
+	 * 
+	 * @return block number between 0 and 65535
+	 */
+	public int getUnsignedBlockNumber() {
+		return Short.toUnsignedInt(blockNumber);
+	}
+	
 	/**
 	 * Getter function for returning data bytes
 	 * 
 	 * @return block number
 	 */
 	public byte[] getDataBytes() {
+		// a packet sent from encoded bytes only copies its data if it is asked for
+		if (dataBytes == null)
+			dataBytes = Arrays.copyOfRange(packetBytes, 4, packetBytes.length);
+		
 		return dataBytes;
 	}
 	
@@ -94,29 +108,13 @@ public class DATAPacket extends TFTPPacket {
 		
 		// create a properly sized bytes array
 		byte[] packetBytes = new byte[4 + dataBytes.length];
-		
-		// convert opCode to bytes
-		short opCode = 3;
-		byte[] opCodeBytes = ByteConversions.shortToBytes(opCode);
-				
-		packetBytes[0] = opCodeBytes[0];
-		packetBytes[1] = opCodeBytes[1];
-		
-		// convert block number to bytes
-		byte[] blockNumberBytes = ByteConversions.shortToBytes(blockNumber);
-				
-		packetBytes[2] = blockNumberBytes[0];
-		packetBytes[3] = blockNumberBytes[1];
+		encodeHeader(packetBytes, blockNumber);
 		
 		// append the bytes in the data list to the packet's list of bytes
-		int c = 4;
-		for (int i = 0; i < dataBytes.length; i++) {
-			packetBytes[c] = dataBytes[i];
-			c++;
-		}
+		System.arraycopy(dataBytes, 0, packetBytes, 4, dataBytes.length);
 		
 		// initialize packet attributes
-		dataPacket.opCode = opCode;
+		dataPacket.opCode = OP_CODE;
 		dataPacket.blockNumber = blockNumber;
 		dataPacket.dataBytes = dataBytes;
 		dataPacket.packetBytes = packetBytes;
@@ -126,8 +124,48 @@ public class DATAPacket extends TFTPPacket {
 		return dataPacket;
 	}
 	
+	/**
+	 * Returns a DATA packet that sends bytes encoded beforehand, the bytes are shared
+	 * and not copied
+	 * 
+	 * @param packetBytes array of bytes that form the packet, must not be changed
+	 * 
+	 * @return DATA packet for the given remote address and port
+	 */
+	public static DATAPacket buildPacket(byte[] packetBytes, InetAddress remoteAddress, int remotePort) {
+		DATAPacket dataPacket = new DATAPacket();
+		
+		dataPacket.opCode = OP_CODE;
+		dataPacket.blockNumber = ByteConversions.bytesToShort(new byte[] {packetBytes[2], packetBytes[3]});
+		dataPacket.packetBytes = packetBytes;
+		dataPacket.remoteAddress = remoteAddress;
+		dataPacket.remotePort = remotePort;
+		
+		return dataPacket;
+	}
+	
+	/**
+	 * Writes the op code and block number of a DATA packet at the start of an array
+	 * 
+	 * @param packetBytes array of bytes of the packet, at least 4 bytes long
+	 * @param blockNumber block number of the packet
+	 */
+	public static void encodeHeader(byte[] packetBytes, short blockNumber) {
+		// convert opCode to bytes
+		byte[] opCodeBytes = ByteConversions.shortToBytes(OP_CODE);
+		
+		packetBytes[0] = opCodeBytes[0];
+		packetBytes[1] = opCodeBytes[1];
+		
+		// convert block number to bytes
+		byte[] blockNumberBytes = ByteConversions.shortToBytes(blockNumber);
+		
+		packetBytes[2] = blockNumberBytes[0];
+		packetBytes[3] = blockNumberBytes[1];
+	}
+	
 	public String toString() {
-		return String.format("DATA Packet: OPCode: %d, Block number: %d, Packet size: %d", opCode, blockNumber, packetLength);
+		return String.format("DATA Packet: OPCode: %d, Block number: %d, Packet size: %d", opCode, getUnsignedBlockNumber(), packetLength);
 	}
 	
 }
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class is the sending side of the sliding window of a connection (RFC 7440).
+ * Up to windowSize DATA packets are sent before an ACK packet is waited for.
+ * An ACK packet acknowledges every block up to its block number, and the window
+ * slides past it. Upon timeout the window is sent again from the first block that
+ * was not acknowledged, and so is it upon an ACK packet behind the last block sent,
+ * which tells that the receiver is missing the next block. The window is sent again
+ * once per loss, the ACK packets that the receiver sent before it got the blocks sent
+ * again do not send them a third time. A window size of 1
+ * gives the original lock step transfer.
+ * The packets are read from the file as the window reaches them and dropped once
+ * they are acknowledged. The window stops at a block that is still being read,
+ * and is sent on once the block source reports it read
+ *
+ * @author Group 8
+ */
+public class DATAPacketWindow {
+	private DATABlockSource blockSource;
+	private int windowSize;
+
+	// packets read from the file that are not acknowledged, starting at firstUnacknowledged
+	private ArrayList<DATAPacket> dataPackets;
+
+	// index of the first packet that is not acknowledged
+	private long firstUnacknowledged = 0;
+	// index of the next packet to send
+	private long nextToSend = 0;
+	// index of the highest packet sent
+	private long highestSent = -1;
+	// highest packet sent when the window was last sent again, the ACK packets up to it may
+	// have left the receiver before the packets sent again reached it
+	private long recoveryPoint = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param blockSource source of the DATA packets of the file
+	 * @param windowSize  number of packets sent before waiting for an ACK packet
+	 */
+	public DATAPacketWindow(DATABlockSource blockSource, int windowSize) {
+		this.blockSource = blockSource;
+		this.windowSize = Math.max(1, windowSize);
+		this.dataPackets = new ArrayList<DATAPacket>(this.windowSize);
+	}
+
+	/**
+	 * Sends the packets of the window that have not been sent yet, up to the first
+	 * block that is still being read
+	 *
+	 * @param packetHandler packet handler of the connection
+	 * @return false if a block cannot be read from the file
+	 */
+	public boolean send(PacketHandler packetHandler) {
+		long windowEnd = Math.min(blockSource.getBlockCount(), firstUnacknowledged + windowSize);
+
+		while (nextToSend < windowEnd) {
+			int offset = (int) (nextToSend - firstUnacknowledged);
+
+			// read the block the first time it is sent
+			if (offset == dataPackets.size()) {
+				DATAPacket dataPacket;
+				try {
+					dataPacket = blockSource.getDATAPacket(nextToSend);
+				} catch (IOException e) {
+					UIManager.printErrorMessage("DATAPacketWindow", String.format("cannot read block %d of the file", nextToSend + 1));
+					return false;
+				}
+
+				// the rest of the window is sent once the block is read
+				if (dataPacket == null)
+					return true;
+
+				dataPackets.add(dataPacket);
+			}
+
+			packetHandler.sendDATAPacket(dataPackets.get(offset));
+			highestSent = Math.max(highestSent, nextToSend);
+			nextToSend++;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Slides the window past an acknowledged block
+	 *
+	 * @param blockNumber block number of the ACK packet, between the first
+	 *                    and the last block number of the window
+	 */
+	public void acknowledge(short blockNumber) {
+		// block numbers are consecutive, the distance survives the block number wrapping around
+		long acknowledged = firstUnacknowledged + TFTPPacket.compareBlockNumbers(blockNumber, getFirstBlockNumber());
+		long nextUnacknowledged = Math.min(nextToSend, acknowledged + 1);
+
+		// drop the packets that will not be sent again
+		dataPackets.subList(0, (int) (nextUnacknowledged - firstUnacknowledged)).clear();
+		firstUnacknowledged = nextUnacknowledged;
+
+		// the receiver is missing the next block, the window is sent again from it (RFC 7440)
+		// unless the blocks were sent again already since the receiver sent the ACK packet
+		if (nextToSend > firstUnacknowledged && firstUnacknowledged > recoveryPoint)
+			rewind();
+	}
+
+	/**
+	 * Sends the window again from the first block that was not acknowledged
+	 * the next time send is called
+	 */
+	public void rewind() {
+		recoveryPoint = highestSent;
+		nextToSend = firstUnacknowledged;
+	}
+
+	/**
+	 * @return true once every packet is acknowledged
+	 */
+	public boolean isComplete() {
+		return firstUnacknowledged == blockSource.getBlockCount();
+	}
+
+	/**
+	 * @return block number of the first packet that is not acknowledged
+	 */
+	public short getFirstBlockNumber() {
+		return (short) (firstUnacknowledged + 1);
+	}
+
+	/**
+	 * @return block number of the last packet sent
+	 */
+	public short getLastBlockNumber() {
+		return (short) (Math.max(firstUnacknowledged, nextToSend - 1) + 1);
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class keeps the attributes of every file of the directory the server
+ * serves in memory, so that the existence, size and permissions of a file are
+ * checked without touching the disk. The tree is scanned in parallel when the
+ * server starts, a directory is scanned again when the directory watcher
+ * reports that it changed
+ *
+ * @author Group 8
+ */
+public class DirectoryIndex implements DirectoryWatcher.Listener {
+	// approximate bytes of an entry on top of its name: the entry, its path and the map nodes
+	private static final int ENTRY_OVERHEAD = 200;
+	// relative path of the root
+	private static final Path ROOT_PATH = Paths.get("");
+
+	/**
+	 * Attributes of a file or directory of the index
+	 */
+	public static class FileEntry {
+		private long size;
+		private long lastModified;
+		// identifies the file whatever its name, null if the file system has no such key
+		private Object fileKey;
+		private boolean directory;
+		private boolean symbolicLink;
+		private boolean readable;
+		private boolean writable;
+
+		private FileEntry(Path path, BasicFileAttributes attributes, boolean symbolicLink) {
+			this.symbolicLink = symbolicLink;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+			this.directory = attributes.isDirectory();
+			this.readable = Files.isReadable(path);
+			this.writable = Files.isWritable(path);
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public Object getFileKey() {
+			return fileKey;
+		}
+
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		public boolean isReadable() {
+			return readable;
+		}
+
+		public boolean isWritable() {
+			return writable;
+		}
+	}
+
+	/**
+	 * Scans a directory and forks a task for each of its sub directories
+	 */
+	private class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Path relativePath;
+
+		ScanTask(Path relativePath) {
+			this.relativePath = relativePath;
+		}
+
+		@Override
+		protected void compute() {
+			ArrayList<ScanTask> tasks = new ArrayList<ScanTask>();
+			for (Path subdirectory : scanDirectory(relativePath))
+				tasks.add(new ScanTask(subdirectory));
+
+			invokeAll(tasks);
+		}
+	}
+
+	private Path root;
+	// names of the root that are not served, such as the staging directory of the uploads
+	private Set<String> excludedNames;
+	// reports the changes of the indexed directories, null if they are only scanned at startup
+	private DirectoryWatcher directoryWatcher;
+
+	// entries keyed by their path relative to the root
+	private ConcurrentHashMap<Path, FileEntry> entries = new ConcurrentHashMap<Path, FileEntry>();
+	// names of the entries of each directory, the root is the empty path
+	private ConcurrentHashMap<Path, Set<Path>> children = new ConcurrentHashMap<Path, Set<Path>>();
+
+	// counters
+	private long buildTime = 0;
+	private volatile long rescans = 0;
+	private volatile long fullRescans = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param root          directory that is indexed, created if it does not exist
+	 * @param excludedNames names of the root that are left out of the index
+	 */
+	public DirectoryIndex(Path root, Set<String> excludedNames) {
+		this.root = root;
+		this.excludedNames = excludedNames;
+	}
+
+	/**
+	 * Keeps the index current with the changes reported by a directory watcher,
+	 * must be set before the index is built
+	 *
+	 * @param directoryWatcher watcher that reports the changes of the indexed directories
+	 */
+	public void setDirectoryWatcher(DirectoryWatcher directoryWatcher) {
+		this.directoryWatcher = directoryWatcher;
+	}
+
+	/**
+	 * Scans the whole tree, the directories are scanned in parallel
+	 *
+	 * @throws IOException if the root cannot be created
+	 */
+	public void build() throws IOException {
+		long startTime = System.nanoTime();
+
+		// the watcher reports the canonical paths of the directories
+		Files.createDirectories(root);
+		root = root.toRealPath();
+		ForkJoinPool.commonPool().invoke(new ScanTask(ROOT_PATH));
+
+		buildTime = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Returns the attributes of a file
+	 *
+	 * @param relativePath path of the file relative to the root
+	 * @return attributes of the file, null if it does not exist
+	 */
+	public FileEntry get(Path relativePath) {
+		Path normalizedPath = relativePath.normalize();
+
+		// a path that leaves the root is not indexed
+		if (normalizedPath.isAbsolute() || normalizedPath.startsWith(".."))
+			return null;
+
+		return entries.get(normalizedPath);
+	}
+
+	/**
+	 * Returns the path of a file of the index, so that it is opened without being
+	 * resolved on the disk
+	 *
+	 * @param relativePath path of the file relative to the root
+	 * @return path of the file below the canonical path of the root
+	 */
+	public Path resolve(Path relativePath) {
+		return root.resolve(relativePath.normalize());
+	}
+
+	/**
+	 * Tells if the index knows whether a file exists. The files below a symbolic link
+	 * to a directory are not indexed, the link may lead out of the served directory
+	 *
+	 * @param relativePath path of the file relative to the root
+	 * @return false if the file must be checked on the disk
+	 */
+	public boolean covers(Path relativePath) {
+		Path normalizedPath = relativePath.normalize();
+		if (normalizedPath.isAbsolute() || normalizedPath.startsWith(".."))
+			return false;
+
+		// the closest directory of the path that is indexed decides
+		for (Path parent = normalizedPath.getParent(); parent != null; parent = parent.getParent()) {
+			FileEntry entry = entries.get(parent);
+			if (entry != null)
+				return entry.isDirectory() && !entry.symbolicLink;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the attributes of a file the server changed itself, before the
+	 * directory watcher reports it
+	 *
+	 * @param relativePath path of the file relative to the root
+	 */
+	public void refresh(Path relativePath) {
+		Path path = root.resolve(relativePath);
+
+		try {
+			add(relativePath, readEntry(path));
+		} catch (IOException e) {
+			remove(relativePath);
+		}
+	}
+
+	/**
+	 * Scans a directory again once it changed, called by the directory watcher
+	 *
+	 * @param directory canonical path of the directory that changed, null if changes were lost
+	 */
+	@Override
+	public void onDirectoryChanged(Path directory) {
+		if (directory == null) {
+			fullRescans++;
+			ForkJoinPool.commonPool().invoke(new ScanTask(ROOT_PATH));
+			return;
+		}
+
+		rescans++;
+
+		Path relativePath = root.relativize(directory);
+		for (Path subdirectory : scanDirectory(relativePath)) {
+			// a directory that was just created has not been scanned yet
+			if (!children.containsKey(subdirectory))
+				ForkJoinPool.commonPool().invoke(new ScanTask(subdirectory));
+		}
+	}
+
+	/**
+	 * Reads the attributes of the entries of a directory and drops the entries
+	 * that no longer exist
+	 *
+	 * @param relativePath path of the directory relative to the root
+	 * @return sub directories of the directory
+	 */
+	private ArrayList<Path> scanDirectory(Path relativePath) {
+		ArrayList<Path> subdirectories = new ArrayList<Path>();
+		Path directory = root.resolve(relativePath);
+
+		if (directoryWatcher != null)
+			directoryWatcher.watch(directory, this);
+
+		HashSet<Path> scannedNames = new HashSet<Path>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path path : directoryStream) {
+				Path name = relativePath.resolve(path.getFileName());
+				if (relativePath.equals(ROOT_PATH) && excludedNames.contains(path.getFileName().toString()))
+					continue;
+
+				try {
+					FileEntry entry = readEntry(path);
+					add(name, entry);
+					scannedNames.add(name);
+
+					// a link is not followed, it may lead to a directory that contains it
+					if (entry.isDirectory() && !entry.symbolicLink)
+						subdirectories.add(name);
+				} catch (NoSuchFileException e) {
+					// removed while the directory is scanned
+				}
+			}
+		} catch (IOException e) {
+			// the directory was removed, or cannot be read and its files cannot be served
+			if (!relativePath.equals(ROOT_PATH))
+				remove(relativePath);
+			return subdirectories;
+		}
+
+		Set<Path> names = children.computeIfAbsent(relativePath, path -> ConcurrentHashMap.newKeySet());
+		for (Path name : names) {
+			if (!scannedNames.contains(name))
+				remove(name);
+		}
+
+		return subdirectories;
+	}
+
+	/**
+	 * Reads the attributes of a file, of the file a symbolic link leads to
+	 */
+	private FileEntry readEntry(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		if (!attributes.isSymbolicLink())
+			return new FileEntry(path, attributes, false);
+
+		return new FileEntry(path, Files.readAttributes(path, BasicFileAttributes.class), true);
+	}
+
+	private void add(Path relativePath, FileEntry entry) {
+		entries.put(relativePath, entry);
+
+		Path parent = relativePath.getParent();
+		children.computeIfAbsent(parent == null ? ROOT_PATH : parent, path -> ConcurrentHashMap.newKeySet()).add(relativePath);
+	}
+
+	/**
+	 * Drops an entry, and every entry below it if it is a directory
+	 */
+	private void remove(Path relativePath) {
+		entries.remove(relativePath);
+
+		Path parent = relativePath.getParent();
+		Set<Path> siblings = children.get(parent == null ? ROOT_PATH : parent);
+		if (siblings != null)
+			siblings.remove(relativePath);
+
+		Set<Path> names = children.remove(relativePath);
+		if (names != null) {
+			for (Path name : names)
+				remove(name);
+
+			if (directoryWatcher != null)
+				directoryWatcher.cancel(root.resolve(relativePath), this);
+		}
+	}
+
+	/**
+	 * @return approximate number of bytes the index takes in memory
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 0;
+		for (Path path : entries.keySet())
+			bytes += ENTRY_OVERHEAD + 2L * path.toString().length();
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public String[] getStatistics() {
+		String[] statistics = {
+				String.format("directory index: %d entries in %d directories, about %d bytes, built in %.2f ms",
+						entries.size(), children.size(), getMemoryFootprint(), buildTime / 1e6),
+				String.format("directory index rescans: %d directories, %d full", rescans, fullRescans)
+		};
+
+		return statistics;
+	}
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class reports the directories whose entries are created, deleted or
+ * modified, so that what is cached about their files can be dropped. The
+ * events of every watched directory are read by one thread, and each change
+ * is reported to the listeners that watch the directory
+ *
+ * @author Group 8
+ */
+public class DirectoryWatcher implements Runnable {
+	/**
+	 * Told about the changes of the directories it watches
+	 */
+	public interface Listener {
+		/**
+		 * Called by the watcher thread with a directory that changed
+		 *
+		 * @param directory canonical path of the directory, or null if events were lost
+		 *                  and anything may have changed
+		 */
+		void onDirectoryChanged(Path directory);
+	}
+
+	private WatchService watchService;
+
+	// watched directories, guarded by this
+	private HashMap<Path, WatchKey> watchKeys = new HashMap<Path, WatchKey>();
+	// listeners of each watched directory, guarded by this
+	private HashMap<Path, HashSet<Listener>> directoryListeners = new HashMap<Path, HashSet<Listener>>();
+
+	/**
+	 * Constructor
+	 *
+	 * @throws IOException if the file system cannot watch directories
+	 */
+	public DirectoryWatcher() throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Starts watching a directory for a listener, a directory is watched once however
+	 * often it is added and whatever the number of its listeners
+	 *
+	 * @param directory canonical path of the directory
+	 * @param listener  listener the changes of the directory are reported to
+	 * @return false if the directory cannot be watched
+	 */
+	public synchronized boolean watch(Path directory, Listener listener) {
+		WatchKey watchKey = watchKeys.get(directory);
+		if (watchKey == null || !watchKey.isValid()) {
+			try {
+				watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException | ClosedWatchServiceException e) {
+				return false;
+			}
+
+			watchKeys.put(directory, watchKey);
+		}
+
+		directoryListeners.computeIfAbsent(directory, path -> new HashSet<Listener>()).add(listener);
+		return true;
+	}
+
+	/**
+	 * Stops watching a directory for a listener, the directory is no longer watched
+	 * once it has no listener
+	 *
+	 * @param directory canonical path of the directory
+	 * @param listener  listener that no longer needs the changes of the directory
+	 */
+	public synchronized void cancel(Path directory, Listener listener) {
+		HashSet<Listener> listeners = directoryListeners.get(directory);
+		if (listeners == null || !listeners.remove(listener) || !listeners.isEmpty())
+			return;
+
+		directoryListeners.remove(directory);
+		WatchKey watchKey = watchKeys.remove(directory);
+		if (watchKey != null)
+			watchKey.cancel();
+	}
+
+	/**
+	 * Reports the changes until the watcher is closed
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey watchKey;
+			try {
+				watchKey = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			boolean overflow = false;
+			for (WatchEvent<?> event : watchKey.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+					overflow = true;
+			}
+
+			Path directory = (Path) watchKey.watchable();
+			ArrayList<Listener> listeners;
+			synchronized (this) {
+				HashSet<Listener> watchingListeners = directoryListeners.get(directory);
+				listeners = watchingListeners != null ? new ArrayList<Listener>(watchingListeners) : new ArrayList<Listener>();
+
+				// a directory that was deleted cannot be watched anymore, its listeners are told once
+				if (!watchKey.reset() && watchKeys.remove(directory, watchKey))
+					directoryListeners.remove(directory);
+			}
+
+			// the listeners may watch or cancel directories, they are called without the lock
+			for (Listener listener : listeners)
+				listener.onDirectoryChanged(overflow ? null : directory);
+		}
+	}
+	/**
+	 * Stops the watcher thread
+	 */
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("DirectoryWatcher", "cannot close watch service");
+		}
+	}
+}
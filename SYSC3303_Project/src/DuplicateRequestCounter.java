@@ -0,0 +1,47 @@
+import java.net.InetAddress;
+
+/**
+ * This class counts the requests a client sends again while its connection is running,
+ * shared by the connections that run on their own thread and on an event loop
+ *
+ * @author Group 8
+ */
+public class DuplicateRequestCounter {
+	// name of the connection class the messages are printed for
+	private String source;
+
+	// only incremented by the server thread that receives the requests
+	private volatile int duplicateRequests = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param source name of the connection class the messages are printed for
+	 */
+	public DuplicateRequestCounter(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Counts a duplicate request and prints it
+	 *
+	 * @param remoteAddress client address
+	 * @param remotePort    client port
+	 */
+	public void record(InetAddress remoteAddress, int remotePort) {
+		duplicateRequests++;
+
+		String[] messages = {
+				"",
+				String.format("duplicate request %d received from client %s:%d", duplicateRequests, remoteAddress, remotePort)
+		};
+		UIManager.printMessage(source, messages);
+	}
+
+	/**
+	 * @return number of duplicate requests received
+	 */
+	public int get() {
+		return duplicateRequests;
+	}
+}
@@ -0,0 +1,14 @@
+/**
+ * How far the data of an upload must have gone before the last block is acknowledged
+ *
+ * @author Group 8
+ *
+ */
+public enum DurabilityPolicy {
+	// the last block is queued for the writer, the file may still be written after the transfer ends
+	QUEUED,
+	// every block is written to the file and the file is closed
+	WRITTEN,
+	// like WRITTEN, and the file is forced to the storage device
+	FSYNCED
+}
@@ -10,12 +10,14 @@ import java.util.Arrays;
 public class ERRORPacket extends TFTPPacket {
 	public static final short OP_CODE = 5;
 	
+	public static final short NOT_DEFINED = 0;
 	public static final short FILE_NOT_FOUND = 1;
 	public static final short ACCESS_VIOLATION = 2;
 	public static final short DISK_FULL = 3;
 	public static final short ILLEGAL_TFTP_OPERATION = 4;
 	public static final short UNKNOWN_TID = 5;
 	public static final short FILE_EXISTS = 6;
+	public static final short OPTION_NEGOTIATION_FAILED = 8;
 	
 	private short errorCode; 
 	private String errorMessage;
@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class holds the DATA packets of a cached file encoded for one block size,
+ * shared by every connection that reads the file with that block size. The block
+ * number of a block only depends on its position in the file, so an encoded packet
+ * is the same for every connection and is sent as it is. Each block is encoded the
+ * first time a connection sends it and is never changed afterwards
+ *
+ * @author Group 8
+ */
+public class EncodedDATABlocks {
+	// bytes kept for each block on top of its data: the header, the array and its reference
+	public static final int BLOCK_OVERHEAD = 4 + 16 + 8;
+
+	private ByteBuffer fileContent;
+	private int blockSize;
+	private AtomicReferenceArray<byte[]> packets;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileContent content of the cached file
+	 * @param blockSize   number of data bytes in a full DATA packet
+	 */
+	public EncodedDATABlocks(ByteBuffer fileContent, int blockSize) {
+		this.fileContent = fileContent;
+		this.blockSize = blockSize;
+		this.packets = new AtomicReferenceArray<byte[]>((int) getBlockCount(fileContent.remaining(), blockSize));
+	}
+
+	/**
+	 * Returns the bytes of an encoded DATA packet, encoding the block if no connection sent it yet
+	 *
+	 * @param index position of the block in the file, starting at 0
+	 * @return bytes of the packet, must not be changed
+	 */
+	public byte[] getPacketBytes(long index) {
+		byte[] packetBytes = packets.get((int) index);
+		if (packetBytes != null)
+			return packetBytes;
+
+		long position = index * blockSize;
+		int length = (int) Math.min(blockSize, fileContent.remaining() - position);
+
+		packetBytes = new byte[4 + length];
+		DATAPacket.encodeHeader(packetBytes, (short) (index + 1));
+
+		ByteBuffer block = fileContent.duplicate();
+		block.position(fileContent.position() + (int) position);
+		block.get(packetBytes, 4, length);
+
+		// connections that encode the same block at the same time produce the same bytes
+		packets.compareAndSet((int) index, null, packetBytes);
+		return packets.get((int) index);
+	}
+
+	/**
+	 * @return number of DATA packets of a file, the last one is shorter than a full block
+	 */
+	public static long getBlockCount(long fileSize, int blockSize) {
+		return fileSize / blockSize + 1;
+	}
+
+	/**
+	 * @return number of bytes the encoded packets of a file take once every block is encoded
+	 */
+	public static long getEncodedSize(long fileSize, int blockSize) {
+		return fileSize + getBlockCount(fileSize, blockSize) * BLOCK_OVERHEAD;
+	}
+}
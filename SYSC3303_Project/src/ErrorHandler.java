@@ -31,6 +31,16 @@ public class ErrorHandler {
         tftpSocket.send(errorPacket);
     }
     
+    /**
+     * Sends ERROR packet with error code 0
+     * @param errorMessage
+     * @param remoteAddress
+     * @param remotePort
+     */
+	public void sendNotDefinedErrorPacket(String errorMessage, InetAddress remoteAddress, int remotePort) {
+		sendErrorPacket(ERRORPacket.NOT_DEFINED, errorMessage, remoteAddress, remotePort);
+	}
+	
     /**
      * Sends ERROR packet with error code 1
      * @param errorMessage
@@ -90,4 +100,14 @@ public class ErrorHandler {
 	public void sendFileExistsErrorPacket(String errorMessage, InetAddress remoteAddress, int remotePort) {
 		sendErrorPacket(ERRORPacket.FILE_EXISTS, errorMessage, remoteAddress, remotePort);
 	}
+	
+	/**
+     * Sends ERROR packet with error code 8
+     * @param errorMessage
+     * @param remoteAddress
+     * @param remotePort
+     */
+	public void sendOptionNegotiationErrorPacket(String errorMessage, InetAddress remoteAddress, int remotePort) {
+		sendErrorPacket(ERRORPacket.OPTION_NEGOTIATION_FAILED, errorMessage, remoteAddress, remotePort);
+	}
 }
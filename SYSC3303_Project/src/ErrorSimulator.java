@@ -65,6 +65,9 @@ public class ErrorSimulator implements Runnable {
 
 		// create a datagram socket to establish a connection with incoming
 		tftpSocket = new TFTPSocket(0, NetworkConfig.PROXY_PORT);
+		
+		// relay DATA packets of any block size that can be negotiated
+		tftpSocket.setMaxPacketLength(TFTPOptions.DATA_HEADER_LENGTH + NetworkConfig.MAX_BLOCK_SIZE);
 	}
 
 	@Override
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class writes the blocks of a transfer to a file that stays open for the
+ * whole connection. The blocks are gathered in a write buffer and written in
+ * large positional writes instead of one open, write and close per block
+ *
+ * @author Group 8
+ */
+public class FileBlockWriter {
+	// the blocks are gathered up to this many bytes before they are written
+	public static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel fileChannel;
+	private ByteBuffer writeBuffer;
+	// forces the file with the uploads of other connections, null to force it on its own
+	private GroupCommitService groupCommitService;
+
+	// position in the file of the first byte of the write buffer
+	private long bufferPosition = 0;
+	// completes once the file is closed, null until the file is to be closed
+	private CompletableFuture<Void> closeFuture = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileChannel channel of the file opened for writing
+	 */
+	public FileBlockWriter(FileChannel fileChannel) {
+		this(fileChannel, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileChannel        channel of the file opened for writing
+	 * @param groupCommitService service that forces the file to the storage device, or null
+	 */
+	public FileBlockWriter(FileChannel fileChannel, GroupCommitService groupCommitService) {
+		this.fileChannel = fileChannel;
+		this.groupCommitService = groupCommitService;
+		this.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Adds the data of a block after the data written so far, the write
+	 * buffer is written to the file once it is full
+	 *
+	 * @param data data bytes of the block
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(byte[] data) throws IOException {
+		int offset = 0;
+
+		while (offset < data.length) {
+			int length = Math.min(writeBuffer.remaining(), data.length - offset);
+			writeBuffer.put(data, offset, length);
+			offset += length;
+
+			if (!writeBuffer.hasRemaining())
+				flush();
+		}
+	}
+
+	/**
+	 * Writes the content of the write buffer to the file
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void flush() throws IOException {
+		writeBuffer.flip();
+
+		try {
+			while (writeBuffer.hasRemaining())
+				bufferPosition += fileChannel.write(writeBuffer, bufferPosition);
+		} finally {
+			writeBuffer.compact();
+		}
+	}
+
+	/**
+	 * Flushes the write buffer and closes the file
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close() throws IOException {
+		close(DurabilityPolicy.WRITTEN);
+	}
+
+	/**
+	 * Flushes the write buffer and closes the file
+	 *
+	 * @param durabilityPolicy FSYNCED forces the file to the storage device before it is closed
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close(DurabilityPolicy durabilityPolicy) throws IOException {
+		waitFor(closeAsync(durabilityPolicy));
+	}
+
+	/**
+	 * Flushes the write buffer and closes the file without waiting for a group commit
+	 *
+	 * @param durabilityPolicy FSYNCED forces the file to the storage device before it is closed
+	 * @return completes once the file is closed, or fails with the IOException of the file
+	 */
+	public CompletableFuture<Void> closeAsync(DurabilityPolicy durabilityPolicy) {
+		return closeFile(durabilityPolicy);
+	}
+
+	/**
+	 * Closes the file on the thread that writes it, the file is closed only once
+	 *
+	 * @param durabilityPolicy FSYNCED forces the file to the storage device before it is closed
+	 * @return completes once the file is closed, or fails with the IOException of the file
+	 */
+	protected CompletableFuture<Void> closeFile(DurabilityPolicy durabilityPolicy) {
+		if (closeFuture != null)
+			return closeFuture;
+
+		try {
+			flush();
+
+			if (durabilityPolicy == DurabilityPolicy.FSYNCED && groupCommitService != null) {
+				// the file is closed once the commit that covers it is finished
+				closeFuture = groupCommitService.submit(fileChannel).whenComplete((result, e) -> closeChannel());
+				return closeFuture;
+			}
+
+			if (durabilityPolicy == DurabilityPolicy.FSYNCED)
+				fileChannel.force(true);
+
+			fileChannel.close();
+			closeFuture = CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			closeChannel();
+			closeFuture = new CompletableFuture<Void>();
+			closeFuture.completeExceptionally(e);
+		}
+
+		return closeFuture;
+	}
+
+	/**
+	 * Waits for a file operation that completes on another thread
+	 *
+	 * @param future future of the operation
+	 * @throws IOException if the operation failed
+	 */
+	protected static void waitFor(CompletableFuture<Void> future) throws IOException {
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			fileChannel.close();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("FileBlockWriter", "cannot close file");
+		}
+	}
+
+	/**
+	 * @return number of bytes written to the file, buffered bytes included
+	 */
+	public long getPosition() {
+		return bufferPosition + writeBuffer.position();
+	}
+
+	public boolean isClosed() {
+		return closeFuture != null;
+	}
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the content of the files that are read the most in memory,
+ * shared by every connection of the server. An entry is only valid for the
+ * modification time and size the file had when it was loaded, a file that
+ * changed is read from the disk again. The files are loaded by loader threads,
+ * the connections that miss a file read it from the disk in the meantime.
+ *
+ * The cache holds up to a byte budget. The requests of every file are counted,
+ * decayed over time, and a file is only loaded if it was asked for more often
+ * than the files it would evict, so a large file that is read once does not
+ * flush the files that are read all the time.
+ *
+ * The DATA packets of a cached file are also kept encoded for each block size
+ * it is read with, so the connections that read a hot file send the same
+ * packets instead of building their own. The encoded packets count towards the
+ * budget, and so does a file that is evicted or changed while connections still
+ * send it, until the last of them closes it
+ *
+ * @author Group 8
+ */
+public class FileContentCache {
+	/**
+	 * Content of a file at a given version
+	 */
+	public class CachedFile {
+		private Path path;
+		private long lastModified;
+		private long size;
+		private ByteBuffer content;
+		private volatile long lastAccess;
+		// encoded DATA packets keyed by block size
+		private ConcurrentHashMap<Integer, EncodedDATABlocks> encodedBlocks = new ConcurrentHashMap<Integer, EncodedDATABlocks>();
+		// bytes held by the content and the encoded packets, guarded by the cache
+		private long bytes;
+		// connections sending the file, guarded by the cache
+		private int readers = 0;
+		// removed from the cache while connections were sending it, its bytes are
+		// released by the last of them, guarded by the cache
+		private boolean removed = false;
+
+		private CachedFile(Path path, long lastModified, long size, ByteBuffer content) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.content = content;
+			this.lastAccess = System.nanoTime();
+			this.bytes = size;
+		}
+
+		/**
+		 * @return read only buffer of the content of the file
+		 */
+		public ByteBuffer getContent() {
+			return content.duplicate();
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the DATA packets of the file encoded for a block size, the first
+		 * connection that reads the file with that block size adds them to the cache
+		 *
+		 * @param blockSize number of data bytes in a full DATA packet
+		 * @return encoded packets, or null if they are not worth their space
+		 */
+		public EncodedDATABlocks getEncodedBlocks(int blockSize) {
+			EncodedDATABlocks blocks = encodedBlocks.get(blockSize);
+			if (blocks != null)
+				return blocks;
+
+			return addEncodedBlocks(this, blockSize);
+		}
+
+		/**
+		 * Tells the cache a connection that got the file from it is done sending it
+		 */
+		public void close() {
+			closeReader(this);
+		}
+	}
+
+	/**
+	 * Entry that may be evicted, with the values it is ordered by
+	 */
+	private static class EvictionCandidate {
+		Path path;
+		long size;
+		long lastAccess;
+		int frequency;
+
+		EvictionCandidate(Path path, CachedFile entry, int frequency) {
+			this.path = path;
+			this.size = entry.bytes;
+			this.lastAccess = entry.lastAccess;
+			this.frequency = frequency;
+		}
+	}
+
+	/**
+	 * Counts the requests of the files in a few counters whatever the number of files,
+	 * the counters are halved once enough requests were counted so that files that
+	 * used to be hot are evicted after a while
+	 */
+	private static class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+		private int[][] counters;
+		private int mask;
+		private int sampleSize;
+		private int samples = 0;
+
+		FrequencySketch(int width) {
+			int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+			counters = new int[DEPTH][size];
+			mask = size - 1;
+			sampleSize = 10 * size;
+		}
+
+		synchronized void increment(Object key) {
+			int hash = key.hashCode();
+			for (int i = 0; i < DEPTH; i++)
+				counters[i][index(hash, i)]++;
+
+			if (++samples >= sampleSize)
+				reset();
+		}
+
+		synchronized int frequency(Object key) {
+			int hash = key.hashCode();
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < DEPTH; i++)
+				frequency = Math.min(frequency, counters[i][index(hash, i)]);
+
+			return frequency;
+		}
+
+		private int index(int hash, int row) {
+			int h = hash * SEEDS[row];
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private void reset() {
+			for (int[] row : counters) {
+				for (int i = 0; i < row.length; i++)
+					row[i] >>>= 1;
+			}
+			samples /= 2;
+		}
+	}
+
+	// largest file that fits in a byte buffer
+	private static final long MAX_READ_SIZE = Integer.MAX_VALUE - 8;
+
+	private long capacity;
+	private long maxFileSize;
+
+	// entries keyed by the canonical path of the file, read without a lock
+	private ConcurrentHashMap<Path, CachedFile> entries = new ConcurrentHashMap<Path, CachedFile>();
+	// canonical paths of the files being loaded
+	private Set<Path> loadingFiles = ConcurrentHashMap.newKeySet();
+	// reads the files that are loaded, so that no connection waits for a file to be loaded
+	private ExecutorService loaderExecutor;
+	private FrequencySketch frequencySketch;
+	// bytes held by the entries and by the removed entries that are still sent, only
+	// changed while holding the lock of the cache
+	private long usedBytes = 0;
+	// part of the bytes held by removed entries that are still sent
+	private long heldBytes = 0;
+
+	// counters
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+	private AtomicLong rejections = new AtomicLong();
+	private AtomicLong invalidations = new AtomicLong();
+	private AtomicLong encodings = new AtomicLong();
+	private AtomicLong rejectedEncodings = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity      number of bytes the cache holds at most
+	 * @param maxFileSize   largest file that is kept in the cache
+	 * @param loaderThreads number of files that are loaded at the same time
+	 */
+	public FileContentCache(long capacity, long maxFileSize, int loaderThreads) {
+		this.capacity = capacity;
+		this.maxFileSize = Math.min(maxFileSize, Math.min(capacity, MAX_READ_SIZE));
+
+		// about one counter per file of the smallest size worth caching
+		this.frequencySketch = new FrequencySketch((int) Math.min(1 << 16, Math.max(64, capacity / (64 * 1024))));
+
+		this.loaderExecutor = Executors.newFixedThreadPool(Math.max(1, loaderThreads), runnable -> {
+			Thread thread = new Thread(runnable, "FileCacheLoader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the content of a file if the cache holds the version the caller found
+	 * on the disk. The disk is not touched, a file that is not in the cache is
+	 * loaded in the background if it is small enough, and it is only kept if it
+	 * was asked for often enough to take the place of the files it evicts
+	 *
+	 * @param path         canonical path of the file
+	 * @param lastModified modification time of the file in milli seconds
+	 * @param size         size of the file in bytes
+	 * @return cached file that must be closed once it is sent, or null if the file is
+	 *         not cached and must be read from the disk
+	 */
+	public CachedFile get(Path path, long lastModified, long size) {
+		frequencySketch.increment(path);
+
+		CachedFile entry = entries.get(path);
+		if (entry != null && entry.lastModified == lastModified && entry.size == size && openReader(entry)) {
+			entry.lastAccess = System.nanoTime();
+			hits.incrementAndGet();
+			return entry;
+		}
+
+		misses.incrementAndGet();
+
+		// the file changed since it was loaded
+		if (entry != null && remove(path, entry))
+			invalidations.incrementAndGet();
+
+		if (size > maxFileSize) {
+			rejections.incrementAndGet();
+			return null;
+		}
+
+		// the connections that miss the same file at the same time read it from the disk while it is loaded once
+		if (loadingFiles.add(path)) {
+			try {
+				loaderExecutor.execute(() -> {
+					try {
+						load(path);
+					} catch (IOException e) {
+						// the file is read from the disk by the next connections as well
+					} finally {
+						loadingFiles.remove(path);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the server is shutting down
+				loadingFiles.remove(path);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads a file in the cache if it is worth its space, run by a loader thread
+	 */
+	private void load(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+
+		// the file may have been loaded since it was looked up
+		CachedFile entry = entries.get(path);
+		if (entry != null && entry.lastModified == lastModified && entry.size == size)
+			return;
+
+		if (!attributes.isRegularFile() || size > maxFileSize || !makeRoom(path, size)) {
+			rejections.incrementAndGet();
+			return;
+		}
+
+		// the room is given back if the file cannot be read, deleted files included
+		boolean added = false;
+		try {
+			ByteBuffer content = read(path, size);
+
+			// the file changed while it was read, it is read from the disk until it settles
+			if (content == null || Files.getLastModifiedTime(path).toMillis() != lastModified)
+				return;
+
+			put(new CachedFile(path, lastModified, size, content));
+			added = true;
+		} finally {
+			if (!added)
+				release(size);
+		}
+	}
+
+	/**
+	 * Stops the loader threads, the files being loaded are abandoned
+	 */
+	public void shutdown() {
+		loaderExecutor.shutdownNow();
+	}
+
+	private synchronized CachedFile put(CachedFile entry) {
+		CachedFile previous = entries.put(entry.path, entry);
+
+		// the previous version of the file was loaded again
+		if (previous != null)
+			discard(previous);
+
+		return entry;
+	}
+
+	/**
+	 * Adds the encoded DATA packets of a cached file for a block size, evicting the
+	 * files that were asked for less often than this file to make room
+	 *
+	 * @return encoded packets, or null if the file was evicted or is not worth the space
+	 */
+	private synchronized EncodedDATABlocks addEncodedBlocks(CachedFile entry, int blockSize) {
+		EncodedDATABlocks blocks = entry.encodedBlocks.get(blockSize);
+		if (blocks != null)
+			return blocks;
+
+		// the connections of an evicted file copy its blocks from the content they hold
+		if (entries.get(entry.path) != entry)
+			return null;
+
+		long encodedSize = EncodedDATABlocks.getEncodedSize(entry.size, blockSize);
+		if (!makeRoom(entry.path, encodedSize)) {
+			rejectedEncodings.incrementAndGet();
+			return null;
+		}
+
+		blocks = new EncodedDATABlocks(entry.content, blockSize);
+		entry.encodedBlocks.put(blockSize, blocks);
+		entry.bytes += encodedSize;
+		encodings.incrementAndGet();
+
+		return blocks;
+	}
+
+	/**
+	 * Reserves space for a file, evicting the other entries that were asked for less
+	 * often than the file. Nothing is evicted if one of the entries that would
+	 * make room is hotter than the file
+	 *
+	 * @return false if the file is not worth its space
+	 */
+	private synchronized boolean makeRoom(Path path, long size) {
+		if (usedBytes + size <= capacity) {
+			usedBytes += size;
+			return true;
+		}
+
+		int frequency = frequencySketch.frequency(path);
+
+		// pick the coldest entries, the least recently used first among equally cold ones
+		ArrayList<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>();
+		// the files being sent keep their bytes until they are closed, evicting them makes no room
+		entries.forEach((candidatePath, entry) -> {
+			if (!candidatePath.equals(path) && entry.readers == 0)
+				candidates.add(new EvictionCandidate(candidatePath, entry, frequencySketch.frequency(candidatePath)));
+		});
+		candidates.sort((a, b) -> a.frequency != b.frequency ? Integer.compare(a.frequency, b.frequency) : Long.compare(a.lastAccess, b.lastAccess));
+
+		ArrayList<Path> victims = new ArrayList<Path>();
+		long freedBytes = 0;
+		for (EvictionCandidate candidate : candidates) {
+			if (usedBytes - freedBytes + size <= capacity)
+				break;
+
+			if (candidate.frequency >= frequency)
+				return false;
+
+			victims.add(candidate.path);
+			freedBytes += candidate.size;
+		}
+
+		if (usedBytes - freedBytes + size > capacity)
+			return false;
+
+		for (Path victim : victims) {
+			CachedFile entry = entries.remove(victim);
+			if (entry != null) {
+				usedBytes -= entry.bytes;
+				evictions.incrementAndGet();
+			}
+		}
+
+		usedBytes += size;
+		return true;
+	}
+
+	private synchronized boolean remove(Path path, CachedFile entry) {
+		if (!entries.remove(path, entry))
+			return false;
+
+		discard(entry);
+		return true;
+	}
+
+	/**
+	 * Releases the bytes of an entry removed from the cache, or leaves them to the
+	 * last connection that sends the entry
+	 */
+	private void discard(CachedFile entry) {
+		if (entry.readers == 0) {
+			usedBytes -= entry.bytes;
+			return;
+		}
+
+		entry.removed = true;
+		heldBytes += entry.bytes;
+	}
+
+	/**
+	 * Counts a connection that sends an entry
+	 *
+	 * @return false if the entry was removed since it was looked up
+	 */
+	private synchronized boolean openReader(CachedFile entry) {
+		if (entry.removed || entries.get(entry.path) != entry)
+			return false;
+
+		entry.readers++;
+		return true;
+	}
+
+	private synchronized void closeReader(CachedFile entry) {
+		entry.readers--;
+
+		if (entry.removed && entry.readers == 0) {
+			usedBytes -= entry.bytes;
+			heldBytes -= entry.bytes;
+		}
+	}
+
+	private synchronized void release(long size) {
+		usedBytes -= size;
+	}
+
+	/**
+	 * Reads the whole file in a read only buffer
+	 *
+	 * @return content of the file, or null if its size changed
+	 */
+	private ByteBuffer read(Path path, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (fileChannel.read(buffer, buffer.position()) == -1)
+					return null;
+			}
+
+			if (fileChannel.size() != size)
+				return null;
+		}
+
+		buffer.flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public String[] getStatistics() {
+		long lookups = hits.get() + misses.get();
+		double hitRatio = lookups > 0 ? 100.0 * hits.get() / lookups : 0;
+		long cachedBytes;
+		long removedBytes;
+		synchronized (this) {
+			cachedBytes = usedBytes;
+			removedBytes = heldBytes;
+		}
+
+		String[] statistics = {
+				String.format("file cache: %d files, %d/%d bytes (%d held by removed files still sent)", entries.size(), cachedBytes, capacity, removedBytes),
+				String.format("file cache hits: %d, misses: %d (%.2f%% hits), evictions: %d, rejected: %d, invalidated: %d",
+						hits.get(), misses.get(), hitRatio, evictions.get(), rejections.get(), invalidations.get()),
+				String.format("file cache packet encodings: %d, rejected: %d", encodings.get(), rejectedEncodings.get())
+		};
+
+		return statistics;
+	}
+}
@@ -1,8 +1,22 @@
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.FileNotFoundException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileStore;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class provides an interface for objects to write or read files from hard drive
@@ -13,6 +27,20 @@ import java.io.FileNotFoundException;
 public class FileManager {
 	// directory where the file that are transferred will be saved
 	private static String destinationDirectoryStr = "transfered_files";
+	// directory inside the destination directory where the uploads are written until they are
+	// complete, it is on the same file system so the finished files are moved without a copy
+	private static String stagingDirectoryStr = ".staging";
+	// resolved once, the working directory of the process does not change
+	private static File destinationDirectory = new File(System.getProperty("user.dir"), destinationDirectoryStr);
+	// a write that fails while fewer bytes than this are left on the disk failed for a full disk
+	private static final long MIN_USABLE_SPACE = 1024 * 1024;
+	// bytes promised to the uploads of the process that are not published or discarded yet,
+	// the file system only counts the bytes that were written so far
+	private static long reservedBytes = 0;
+	// prefixes of the staging files of the server and the client, a server that starts only
+	// deletes its own staging files, not those of a client running from the same directory
+	public static final String SERVER_STAGING_PREFIX = "server-upload-";
+	public static final String CLIENT_STAGING_PREFIX = "client-upload-";
 	
 	/**
 	 * This class has the necessary variables to indicate the result
@@ -21,7 +49,13 @@ public class FileManager {
 	 * @author Group 8
 	 */
 	public class FileManagerResult {
-		public byte[] fileBytes = null;
+		public FileChannel fileChannel = null;
+		// file opened for asynchronous reads instead of the file channel
+		public AsynchronousFileChannel asyncFileChannel = null;
+		// file served from the file cache, the file is not opened then
+		public FileContentCache.CachedFile cachedFile = null;
+		public long fileSize = 0;
+		public FileBlockWriter fileWriter = null;
 		boolean accessViolation = false;
 		boolean fileNotFound = false;
 		boolean fileAlreadyExist = false;
@@ -29,55 +63,204 @@ public class FileManager {
 		boolean error = false;
 	}
 
+	// forces the uploads that must be durable in group commits, null to force each file on its own
+	private GroupCommitService groupCommitService;
+	// keeps the files that are read the most in memory, null to read every file from the disk
+	private FileContentCache fileContentCache;
+	// remembers the lookups of the requested file names, null to check every file on the disk
+	private PathLookupCache pathLookupCache;
+	// attributes of the files of the destination directory, null to check the files on the disk
+	private DirectoryIndex directoryIndex;
+	// staging files of the uploads created by this file manager that are not published yet
+	// the upload is published by the writer thread of the file with the QUEUED durability policy
+	private ConcurrentHashMap<String, File> stagingFiles = new ConcurrentHashMap<String, File>();
+	// space reserved by the uploads of this file manager with the size reported by tsize
+	private ConcurrentHashMap<String, Long> reservations = new ConcurrentHashMap<String, Long>();
+	// prefix of the staging files created by this file manager
+	private String stagingPrefix = CLIENT_STAGING_PREFIX;
+	
 	public FileManager() {}
 	
 	/**
-	 * Read file from hard dive and return data in list of bytes
+	 * Constructor
+	 * 
+	 * @param groupCommitService service that forces the written files to the storage device, or null
+	 */
+	public FileManager(GroupCommitService groupCommitService) {
+		this(groupCommitService, null, null, null, CLIENT_STAGING_PREFIX);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param groupCommitService service that forces the written files to the storage device, or null
+	 * @param fileContentCache   cache of the files that are read the most, or null
+	 * @param pathLookupCache    cache of the lookups of the requested file names, or null
+	 * @param directoryIndex     index of the files of the destination directory, or null
+	 * @param stagingPrefix      prefix of the staging files of the uploads, SERVER_STAGING_PREFIX
+	 *                           or CLIENT_STAGING_PREFIX
+	 */
+	public FileManager(GroupCommitService groupCommitService, FileContentCache fileContentCache, PathLookupCache pathLookupCache, DirectoryIndex directoryIndex, String stagingPrefix) {
+		this.groupCommitService = groupCommitService;
+		this.stagingPrefix = stagingPrefix;
+		this.fileContentCache = fileContentCache;
+		this.pathLookupCache = pathLookupCache;
+		this.directoryIndex = directoryIndex;
+	}
+	
+	/**
+	 * @return directory where the transferred files are saved
+	 */
+	public static Path getDestinationDirectory() {
+		return destinationDirectory.toPath();
+	}
+	
+	/**
+	 * @return name of the directory of the destination directory where the uploads are written
+	 */
+	public static String getStagingDirectoryName() {
+		return stagingDirectoryStr;
+	}
+	
+	/**
+	 * Open a file from hard drive for reading its blocks one at a time,
+	 * the file is not loaded in memory unless the file cache keeps it
 	 * 
 	 * @param fileName: fileName
 	 * 
-	 * Return FileManagerResult containing the list of bytes read or error flagged
+	 * Return FileManagerResult containing the open file channel or the cached content,
+	 * and the size of the file, or error flagged
 	 */
-	public FileManagerResult readFile(String fileName) {		
+	public FileManagerResult openFile(String fileName) {
+		return openFile(fileName, false);
+	}
+	
+	/**
+	 * Open a file from hard drive for reading its blocks one at a time,
+	 * the file is not loaded in memory unless the file cache keeps it
+	 * 
+	 * @param fileName: fileName
+	 * @param asynchronous: open the file for asynchronous reads, for reading ahead of the window
+	 * 
+	 * Return FileManagerResult containing the open file channel or the cached content,
+	 * and the size of the file, or error flagged
+	 */
+	public FileManagerResult openFile(String fileName, boolean asynchronous) {
 		FileManagerResult res = new FileManagerResult();
-		
-		File file = new File(fileName);
-		
-		byte[] fileBytes = new byte[(int)file.length()];
+		Path indexedPath = null;
 		
 		try {
-			FileInputStream fileInputStream = new FileInputStream(file); 
-			fileInputStream.read(fileBytes);
-			fileInputStream.close();
-			res.fileBytes = fileBytes;
-		} catch (FileNotFoundException e) {	
-			// if the error message contains "Permission denied"
-			// then set the accessViolation flag to true
-			if (e.getMessage().contains("Permission denied"))
-				res.accessViolation = true;
-			else
-				// if the error message contains "cannot find the file"
-				// then set fileNotFound to true
-				res.fileNotFound = true;
+			Path path;
+			// version of the file the cached content must match
+			long lastModified;
+			long size;
+			
+			// the files of the destination directory are checked in the index, their
+			// names are not looked up
+			indexedPath = getIndexedPath(fileName);
+			if (indexedPath != null) {
+				DirectoryIndex.FileEntry entry = directoryIndex.get(indexedPath);
+				if (entry == null || entry.isDirectory() || !entry.isReadable()) {
+					res.fileNotFound = entry == null || entry.isDirectory();
+					res.accessViolation = !res.fileNotFound;
+					res.error = true;
+					return res;
+				}
+				
+				path = directoryIndex.resolve(indexedPath);
+				lastModified = entry.getLastModified();
+				size = entry.getSize();
+			}
+			else if (pathLookupCache != null) {
+				// a file that was not found or denied a moment ago is refused without touching the disk
+				PathLookupCache.Lookup lookup = pathLookupCache.resolve(fileName);
+				if (lookup.getPath() == null) {
+					res.fileNotFound = lookup.isNotFound();
+					res.accessViolation = lookup.isAccessDenied();
+					res.error = true;
+					return res;
+				}
+				
+				path = lookup.getPath();
+				lastModified = lookup.getLastModified();
+				size = lookup.getSize();
+			}
+			else {
+				path = Paths.get(fileName).toRealPath();
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				
+				// a directory cannot be sent
+				if (attributes.isDirectory()) {
+					res.fileNotFound = true;
+					res.error = true;
+					return res;
+				}
+				
+				lastModified = attributes.lastModifiedTime().toMillis();
+				size = attributes.size();
+			}
+			
+			if (fileContentCache != null) {
+				FileContentCache.CachedFile cachedFile = fileContentCache.get(path, lastModified, size);
+				if (cachedFile != null) {
+					res.cachedFile = cachedFile;
+					res.fileSize = cachedFile.getSize();
+					return res;
+				}
+			}
 			
-			// set error flag
+			if (asynchronous) {
+				AsynchronousFileChannel fileChannel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+				try {
+					// the index knows the size of its files
+					res.fileSize = indexedPath != null ? size : fileChannel.size();
+				} catch (IOException e) {
+					fileChannel.close();
+					throw e;
+				}
+				res.asyncFileChannel = fileChannel;
+			}
+			else {
+				FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+				try {
+					res.fileSize = indexedPath != null ? size : fileChannel.size();
+				} catch (IOException e) {
+					fileChannel.close();
+					throw e;
+				}
+				res.fileChannel = fileChannel;
+			}
+		} catch (NoSuchFileException e) {
+			// the file was removed since it was looked up or indexed
+			if (indexedPath != null)
+				directoryIndex.refresh(indexedPath);
+			else if (pathLookupCache != null)
+				pathLookupCache.putFailure(fileName, false);
+			
+			res.fileNotFound = true;
+			res.error = true;
+		} catch (InvalidPathException e) {
+			res.fileNotFound = true;
 			res.error = true;
+		} catch (AccessDeniedException e) {
+			if (indexedPath != null)
+				directoryIndex.refresh(indexedPath);
+			else if (pathLookupCache != null)
+				pathLookupCache.putFailure(fileName, true);
 			
-		} catch (IOException e) {
-			// if the error message contains "Permission denied"
-			// then set the accessViolation flag to true
-			if (e.getMessage().contains("Permission denied"))
-				res.accessViolation = true;
-
-			// set error flag
+			res.accessViolation = true;
 			res.error = true;
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
 		}
 		
 		return res;
 	}
 	
 	/**
-	 * Method used to create a file if it is not already there
+	 * Method used to create a file if it is not already there. The file is created
+	 * in the staging directory and only appears in the destination directory once
+	 * it is published, readers never see a file that is half written
 	 * 
 	 * @param  fileName
 	 * @return FileManagerResult containing the list of bytes read or error flagged
@@ -85,89 +268,542 @@ public class FileManager {
 	public FileManagerResult createFile(String fileName) {
 		FileManagerResult res = new FileManagerResult();
 		
-		String fileNameFull = System.getProperty("user.dir") + File.separator + destinationDirectoryStr + File.separator + fileName;
-		File file = new File(fileNameFull);
+		File file = getDestinationFile(fileName);
+		File stagingDirectory = new File(destinationDirectory, stagingDirectoryStr);
 		
 		// create a new file if it does not exist
 		try {
-			if (!file.getParentFile().exists()) {
+			if (!stagingDirectory.exists()) {
 				
-				if (!file.getParentFile().mkdirs()) {
+				if (!stagingDirectory.mkdirs() && !stagingDirectory.exists()) {
 					res.accessViolation = true;
 					res.error = true;
 					return res;
 				}
 			}
 			
-			if (file.exists()) {
+			if (fileExists(fileName, file)) {
 				res.fileAlreadyExist = true;
 				res.error = true;
 			}
 			else {
-				file.createNewFile();
+				// every upload gets its own staging file, uploads of the same name do not collide
+				File stagingFile = Files.createTempFile(stagingDirectory.toPath(), stagingPrefix, ".part").toFile();
+				stagingFiles.put(fileName, stagingFile);
 			}
 		} catch (IOException e) {
-			// if the error message contains "Permission denied"
-			// then set the accessViolation flag to true
-			if (e.getMessage().contains("Permission denied"))
-				res.accessViolation = true;
-			
-			// Check error message to see if the error is about disk full
-			if (e.getMessage().contains("not enough space") || e.getMessage().contains("Not enough space")
-			        || e.getMessage().contains("No space left"))
-			    res.diskFull = true;
-			
-			// set error flag
-			res.error = true;
+			setIOErrorFlags(res, e);
 		}
 		
 		return res;
 	}
 	
 	/**
-	 * Writes file data in bytes to a hard drive with the given file name
+	 * Opens a file of the destination directory that was just created, the file
+	 * stays open until the transfer is finished and its blocks are written through
+	 * a write buffer
+	 * 
+	 * @param fileName: file name
+	 * 
+	 * Return FileManagerResult containing the file writer or error flagged
+	 */
+	public FileManagerResult openFileWriter(String fileName) {
+		return openFileWriter(fileName, false);
+	}
+	
+	/**
+	 * Opens a file of the destination directory that was just created, the file
+	 * stays open until the transfer is finished and its blocks are written through
+	 * a write buffer
 	 * 
 	 * @param fileName: file name
+	 * @param pipelined: true to write the blocks on a writer thread of the file
+	 * 
+	 * Return FileManagerResult containing the file writer or error flagged
+	 */
+	public FileManagerResult openFileWriter(String fileName, boolean pipelined) {
+		FileManagerResult res = new FileManagerResult();
+		
+		try {
+			FileChannel fileChannel = FileChannel.open(getWritableFile(fileName).toPath(), StandardOpenOption.WRITE);
+			if (pipelined)
+				res.fileWriter = new PipelinedFileBlockWriter(fileChannel, groupCommitService, fileName, NetworkConfig.WRITE_QUEUE_BLOCKS);
+			else
+				res.fileWriter = new FileBlockWriter(fileChannel, groupCommitService);
+		} catch (NoSuchFileException | InvalidPathException e) {
+			res.fileNotFound = true;
+			res.error = true;
+		} catch (AccessDeniedException e) {
+			res.accessViolation = true;
+			res.error = true;
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Writes file data after the data written so far by a file writer
+	 * 
+	 * @param fileWriter: file writer of the transfer
 	 * @param data: file data in byte form
 	 * 
 	 * Return FileManagerResult containing the errors flags 
 	 */
-	public FileManagerResult writeFile(String fileName, byte[] data) {
+	public FileManagerResult writeFile(FileBlockWriter fileWriter, byte[] data) {
 		FileManagerResult res = new FileManagerResult();
 		
-		String fileNameFull = System.getProperty("user.dir") + File.separator + destinationDirectoryStr + File.separator + fileName;
-		File file = new File(fileNameFull);
+		try {
+			fileWriter.write(data);
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Flushes the data buffered by a file writer and closes its file, used once
+	 * the transfer is complete or ended by an error
+	 * 
+	 * @param fileWriter: file writer of the transfer
+	 * 
+	 * Return FileManagerResult containing the errors flags 
+	 */
+	public FileManagerResult closeFileWriter(FileBlockWriter fileWriter) {
+		return closeFileWriter(fileWriter, DurabilityPolicy.WRITTEN);
+	}
+	
+	/**
+	 * Flushes the data buffered by a file writer and closes its file once the data
+	 * has gone as far as the durability policy requires
+	 * 
+	 * @param fileWriter: file writer of the transfer
+	 * @param durabilityPolicy: how far the data must have gone before the method returns
+	 * 
+	 * Return FileManagerResult containing the errors flags 
+	 */
+	public FileManagerResult closeFileWriter(FileBlockWriter fileWriter, DurabilityPolicy durabilityPolicy) {
+		FileManagerResult res = new FileManagerResult();
 		
-		// write to file
 		try {
-			// append to previous data on file
-			FileOutputStream fileOutputStream = new FileOutputStream(file, true);
-			fileOutputStream.write(data);
-			fileOutputStream.close();
-		} catch (FileNotFoundException e) {	
-			
-			// if the error message contains "cannot find the file"
-			// then set fileNotFound to true
-			res.fileNotFound = true;
+			fileWriter.close(durabilityPolicy);
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Flushes the data buffered by a file writer and closes its file without waiting
+	 * for the group commit that forces it, used by the event loops
+	 * 
+	 * @param fileWriter: file writer of the transfer
+	 * @param durabilityPolicy: how far the data must have gone before the future completes
+	 * 
+	 * Return future of the FileManagerResult containing the errors flags 
+	 */
+	public CompletableFuture<FileManagerResult> closeFileWriterAsync(FileBlockWriter fileWriter, DurabilityPolicy durabilityPolicy) {
+		return fileWriter.closeAsync(durabilityPolicy).handle((result, e) -> {
+			FileManagerResult res = new FileManagerResult();
 			
-			// set error flag
-			res.error = true;
+			if (e instanceof CompletionException)
+				e = e.getCause();
+			if (e instanceof IOException)
+				setIOErrorFlags(res, (IOException) e);
+			else if (e != null)
+				res.error = true;
 			
+			return res;
+		});
+	}
+	
+	/**
+	 * Checks that the file system of the destination directory has room for a file,
+	 * the space reserved by the uploads that are running is not counted as free
+	 * 
+	 * @param size: size of the file in bytes
+	 * 
+	 * Return FileManagerResult with the diskFull flag set if the file does not fit 
+	 */
+	public FileManagerResult checkUsableSpace(long size) {
+		FileManagerResult res = new FileManagerResult();
+		
+		try {
+			if (getDestinationFileStore().getUsableSpace() - getReservedBytes() < size) {
+				res.diskFull = true;
+				res.error = true;
+			}
 		} catch (IOException e) {
-			// if the error message contains "Permission denied"
-			// then set the accessViolation flag to true
-			if (e.getMessage().contains("Permission denied"))
-				res.accessViolation = true;
+			setIOErrorFlags(res, e);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Reserves the space of a file that was just created, once the size of the
+	 * transfer is known (tsize option). The space is promised to the upload until
+	 * it is published or discarded, so that uploads running at the same time do not
+	 * count on the same free space. The file itself is not extended, Java has no
+	 * portable way to allocate the blocks of a file without writing them. The bytes
+	 * an upload has written are counted twice until it ends, which errs on the side
+	 * of refusing an upload
+	 * 
+	 * @param fileName: file name
+	 * @param size: size of the file in bytes
+	 * 
+	 * Return FileManagerResult with the diskFull flag set if the file does not fit 
+	 */
+	public FileManagerResult allocateFile(String fileName, long size) {
+		FileManagerResult res = new FileManagerResult();
+		
+		try {
+			if (reserveSpace(getDestinationFileStore().getUsableSpace(), size))
+				reservations.merge(fileName, size, Long::sum);
+			else {
+				res.diskFull = true;
+				res.error = true;
+			}
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Promises space to an upload if the space that is not promised yet is large enough
+	 * 
+	 * @param usableSpace: usable space of the file system in bytes
+	 * @param size: size of the file in bytes
+	 * 
+	 * Return true if the space was reserved
+	 */
+	private static synchronized boolean reserveSpace(long usableSpace, long size) {
+		if (usableSpace - reservedBytes < size)
+			return false;
+		
+		reservedBytes += size;
+		return true;
+	}
+	
+	private static synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+	
+	/**
+	 * Gives back the space reserved for an upload once it is published or discarded
+	 * 
+	 * @param fileName: file name
+	 */
+	private void releaseReservation(String fileName) {
+		Long size = reservations.remove(fileName);
+		if (size != null)
+			releaseSpace(size);
+	}
+	
+	private static synchronized void releaseSpace(long size) {
+		reservedBytes -= size;
+	}
+	
+	/**
+	 * Closes the file writer of a complete upload as far as the durability policy
+	 * requires and publishes the file. With the QUEUED policy the file is published
+	 * by the writer thread once the queued blocks are written, and its errors are
+	 * only printed
+	 * 
+	 * @param fileName: file name
+	 * @param fileWriter: file writer of the transfer
+	 * @param durabilityPolicy: how far the data must have gone before the method returns
+	 * 
+	 * Return FileManagerResult containing the errors flags 
+	 */
+	public FileManagerResult finishFile(String fileName, FileBlockWriter fileWriter, DurabilityPolicy durabilityPolicy) {
+		CompletableFuture<FileManagerResult> future = finishFileAsync(fileName, fileWriter, durabilityPolicy);
+		
+		if (durabilityPolicy == DurabilityPolicy.QUEUED && !future.isDone()) {
+			future.thenAccept(res -> {
+				if (res.error)
+					UIManager.printErrorMessage("FileManager", String.format("cannot publish file %s", fileName));
+			});
 			
-            // Check error message to see if the error is about disk full
-            if (e.getMessage().contains("not enough space") || e.getMessage().contains("Not enough space")
-                    || e.getMessage().contains("No space left"))
-                res.diskFull = true;
+			return new FileManagerResult();
+		}
+		
+		return future.join();
+	}
+	
+	/**
+	 * Closes the file writer of a complete upload and publishes the file without
+	 * waiting for the group commit that forces it, used by the event loops
+	 * 
+	 * @param fileName: file name
+	 * @param fileWriter: file writer of the transfer
+	 * @param durabilityPolicy: how far the data must have gone before the future completes
+	 * 
+	 * Return future of the FileManagerResult containing the errors flags 
+	 */
+	public CompletableFuture<FileManagerResult> finishFileAsync(String fileName, FileBlockWriter fileWriter, DurabilityPolicy durabilityPolicy) {
+		return closeFileWriterAsync(fileWriter, durabilityPolicy).thenApply(res -> {
+			if (!res.error)
+				return publishFile(fileName, durabilityPolicy);
 			
-			// set error flag
+			discardFile(fileName);
+			return res;
+		});
+	}
+	
+	/**
+	 * Moves a complete upload from the staging directory to the destination directory
+	 * in one step. The file is linked under its name, which fails if a file of the
+	 * same name was published in the meantime. If links are not supported the name is
+	 * claimed with an empty file first, which the upload is renamed over
+	 * 
+	 * @param fileName: file name
+	 * @param durabilityPolicy: with FSYNCED the directory is forced so that the name is durable
+	 * 
+	 * Return FileManagerResult with the fileAlreadyExist flag set if the name is taken
+	 */
+	public FileManagerResult publishFile(String fileName, DurabilityPolicy durabilityPolicy) {
+		FileManagerResult res = new FileManagerResult();
+		
+		File stagingFile = stagingFiles.get(fileName);
+		if (stagingFile == null) {
+			res.fileNotFound = true;
 			res.error = true;
+			return res;
+		}
+		
+		File file = getDestinationFile(fileName);
+		
+		try {
+			if (!file.getParentFile().exists() && !file.getParentFile().mkdirs() && !file.getParentFile().exists()) {
+				res.accessViolation = true;
+				res.error = true;
+			}
+			else {
+				boolean linked = false;
+				try {
+					Files.createLink(file.toPath(), stagingFile.toPath());
+					linked = true;
+				} catch (FileAlreadyExistsException e) {
+					throw e;
+				} catch (UnsupportedOperationException | FileSystemException e) {
+					// a rename replaces the target, the name is claimed first and fails if it is taken
+					Files.createFile(file.toPath());
+					try {
+						Files.move(stagingFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException | RuntimeException moveException) {
+						// the name claimed by this upload is given back, the upload can be tried again
+						try {
+							Files.deleteIfExists(file.toPath());
+						} catch (IOException deleteException) {
+							moveException.addSuppressed(deleteException);
+						}
+						throw moveException;
+					}
+				}
+				
+				stagingFiles.remove(fileName);
+				releaseReservation(fileName);
+				
+				// the published file keeps its data through the link
+				if (linked)
+					stagingFile.delete();
+				
+				// the last block is not acknowledged before the new name survives a crash
+				if (durabilityPolicy == DurabilityPolicy.FSYNCED)
+					forceDirectory(file.getParentFile());
+			}
+		} catch (FileAlreadyExistsException e) {
+			res.fileAlreadyExist = true;
+			res.error = true;
+		} catch (IOException e) {
+			setIOErrorFlags(res, e);
+		}
+		
+		// a file that cannot be published is not kept
+		if (res.error)
+			discardFile(fileName);
+		else {
+			// a read request may come before the directory watchers report the new file
+			if (directoryIndex != null)
+				directoryIndex.refresh(Paths.get(fileName));
+			if (pathLookupCache != null)
+				invalidateLookups(file.getParentFile());
 		}
 		
 		return res;
 	}
+	
+	/**
+	 * Forces the entries of a directory to the storage device
+	 */
+	private void forceDirectory(File directory) throws IOException {
+		FileChannel directoryChannel;
+		try {
+			directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			// a platform that cannot open a directory (Windows) makes its entries durable on its own
+			return;
+		}
+		
+		try {
+			directoryChannel.force(true);
+		} finally {
+			directoryChannel.close();
+		}
+	}
+	
+	/**
+	 * Deletes the staging files left by the uploads of a server that stopped before
+	 * they were published or discarded, called when the server starts. The staging
+	 * files of other prefixes are kept, they may belong to a transfer that is running
+	 * 
+	 * @param stagingPrefix: prefix of the staging files to delete
+	 * 
+	 * Return number of files deleted
+	 */
+	public static int cleanStagingDirectory(String stagingPrefix) {
+		File stagingDirectory = new File(destinationDirectory, stagingDirectoryStr);
+		File[] stagingFiles = stagingDirectory.listFiles((directory, name) -> name.startsWith(stagingPrefix) && name.endsWith(".part"));
+		if (stagingFiles == null)
+			return 0;
+		
+		int deleted = 0;
+		for (File stagingFile : stagingFiles) {
+			if (stagingFile.delete())
+				deleted++;
+		}
+		
+		return deleted;
+	}
+	
+	/**
+	 * Deletes the staging file of an upload that is not published, used when a
+	 * transfer is refused or ended early after its file was created. A failed upload
+	 * leaves nothing behind and can be tried again
+	 * 
+	 * @param fileName: file name
+	 */
+	public void discardFile(String fileName) {
+		File stagingFile = stagingFiles.remove(fileName);
+		if (stagingFile != null)
+			stagingFile.delete();
+		
+		releaseReservation(fileName);
+	}
+	
+	/**
+	 * Forgets the lookups of the files of a directory, every lookup if the directory cannot be resolved
+	 */
+	private void invalidateLookups(File directory) {
+		try {
+			pathLookupCache.invalidate(directory.toPath().toRealPath());
+		} catch (IOException e) {
+			pathLookupCache.invalidate(null);
+		}
+	}
+	
+	private File getDestinationFile(String fileName) {
+		return new File(destinationDirectory, fileName);
+	}
+	
+	/**
+	 * Checks if a file of the destination directory exists, in the index if it has the file
+	 */
+	private boolean fileExists(String fileName, File file) {
+		try {
+			Path relativePath = Paths.get(fileName);
+			if (directoryIndex != null && directoryIndex.covers(relativePath))
+				return directoryIndex.get(relativePath) != null;
+		} catch (InvalidPathException e) {
+			return false;
+		}
+		
+		return file.exists();
+	}
+	
+	/**
+	 * Returns the path in the destination directory of a requested file name, requests
+	 * are relative to the working directory
+	 * 
+	 * @return path relative to the destination directory, null if the file is not in the
+	 *         directory or the index cannot tell whether it exists
+	 */
+	private Path getIndexedPath(String fileName) {
+		if (directoryIndex == null)
+			return null;
+		
+		Path path = Paths.get(fileName).normalize();
+		Path destinationPath = Paths.get(destinationDirectoryStr);
+		if (path.isAbsolute() || !path.startsWith(destinationPath) || path.equals(destinationPath))
+			return null;
+		
+		Path relativePath = destinationPath.relativize(path);
+		
+		// the uploads that are not published are not served
+		if (relativePath.startsWith(stagingDirectoryStr))
+			return relativePath;
+		
+		return directoryIndex.covers(relativePath) ? relativePath : null;
+	}
+	
+	/**
+	 * Returns the file that the data of an upload is written to, the staging file
+	 * if the upload is not published yet
+	 */
+	private File getWritableFile(String fileName) {
+		File stagingFile = stagingFiles.get(fileName);
+		if (stagingFile != null)
+			return stagingFile;
+		
+		return getDestinationFile(fileName);
+	}
+	
+	/**
+	 * Sets the error flags matching an IO exception
+	 */
+	private void setIOErrorFlags(FileManagerResult res, IOException e) {
+		if (e instanceof AccessDeniedException)
+			res.accessViolation = true;
+		else if (e instanceof NoSuchFileException)
+			res.fileNotFound = true;
+		else if (e instanceof FileAlreadyExistsException)
+			res.fileAlreadyExist = true;
+		// the file system does not say why a write failed, it is a full disk if no room is left
+		else if (isDiskFull())
+			res.diskFull = true;
+		
+		// set error flag
+		res.error = true;
+	}
+	
+	/**
+	 * Checks the file system of the destination directory after a write failed
+	 * 
+	 * Return true if less than MIN_USABLE_SPACE bytes are left
+	 */
+	private boolean isDiskFull() {
+		try {
+			return getDestinationFileStore().getUsableSpace() < MIN_USABLE_SPACE;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the file system of the destination directory
+	 */
+	private static FileStore getDestinationFileStore() throws IOException {
+		// the destination directory is created with the first file
+		File directory = destinationDirectory;
+		if (!directory.exists())
+			directory = new File(System.getProperty("user.dir"));
+		
+		return Files.getFileStore(directory.toPath());
+	}
 }
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class forces the files of the uploads that must be durable to the storage
+ * device in group commits. The requests of every connection are gathered for a
+ * commit interval and forced together, instead of each connection forcing its
+ * file on its own. Java cannot flush a whole file system, so every file of a
+ * commit is still forced on its own, but the files are forced at the same time
+ * by a pool of threads: a journaling file system commits the concurrent forces
+ * in one journal transaction and one device flush. A request completes once
+ * the commit that covers it is finished
+ *
+ * @author Group 8
+ */
+public class GroupCommitService implements Runnable {
+	/**
+	 * A file waiting for the next commit
+	 */
+	private static class CommitRequest {
+		FileChannel fileChannel;
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		long submitTime = System.nanoTime();
+
+		CommitRequest(FileChannel fileChannel) {
+			this.fileChannel = fileChannel;
+		}
+	}
+
+	private long commitInterval;
+	// threads that force the files of a commit at the same time
+	private ExecutorService forceExecutor;
+
+	// requests waiting for the next commit, guarded by this
+	private ArrayList<CommitRequest> pendingRequests = new ArrayList<CommitRequest>();
+	private volatile boolean running = true;
+
+	// time in micro seconds the commits take and the requests wait for their commit
+	private Histogram commitLatency = new Histogram();
+	private Histogram requestLatency = new Histogram();
+	// number of requests covered by each commit
+	private Histogram batchSize = new Histogram();
+
+	/**
+	 * Constructor
+	 *
+	 * @param commitInterval time in milli seconds the requests are gathered for before a commit
+	 * @param forceThreads   number of files of a commit that are forced at the same time
+	 */
+	public GroupCommitService(int commitInterval, int forceThreads) {
+		this.commitInterval = TimeUnit.MILLISECONDS.toNanos(commitInterval);
+		this.forceExecutor = Executors.newFixedThreadPool(Math.max(1, forceThreads), runnable -> {
+			Thread thread = new Thread(runnable, "GroupCommitForce");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Asks for a file to be forced to the storage device with the next commit
+	 *
+	 * @param fileChannel channel of the file, left open until the request completes
+	 * @return completes once the file is forced, or fails with the IOException of the commit
+	 */
+	public CompletableFuture<Void> submit(FileChannel fileChannel) {
+		CommitRequest request = new CommitRequest(fileChannel);
+
+		synchronized (this) {
+			if (running) {
+				pendingRequests.add(request);
+				notifyAll();
+				return request.future;
+			}
+		}
+
+		// the connections that finish after a shutdown force their file on their own
+		try {
+			fileChannel.force(true);
+			request.future.complete(null);
+		} catch (IOException e) {
+			request.future.completeExceptionally(e);
+		}
+
+		return request.future;
+	}
+
+	/**
+	 * Runs a commit every commit interval while files are waiting
+	 */
+	@Override
+	public void run() {
+		// the first request does not wait for a previous commit
+		long lastCommit = System.nanoTime() - commitInterval;
+
+		while (true) {
+			ArrayList<CommitRequest> batch;
+
+			synchronized (this) {
+				try {
+					// wait for the first request and let the others gather until the interval is over
+					while (running && (pendingRequests.isEmpty() || System.nanoTime() - lastCommit < commitInterval)) {
+						if (pendingRequests.isEmpty())
+							wait();
+						else
+							TimeUnit.NANOSECONDS.timedWait(this, commitInterval - (System.nanoTime() - lastCommit));
+					}
+				} catch (InterruptedException e) {
+					running = false;
+				}
+
+				if (!running && pendingRequests.isEmpty()) {
+					forceExecutor.shutdown();
+					return;
+				}
+
+				batch = pendingRequests;
+				pendingRequests = new ArrayList<CommitRequest>();
+			}
+
+			lastCommit = System.nanoTime();
+			commit(batch);
+		}
+	}
+
+	/**
+	 * Forces every file of the batch once, all at the same time, and completes the requests
+	 */
+	private void commit(ArrayList<CommitRequest> batch) {
+		long commitStart = System.nanoTime();
+
+		// a file submitted twice is forced once
+		IdentityHashMap<FileChannel, CompletableFuture<Void>> forces = new IdentityHashMap<FileChannel, CompletableFuture<Void>>();
+		for (CommitRequest request : batch) {
+			if (!forces.containsKey(request.fileChannel))
+				forces.put(request.fileChannel, force(request.fileChannel));
+		}
+
+		// the commit is over once the last file is forced, a failed file does not fail the others
+		CompletableFuture.allOf(forces.values().toArray(new CompletableFuture<?>[0])).handle((result, e) -> null).join();
+
+		long commitEnd = System.nanoTime();
+		commitLatency.record(TimeUnit.NANOSECONDS.toMicros(commitEnd - commitStart));
+		batchSize.record(batch.size());
+
+		for (CommitRequest request : batch) {
+			requestLatency.record(TimeUnit.NANOSECONDS.toMicros(commitEnd - request.submitTime));
+
+			forces.get(request.fileChannel).whenComplete((result, e) -> {
+				if (e == null)
+					request.future.complete(null);
+				else
+					request.future.completeExceptionally(e);
+			});
+		}
+	}
+
+	/**
+	 * Forces a file on a thread of the pool
+	 *
+	 * @return completes once the file is forced, or fails with its IOException
+	 */
+	private CompletableFuture<Void> force(FileChannel fileChannel) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+		forceExecutor.execute(() -> {
+			try {
+				fileChannel.force(true);
+				future.complete(null);
+			} catch (IOException e) {
+				future.completeExceptionally(e);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Stops the service once the waiting files are forced, the files submitted
+	 * afterwards are forced by the thread that submits them
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public String[] getStatistics() {
+		String[] statistics = {
+				batchSize.getStatistics("group commit batch size", "files"),
+				commitLatency.getStatistics("group commit latency", "us"),
+				requestLatency.getStatistics("group commit wait", "us")
+		};
+
+		return statistics;
+	}
+}
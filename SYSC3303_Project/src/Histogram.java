@@ -0,0 +1,60 @@
+/**
+ * This class counts values in buckets whose bounds are powers of two, so
+ * that the spread of a measure can be printed with a few percentiles
+ *
+ * @author Group 8
+ */
+public class Histogram {
+	// bucket i counts the values below 2^i that are not counted by bucket i - 1
+	private long[] buckets = new long[64];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	/**
+	 * Adds a value
+	 *
+	 * @param value value, negative values are counted as 0
+	 */
+	public synchronized void record(long value) {
+		value = Math.max(0, value);
+
+		buckets[64 - Long.numberOfLeadingZeros(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that holds the given share of the values
+	 *
+	 * @param percentile share of the values between 0 and 100
+	 * @return bound of the bucket, 0 if no value was added
+	 */
+	public synchronized long getPercentile(double percentile) {
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0)
+				return Math.min(max, i == 0 ? 0 : (1L << i) - 1);
+		}
+
+		return max;
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @param name name of the measure
+	 * @param unit unit of the values
+	 * @return line with the count, mean and percentiles
+	 */
+	public synchronized String getStatistics(String name, String unit) {
+		double mean = count > 0 ? (double) sum / count : 0;
+
+		return String.format("%s: count %d, mean %.1f %s, p50 <= %d, p90 <= %d, p99 <= %d, max %d %s",
+				name, count, mean, unit, getPercentile(50), getPercentile(90), getPercentile(99), max, unit);
+	}
+}
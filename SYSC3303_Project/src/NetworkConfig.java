@@ -8,7 +8,93 @@ public class NetworkConfig {
 	// should be changed to 69 when submitting the project
 	public static final int SERVER_PORT = 10000;
 	public static final int DATAGRAM_PACKET_MAX_LEN = 516;
+	// block size the client asks for with the blksize option, 512 makes plain requests
+	// 1428 fills an Ethernet frame without IP fragmentation
+	public static final int BLOCK_SIZE = 1428;
+	// largest block size the server accepts, up to 65464 (RFC 2348)
+	public static final int MAX_BLOCK_SIZE = 65464;
+	// number of DATA packets the client asks to send before an ACK packet with the
+	// windowsize option (RFC 7440), 1 keeps the lock step transfer
+	public static final int WINDOW_SIZE = 16;
+	// largest window size the server accepts, up to 65535
+	public static final int MAX_WINDOW_SIZE = 64;
+	// retransmission interval in seconds the client asks for with the timeout option (RFC 2349),
+	// 0 leaves it to the round trip time estimate
+	public static final int REQUEST_TIMEOUT = 0;
+	// range in seconds of the timeout option the server accepts, a client that asks for
+	// an interval out of it is not acknowledged the option
+	public static final int MIN_OPTION_TIMEOUT = 1;
+	public static final int MAX_OPTION_TIMEOUT = 60;
+	// number of times a packet is sent at least with a negotiated timeout before the connection
+	// gives up, the retry budget is stretched for long intervals
+	public static final int OPTION_TIMEOUT_TRIES = 5;
 	public static final int PROXY_PORT = 6000;
 	public static final int TIMEOUT_TIME = 5000;
-	public static final int MAX_TRIES = 5;
+	// time in milli seconds a packet is retried or waited for before the connection gives up
+	public static final int RETRY_BUDGET = 25000;
+	// the retransmission timeout is randomised by up to this fraction in both directions
+	public static final double RETRANSMIT_JITTER = 0.25;
+	// bounds in milli seconds of the retransmission timeout derived from the round trip time,
+	// TIMEOUT_TIME is used until the first round trip time is measured
+	public static final int MIN_RETRANSMIT_TIMEOUT = 100;
+	public static final int MAX_RETRANSMIT_TIMEOUT = 30000;
+	// maximum number of connections the server runs at the same time
+	public static final int MAX_ACTIVE_SESSIONS = 1000;
+	// maximum number of requests waiting for a free connection slot
+	public static final int MAX_PENDING_SESSIONS = 1000;
+	// time in milli seconds a request waits for a free connection slot, a client that
+	// waited longer has given up the request and it is dropped from the queue
+	public static final int MAX_ADMISSION_WAIT = 25000;
+	// port range of the pooled transfer sockets used by the server threads
+	// set both to 0 to give every connection an ephemeral port instead
+	public static final int TRANSFER_PORT_MIN = 20000;
+	public static final int TRANSFER_PORT_MAX = 20999;
+	// time in milli seconds a connection waits for a pooled transfer socket
+	public static final int TRANSFER_SOCKET_LEASE_TIMEOUT = 1000;
+	// number of sockets listening for requests on the server port, each with its own thread
+	// more than one listener requires SO_REUSEPORT support (Linux)
+	public static final int LISTENER_THREADS = 1;
+	// number of threads that run the connections in event loop mode
+	public static final int EVENT_LOOP_THREADS = Runtime.getRuntime().availableProcessors();
+	// number of channels each event loop shares between its connections in multiplexed mode
+	public static final int MULTIPLEXED_CHANNELS = 2;
+	// maximum number of datagrams read from a shared channel before the other channels are served
+	public static final int MAX_DATAGRAMS_PER_WAKEUP = 64;
+	// received blocks are written to the file by a writer thread of the connection instead of
+	// the thread that receives them, in thread per transfer modes and in the client
+	public static final boolean PIPELINED_WRITES = true;
+	// number of received blocks that can wait for the writer thread
+	public static final int WRITE_QUEUE_BLOCKS = 256;
+	// how far an upload must have gone before the last block is acknowledged
+	public static final DurabilityPolicy DURABILITY_POLICY = DurabilityPolicy.WRITTEN;
+	// time in milli seconds the server gathers the FSYNCED uploads that finish before it
+	// forces them together in one group commit
+	public static final int GROUP_COMMIT_INTERVAL = 5;
+	// number of files of a group commit that are forced at the same time
+	public static final int GROUP_COMMIT_THREADS = 8;
+	// number of bytes of the files that are read the most the server keeps in memory,
+	// shared by every connection, 0 reads every file from the disk. Their encoded DATA
+	// packets and the files still sent after they are evicted count towards it
+	public static final long FILE_CACHE_SIZE = 256L * 1024 * 1024;
+	// largest file that is kept in the file cache
+	public static final long FILE_CACHE_MAX_FILE_SIZE = 64L * 1024 * 1024;
+	// number of files that are loaded in the file cache at the same time, the connections
+	// read a file from the disk until it is loaded
+	public static final int FILE_CACHE_LOADER_THREADS = 2;
+	// number of file names whose lookup the server remembers, files that are not found or
+	// cannot be read included, 0 checks every requested file on the disk
+	public static final int PATH_CACHE_SIZE = 10000;
+	// time in milli seconds a lookup is remembered, the lookups of a directory that changes
+	// are forgotten right away if the file system can watch it
+	public static final int PATH_CACHE_TTL = 5000;
+	// keep the attributes of the files of the destination directory in memory, scanned when
+	// the server starts and kept current by watching the directories
+	public static final boolean DIRECTORY_INDEX = true;
+	// number of blocks of a file the server reads asynchronously ahead of the window of a
+	// read request, at least the window size, 0 reads each block when it is sent
+	public static final int READ_AHEAD_BLOCKS = 16;
+	// resolution in milli seconds of the retransmission timers of the event loops
+	public static final int TIMER_TICK = 10;
+	// number of slots of the timing wheels, timers further away wait for more turns
+	public static final int TIMER_WHEEL_SIZE = 512;
 }
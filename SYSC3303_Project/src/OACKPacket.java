@@ -0,0 +1,81 @@
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents the OACK TFTP packet (RFC 2347) that acknowledges
+ * the options of a read or write request
+ *
+ * @author Group 8
+ *
+ */
+public class OACKPacket extends TFTPPacket {
+	public static final short OP_CODE = 6;
+
+	private LinkedHashMap<String, String> options;
+
+	/**
+	 * Constructor used in the static buildPacket method
+	 */
+	private OACKPacket() {
+		super();
+	}
+
+	/**
+	 * Main constructor that parses the bytes into attributes
+	 *
+	 * @param packetBytes list of bytes that form the packet
+	 * @throws TFTPPacketParsingError
+	 */
+	public OACKPacket(TFTPPacket tftpPacket) throws TFTPPacketParsingError {
+		super(tftpPacket);
+
+		options = parseOptions(super.packetBytes, 2);
+	}
+
+	/**
+	 * Getter function for returning the acknowledged options
+	 *
+	 * @return option values keyed by lower case option name
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+
+	/**
+	 * Returns an OACK packet given the attributes
+	 *
+	 * @param options options accepted by the server
+	 * @return OACK packet containing the array of bytes that form the packet and the
+	 * 					  initialized attributes
+	 */
+	public static OACKPacket buildPacket(Map<String, String> options, InetAddress remoteAddress, int remotePort) {
+		OACKPacket oackPacket = new OACKPacket();
+
+		byte[] optionBytes = optionsToBytes(options);
+
+		// create a properly sized bytes array
+		byte[] packetBytes = new byte[2 + optionBytes.length];
+
+		// convert opCode to bytes
+		byte[] opCodeBytes = ByteConversions.shortToBytes(OP_CODE);
+
+		packetBytes[0] = opCodeBytes[0];
+		packetBytes[1] = opCodeBytes[1];
+
+		System.arraycopy(optionBytes, 0, packetBytes, 2, optionBytes.length);
+
+		// initialize packet attributes
+		oackPacket.opCode = OP_CODE;
+		oackPacket.options = new LinkedHashMap<String, String>(options);
+		oackPacket.packetBytes = packetBytes;
+		oackPacket.remoteAddress = remoteAddress;
+		oackPacket.remotePort = remotePort;
+
+		return oackPacket;
+	}
+
+	public String toString() {
+		return String.format("OACK Packet: OPCode: %d, Options: %s, Packet size: %d", opCode, options, packetLength);
+	}
+}
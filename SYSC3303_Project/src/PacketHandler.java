@@ -1,6 +1,7 @@
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class handles the packet sending and receiving
@@ -12,7 +13,9 @@ public class PacketHandler {
 	public class PacketHandlerReturn {
 		public ACKPacket ackPacket = null;
 		public DATAPacket dataPacket = null;
+		public OACKPacket oackPacket = null;
 		public boolean timeout = false;
+		public boolean discarded = false;
 	}
 	
 	private TFTPSocket tftpSocket;
@@ -20,11 +23,57 @@ public class PacketHandler {
 	private InetAddress remoteAddress;
 	private int remotePort;
 	
+	// retransmission timeout of the DATA packets, adapted to the measured round trip time
+	private RTTEstimator rttEstimator;
+	// DATA or OACK packets sent, an OACK packet is block 0. Blocks up to the highest
+	// block sent are retransmissions when they are sent again
+	private boolean blocksSent = false;
+	private short highestBlockSent;
+	// set once the first DATA packet is sent or received, the block numbers of
+	// the first exchange come back when they wrap around after block 65535
+	private boolean dataPacketsSent = false;
+	private boolean dataPacketsReceived = false;
+	// set while a client waits for the first answer to its request, the server answers from
+	// its own transfer ID which is only known then. A server knows the transfer ID of its client
+	private boolean transferIDPending = false;
+	// first block that is not acknowledged yet, if any block is outstanding
+	private boolean blocksOutstanding = false;
+	private short firstUnacknowledgedBlock;
+	// set when an ACK packet behind the highest block sent asks for the window again,
+	// the blocks are then sent again without a timeout and are not backed off
+	private boolean resendRequested = false;
+	// block whose ACK packet gives the next round trip time sample
+	private boolean samplePending = false;
+	private short sampleBlockNumber;
+	private long sampleSendTime;
+	
+	// time in milli seconds a packet is waited for before it is sent again
+	private int timeout = NetworkConfig.TIMEOUT_TIME;
+	private boolean timeoutNegotiated = false;
+	
+	// receiving side of the window, DATA packets received before an ACK packet is sent
+	private int windowSize = 1;
+	private int blocksSinceAcknowledgement = 0;
+	// set once the DATA packets received out of order were answered with an ACK packet
+	private boolean gapAcknowledged = false;
+	
+	// counters of the packets sent on this connection, retransmissions included
+	private long sentPackets = 0;
+	private long sentBytes = 0;
+	private long retransmittedPackets = 0;
+	private long retransmittedBytes = 0;
+	
+	// set once the OACK packet of the server was acknowledged with ACK 0
+	private boolean optionsAcknowledged = false;
+	
 	public PacketHandler(TFTPSocket tftpSocket, ErrorHandler errorHandler, InetAddress remoteAddress, int remotePort) {
 		this.tftpSocket = tftpSocket;
 		this.errorHandler = errorHandler;
 		this.remoteAddress = remoteAddress;
 		this.remotePort = remotePort;
+		
+		rttEstimator = new RTTEstimator(NetworkConfig.TIMEOUT_TIME, 
+				NetworkConfig.MIN_RETRANSMIT_TIMEOUT, NetworkConfig.MAX_RETRANSMIT_TIMEOUT);
 	}
 	
 	/**
@@ -39,8 +88,202 @@ public class PacketHandler {
 		};
 		UIManager.printMessage("PacketHandler", messages);
 		
+		boolean retransmission = trackPendingBlock(dataPacket.getBlockNumber());
+		dataPacketsSent = true;
+		
 		// send DATA datagram packet
-		tftpSocket.send(dataPacket);
+		send(dataPacket, retransmission);
+	}
+	
+	/**
+	 * Sends OACK packet, it is acknowledged like a DATA packet with block number 0
+	 * 
+	 * @param oackPacket
+	 */
+	public void sendOACKPacket(OACKPacket oackPacket) {
+		String[] messages = {
+				"",
+				String.format("sending %s to %s:%d", oackPacket.toString(), oackPacket.getRemoteAddress(), oackPacket.getRemotePort())
+		};
+		UIManager.printMessage("PacketHandler", messages);
+		
+		boolean retransmission = trackPendingBlock((short) 0);
+		
+		send(oackPacket, retransmission);
+	}
+	
+	/**
+	 * Sends the OACK or ACK 0 packet that answered the request again, for a client
+	 * that sent its request again because the answer was lost. Can be called from
+	 * another thread than the one receiving the packets of the connection
+	 * 
+	 * @param responsePacket OACK or ACK 0 packet sent in response to the request
+	 */
+	public void resendResponse(TFTPPacket responsePacket) {
+		String[] messages = {
+				"",
+				String.format("sending %s again to %s:%d", responsePacket.toString(), responsePacket.getRemoteAddress(), responsePacket.getRemotePort())
+		};
+		UIManager.printMessage("PacketHandler", messages);
+		
+		send(responsePacket, true);
+	}
+	
+	/**
+	 * Acknowledges the OACK packet received from the server with ACK 0,
+	 * OACK packets received again are answered with ACK 0 as well
+	 */
+	public void acknowledgeOACKPacket() {
+		optionsAcknowledged = true;
+		sendACKPacket((short) 0);
+	}
+	
+	/**
+	 * Remembers the blocks that wait for their ACK packet, used for round trip time samples
+	 * 
+	 * @param blockNumber block number of the packet that is being sent
+	 * @return true if the block was sent before
+	 */
+	private boolean trackPendingBlock(short blockNumber) {
+		if (blocksSent && TFTPPacket.compareBlockNumbers(blockNumber, highestBlockSent) <= 0) {
+			// the window timed out, the next ACK will not give a round trip time sample
+			samplePending = false;
+			
+			// back off once per timeout, when the window is sent again from its first block
+			if (blocksOutstanding && blockNumber == firstUnacknowledgedBlock) {
+				if (!resendRequested)
+					rttEstimator.backOff();
+				resendRequested = false;
+			}
+			return true;
+		}
+		
+		blocksSent = true;
+		highestBlockSent = blockNumber;
+		// the window goes on with new blocks, it was not sent again for the ACK packet
+		resendRequested = false;
+		
+		if (!blocksOutstanding) {
+			blocksOutstanding = true;
+			firstUnacknowledgedBlock = blockNumber;
+		}
+		
+		if (!samplePending) {
+			samplePending = true;
+			sampleBlockNumber = blockNumber;
+			sampleSendTime = System.nanoTime();
+		}
+		return false;
+	}
+	
+	/**
+	 * Takes the blocks up to an acknowledged block off the outstanding blocks
+	 * 
+	 * @param blockNumber block number of the ACK packet
+	 */
+	private void acknowledgeBlocks(short blockNumber) {
+		if (!blocksOutstanding || TFTPPacket.compareBlockNumbers(blockNumber, firstUnacknowledgedBlock) < 0)
+			return;
+		
+		if (samplePending && TFTPPacket.compareBlockNumbers(blockNumber, sampleBlockNumber) >= 0) {
+			rttEstimator.addSample(System.nanoTime() - sampleSendTime);
+			samplePending = false;
+		}
+		
+		if (TFTPPacket.compareBlockNumbers(blockNumber, highestBlockSent) >= 0) {
+			blocksOutstanding = false;
+			resendRequested = false;
+		}
+		else {
+			// the receiver is missing the next block, the window is sent again from it
+			firstUnacknowledgedBlock = (short) (blockNumber + 1);
+			resendRequested = true;
+		}
+	}
+	
+	/**
+	 * Applies the options negotiated for the connection
+	 * 
+	 * @param options negotiated options
+	 */
+	public void applyOptions(TFTPOptions options) {
+		setWindowSize(options.getWindowSize());
+		
+		if (options.getTimeout() > 0)
+			setTimeout(options.getTimeout());
+	}
+	
+	/**
+	 * Sets the retransmission interval negotiated with the timeout option. The interval
+	 * replaces the round trip time estimate and is not backed off
+	 * 
+	 * @param timeout retransmission interval in milli seconds
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+		timeoutNegotiated = true;
+		rttEstimator = new RTTEstimator(timeout, timeout, timeout);
+	}
+	
+	/**
+	 * @return time in milli seconds a packet is waited for before it is sent again
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Sets the number of DATA packets the remote host sends before it waits for an ACK packet
+	 * 
+	 * @param windowSize negotiated window size
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = Math.max(1, windowSize);
+	}
+	
+	/**
+	 * Acknowledges a DATA packet received in order. With a window size larger
+	 * than 1 only the last DATA packet of a window is acknowledged
+	 * 
+	 * @param dataPacket DATA packet that was written
+	 * @param lastBlock  true if the DATA packet is the last one of the file
+	 */
+	public void acknowledgeDATAPacket(DATAPacket dataPacket, boolean lastBlock) {
+		blocksSinceAcknowledgement++;
+		
+		if (lastBlock || blocksSinceAcknowledgement >= windowSize) {
+			sendACKPacket(dataPacket.getBlockNumber());
+			blocksSinceAcknowledgement = 0;
+		}
+	}
+	
+	/**
+	 * Returns the retransmission timeout of the last DATA packet sent
+	 * 
+	 * @return retransmission timeout in milli seconds
+	 */
+	public int getRetransmitTimeout() {
+		return rttEstimator.getTimeout();
+	}
+	
+	/**
+	 * Returns how long to wait for the ACK packet of the last DATA packet sent.
+	 * The retransmission timeout is randomised so that connections that lost
+	 * packets at the same time do not retransmit at the same time
+	 * 
+	 * @return wait time in milli seconds
+	 */
+	public int getJitteredRetransmitTimeout() {
+		// the remote host expects the interval it asked for
+		if (timeoutNegotiated)
+			return timeout;
+		
+		double jitter = 1 + NetworkConfig.RETRANSMIT_JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return Math.max(1, (int) (rttEstimator.getTimeout() * jitter));
+	}
+	
+	public RTTEstimator getRTTEstimator() {
+		return rttEstimator;
 	}
 	
 	/**
@@ -49,6 +292,16 @@ public class PacketHandler {
 	 * @param blockNumber
 	 */
 	public void sendACKPacket(short blockNumber) {
+		sendACKPacket(blockNumber, false);
+	}
+	
+	/**
+	 * Sends ACK packet
+	 * 
+	 * @param blockNumber
+	 * @param retransmission true if the ACK packet was sent before
+	 */
+	private void sendACKPacket(short blockNumber, boolean retransmission) {
 		ACKPacket ackPacket = TFTPPacketBuilder.getACKDatagram(blockNumber, remoteAddress, remotePort);
 		
 		String[] messages = {
@@ -58,7 +311,7 @@ public class PacketHandler {
 		UIManager.printMessage("PacketHandler", messages);
 		
 		// sends acknowledgement to client
-		tftpSocket.send(ackPacket);
+		send(ackPacket, retransmission);
 	}
 	
 	/**
@@ -67,6 +320,17 @@ public class PacketHandler {
 	 * @param requestPacket
 	 */
 	public void sendReadWriteRequest(RRQWRQPacket requestPacket) {
+		transferIDPending = true;
+		sendReadWriteRequest(requestPacket, false);
+	}
+	
+	/**
+	 * Send read or write request packet
+	 * 
+	 * @param requestPacket
+	 * @param retransmission true if the request was sent before
+	 */
+	private void sendReadWriteRequest(RRQWRQPacket requestPacket, boolean retransmission) {
 		String[] messages = {
 				"",
 				String.format("sending %s to %s:%d", requestPacket.toString(), requestPacket.getRemoteAddress(), requestPacket.getRemotePort())
@@ -74,7 +338,31 @@ public class PacketHandler {
 		UIManager.printMessage("PacketHandler", messages);
 		
 		// send DATA datagram packet
-		tftpSocket.send(requestPacket);
+		send(requestPacket, retransmission);
+	}
+	
+	/**
+	 * Sends a packet and counts it
+	 * 
+	 * @param tftpPacket     packet to send
+	 * @param retransmission true if the packet was sent before
+	 */
+	private void send(TFTPPacket tftpPacket, boolean retransmission) {
+		// built packets do not set their length, count the bytes that go on the wire
+		int length = tftpPacket.getPacketBytes().length;
+		
+		// the thread that receives the requests counts the responses it sends again as well
+		synchronized (this) {
+			sentPackets++;
+			sentBytes += length;
+			
+			if (retransmission) {
+				retransmittedPackets++;
+				retransmittedBytes += length;
+			}
+		}
+		
+		tftpSocket.send(tftpPacket);
 	}
 	
 	/**
@@ -84,18 +372,28 @@ public class PacketHandler {
 	 * @return return object with ACK packet 
 	 */
 	private PacketHandlerReturn recACKPacket(short expectedBlockNumber) {	
-		PacketHandlerReturn res = new PacketHandlerReturn();
-		
-		ACKPacket ackPacket = null;
+		return recACKPacket(expectedBlockNumber, expectedBlockNumber);
+	}
+	
+	/**
+	 * Receives ACK packet of one of the blocks of a window and handles error situations
+	 * 
+	 * @param firstBlockNumber first block number that is expected
+	 * @param lastBlockNumber  last block number that is expected
+	 * @return return object with ACK packet 
+	 */
+	private PacketHandlerReturn recACKPacket(short firstBlockNumber, short lastBlockNumber) {	
+		PacketHandlerReturn res = null;
 		
-		TFTPPacket receivePacket = null;
-		while (receivePacket == null) {
+		while (res == null || res.discarded) {
+			TFTPPacket receivePacket = null;
 			try {
 				receivePacket = tftpSocket.receive();
 			} catch (SocketTimeoutException e) {
 				// server timeout code
 				String errorMessage = "Socket timed out. Cannot receive ACK packet";
 				UIManager.printErrorMessage("PacketHandler", errorMessage);	
+				res = new PacketHandlerReturn();
 				res.timeout = true;
 				return res;
 			} catch (IOException e) {
@@ -104,99 +402,138 @@ public class PacketHandler {
 				System.exit(-1);
 			}
 			
-			// record the server thread address and port
-			if (expectedBlockNumber == 0) {
-				remoteAddress = receivePacket.getRemoteAddress();
-				remotePort = receivePacket.getRemotePort();
-			}
-			
-			else {
-				// if the packet was received from another source
-				// then send error packet with error code 5
-				// then keep on listening for a packet from the correct source
-				if (!receivePacket.getRemoteAddress().equals(remoteAddress) ||
-						receivePacket.getRemotePort() != remotePort) {
-					String errorMessage = String.format("Received packet from unknown source. Expected: %s:%d, Received: %s:%d", 
-							remoteAddress, remotePort, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
-					
-					UIManager.printErrorMessage("PacketHandler", errorMessage);	
-					
-					// send error packet to the wrong source
-					errorHandler.sendUnknownTrasnferIDErrorPacket(errorMessage, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
-					receivePacket = null;
-					continue;
-				}
-			}
-			
+			// packets that cannot be parsed are already answered by the TFTP socket
+			if (receivePacket == null)
+				continue;
 			
-			if (receivePacket.getPacketType() == TFTPPacketType.ACK) {
-				// parse ACK packet
-				try {
-					ackPacket = new ACKPacket(receivePacket);
-					
-					// if different block number is received then send error packet with error code 4
-					// reset the received tftp packet to null and listen for new packets again
-					if (ackPacket.getBlockNumber() < expectedBlockNumber) {
-						String errorMessage = String.format("duplicate ACK packet block number received. Expected: %d, Received: %d", expectedBlockNumber, ackPacket.getBlockNumber());
-						UIManager.printErrorMessage("PacketHandler", errorMessage);
-						receivePacket = null;
-						continue;
-					}
-					else if (ackPacket.getBlockNumber() > expectedBlockNumber) {
-						String errorMessage = String.format("incorrect ACK packet block number received. Expected: %d, Received: %d", expectedBlockNumber, ackPacket.getBlockNumber());
-						UIManager.printErrorMessage("PacketHandler", errorMessage);
-						errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
-						
-						// discard malformed ack packet
-						ackPacket = null;
-					}
-					
-				} catch(TFTPPacketParsingError e) {
-					// send error packet with error code 4
-					String errorMessage = String.format("cannot parse ACK packet %d", expectedBlockNumber);
-					UIManager.printErrorMessage("PacketHandler", errorMessage);
-					errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
-				}
+			res = processACKPacket(receivePacket, firstBlockNumber, lastBlockNumber);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Handles a packet received while waiting for an ACK packet.
+	 * Used by the blocking receive loop as well as by the event loop sessions
+	 * 
+	 * @param receivePacket       packet that was received
+	 * @param expectedBlockNumber block number of the ACK packet that is expected
+	 * @return return object with ACK packet, or flagged as discarded if the 
+	 *         packet should be ignored and the caller should keep on listening
+	 */
+	public PacketHandlerReturn processACKPacket(TFTPPacket receivePacket, short expectedBlockNumber) {
+		return processACKPacket(receivePacket, expectedBlockNumber, expectedBlockNumber);
+	}
+	
+	/**
+	 * Handles a packet received while waiting for the ACK packet of a window.
+	 * An ACK packet acknowledges every block up to its block number
+	 * 
+	 * @param receivePacket    packet that was received
+	 * @param firstBlockNumber first block of the window that is not acknowledged
+	 * @param lastBlockNumber  last block of the window that was sent
+	 * @return return object with ACK packet, or flagged as discarded if the 
+	 *         packet should be ignored and the caller should keep on listening
+	 */
+	public PacketHandlerReturn processACKPacket(TFTPPacket receivePacket, short firstBlockNumber, short lastBlockNumber) {
+		PacketHandlerReturn res = new PacketHandlerReturn();
+		
+		ACKPacket ackPacket = null;
+		
+		// record the server thread address and port, the first answer to a request of the client
+		if (transferIDPending) {
+			remoteAddress = receivePacket.getRemoteAddress();
+			remotePort = receivePacket.getRemotePort();
+			transferIDPending = false;
+		}
+		
+		else {
+			// if the packet was received from another source
+			// then send error packet with error code 5
+			// then keep on listening for a packet from the correct source
+			if (!receivePacket.getRemoteAddress().equals(remoteAddress) ||
+					receivePacket.getRemotePort() != remotePort) {
+				String errorMessage = String.format("Received packet from unknown source. Expected: %s:%d, Received: %s:%d", 
+						remoteAddress, remotePort, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
 				
-				if (ackPacket != null) {
-					String[] messages = {
-							"",
-							String.format("received %s from %s:%d", ackPacket.toString(), remoteAddress, remotePort)
-					};
-					
-					UIManager.printMessage("PacketHandler", messages);
-				}
+				UIManager.printErrorMessage("PacketHandler", errorMessage);	
 				
-				res.ackPacket = ackPacket;
+				// send error packet to the wrong source
+				errorHandler.sendUnknownTrasnferIDErrorPacket(errorMessage, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
+				res.discarded = true;
+				return res;
 			}
-			else if (receivePacket.getPacketType() == TFTPPacketType.ERROR) {
-				// parse ERROR packet
-				ERRORPacket errorPacket = null;
+		}
+		
+		
+		if (receivePacket.getPacketType() == TFTPPacketType.ACK) {
+			// parse ACK packet
+			try {
+				ackPacket = new ACKPacket(receivePacket);
 				
-				try {
-					errorPacket = new ERRORPacket(receivePacket);
-				} catch (TFTPPacketParsingError e) {
-					// send error packet with error code 4
-					String errorMessage = "cannot parse ERROR packet";
+				// if different block number is received then send error packet with error code 4
+				// discard the received tftp packet and listen for new packets again
+				if (TFTPPacket.compareBlockNumbers(ackPacket.getBlockNumber(), firstBlockNumber) < 0) {
+					String errorMessage = String.format("duplicate ACK packet block number received. Expected: %s, Received: %d", 
+							formatBlockRange(firstBlockNumber, lastBlockNumber), ackPacket.getUnsignedBlockNumber());
+					UIManager.printErrorMessage("PacketHandler", errorMessage);
+					res.discarded = true;
+					return res;
+				}
+				else if (TFTPPacket.compareBlockNumbers(ackPacket.getBlockNumber(), lastBlockNumber) > 0) {
+					String errorMessage = String.format("incorrect ACK packet block number received. Expected: %s, Received: %d", 
+							formatBlockRange(firstBlockNumber, lastBlockNumber), ackPacket.getUnsignedBlockNumber());
 					UIManager.printErrorMessage("PacketHandler", errorMessage);
 					errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+					
+					// discard malformed ack packet
+					ackPacket = null;
 				}
 				
-				String errorMessage = String.format("received %s from %s:%d", errorPacket.toString(), remoteAddress, remotePort);
-				UIManager.printErrorMessage("PacketHandler", errorMessage);
-			}
-			else if (receivePacket.getPacketType() == TFTPPacketType.WRQ ||
-					receivePacket.getPacketType() == TFTPPacketType.RRQ) {
-				String errorMessage = "duplicate RRQ/WRQ packet received";
-				UIManager.printErrorMessage("PacketHandler", errorMessage);
-				receivePacket = null;
-			}
-			else {
+			} catch(TFTPPacketParsingError e) {
 				// send error packet with error code 4
-				String errorMessage = "invalid TFTP packet";
+				String errorMessage = String.format("cannot parse ACK packet %s", formatBlockRange(firstBlockNumber, lastBlockNumber));
 				UIManager.printErrorMessage("PacketHandler", errorMessage);
 				errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
 			}
+			
+			if (ackPacket != null) {
+				String[] messages = {
+						"",
+						String.format("received %s from %s:%d", ackPacket.toString(), remoteAddress, remotePort)
+				};
+				
+				UIManager.printMessage("PacketHandler", messages);
+				
+				acknowledgeBlocks(ackPacket.getBlockNumber());
+			}
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.OACK && firstBlockNumber == 0 && !dataPacketsSent) {
+			// the server accepted options of the write request
+			res.oackPacket = parseOACKPacket(receivePacket);
+			return res;
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.OACK && firstBlockNumber == 1) {
+			// DATA packet 1 did not reach the server yet, it is sent again upon timeout
+			UIManager.printErrorMessage("PacketHandler", "duplicate OACK packet received");
+			res.discarded = true;
+			return res;
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.ERROR) {
+			printERRORPacket(receivePacket);
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.WRQ ||
+				receivePacket.getPacketType() == TFTPPacketType.RRQ) {
+			String errorMessage = "duplicate RRQ/WRQ packet received";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			res.discarded = true;
+			return res;
+		}
+		else {
+			// send error packet with error code 4
+			String errorMessage = "invalid TFTP packet";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
 		}
 		
 		res.ackPacket = ackPacket;
@@ -211,17 +548,17 @@ public class PacketHandler {
 	 * @return return object with DATA packet 
 	 */
 	private PacketHandlerReturn recDATAPacket(short expectedBlockNumber) {
-		PacketHandlerReturn res = new PacketHandlerReturn();
-		DATAPacket dataPacket = null;
+		PacketHandlerReturn res = null;
 		
-		TFTPPacket receivePacket = null;
-		while (receivePacket == null) {
+		while (res == null || res.discarded) {
+			TFTPPacket receivePacket = null;
 			try {
 				receivePacket = tftpSocket.receive();
 			} catch (SocketTimeoutException e) {
 				// server timeout code
 				String errorMessage = "Socket timed out. Cannot receive DATA packet";
 				UIManager.printErrorMessage("PacketHandler", errorMessage);	
+				res = new PacketHandlerReturn();
 				res.timeout = true;
 				return res;
 			} catch (IOException e) {
@@ -230,101 +567,196 @@ public class PacketHandler {
 				System.exit(-1);			
 			}
 			
-			// record server thread address and port
-			if (expectedBlockNumber == 1) {
-				remoteAddress = receivePacket.getRemoteAddress();
-				remotePort = receivePacket.getRemotePort();
+			// packets that cannot be parsed are already answered by the TFTP socket
+			if (receivePacket == null)
+				continue;
+			
+			res = processDATAPacket(receivePacket, expectedBlockNumber);
+		}
+		
+		return res;
+	}
+	
+	/**
+	 * Handles a packet received while waiting for a DATA packet.
+	 * Used by the blocking receive loop as well as by the event loop sessions
+	 * 
+	 * @param receivePacket       packet that was received
+	 * @param expectedBlockNumber block number of the DATA packet that is expected
+	 * @return return object with DATA packet, or flagged as discarded if the 
+	 *         packet should be ignored and the caller should keep on listening
+	 */
+	public PacketHandlerReturn processDATAPacket(TFTPPacket receivePacket, short expectedBlockNumber) {
+		PacketHandlerReturn res = new PacketHandlerReturn();
+		DATAPacket dataPacket = null;
+		
+		// record server thread address and port, the first answer to a request of the client
+		if (transferIDPending) {
+			remoteAddress = receivePacket.getRemoteAddress();
+			remotePort = receivePacket.getRemotePort();
+			transferIDPending = false;
+		}
+		else {
+			// if the packet was received from another source
+			// then send error packet with error code 5
+			// then keep on listening for a packet from the correct source
+			if (!receivePacket.getRemoteAddress().equals(remoteAddress) ||
+					receivePacket.getRemotePort() != remotePort) {
+				String errorMessage = String.format("Received packet from unknown source. Expected: %s:%d, Received: %s:%d", 
+						remoteAddress, remotePort, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
+				
+				// send error packet to the wrong source
+				UIManager.printErrorMessage("PacketHandler", errorMessage);	
+				errorHandler.sendUnknownTrasnferIDErrorPacket(errorMessage, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
+				res.discarded = true;
+				return res;
 			}
-			else {
-				// if the packet was received from another source
-				// then send error packet with error code 5
-				// then keep on listening for a packet from the correct source
-				if (!receivePacket.getRemoteAddress().equals(remoteAddress) ||
-						receivePacket.getRemotePort() != remotePort) {
-					String errorMessage = String.format("Received packet from unknown source. Expected: %s:%d, Received: %s:%d", 
-							remoteAddress, remotePort, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
-					
-					// send error packet to the wrong source
-					UIManager.printErrorMessage("PacketHandler", errorMessage);	
-					errorHandler.sendUnknownTrasnferIDErrorPacket(errorMessage, receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
-					receivePacket = null;
-					continue;
-				}
+		}
+		
+		if (receivePacket.getPacketType() == TFTPPacketType.DATA) {
+			// parse DATA packet
+			
+			try {
+				dataPacket = new DATAPacket(receivePacket);
+			} catch(TFTPPacketParsingError e) {
+				String errorMessage = String.format("cannot parse DATA packet %d", Short.toUnsignedInt(expectedBlockNumber));
+				UIManager.printErrorMessage("PacketHandler", errorMessage);
+				errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+				return res;
 			}
 			
-			if (receivePacket.getPacketType() == TFTPPacketType.DATA) {
-				// parse DATA packet
-				
-				try {
-					dataPacket = new DATAPacket(receivePacket);
-				} catch(TFTPPacketParsingError e) {
-					String errorMessage = String.format("cannot parse DATA packet %d", expectedBlockNumber);
-					UIManager.printErrorMessage("PacketHandler", errorMessage);
-					errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
-				}
-				
-				// if different block number is received then send error packet with error code 4
-				if (dataPacket.getBlockNumber() < expectedBlockNumber) {
-					String errorMessage = String.format("duplicate DATA packet block number received. Expected: %d, Received: %d", expectedBlockNumber, dataPacket.getBlockNumber());
-					UIManager.printErrorMessage("PacketHandler", errorMessage);
-					
-					sendACKPacket(dataPacket.getBlockNumber());
-					receivePacket = null;
-					continue;
-				}
-				else if (dataPacket.getBlockNumber() > expectedBlockNumber) {
-					String errorMessage = String.format("incorrect DATA packet block number received. Expected: %d, Received: %d", expectedBlockNumber, dataPacket.getBlockNumber());
-					UIManager.printErrorMessage("PacketHandler", errorMessage);
-					errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
-					
-					// discard malformed data packet
-					dataPacket = null;
-				}
+			// if different block number is received then send error packet with error code 4
+			int distance = TFTPPacket.compareBlockNumbers(dataPacket.getBlockNumber(), expectedBlockNumber);
+			if (distance < 0) {
+				String errorMessage = String.format("duplicate DATA packet block number received. Expected: %d, Received: %d", 
+						Short.toUnsignedInt(expectedBlockNumber), dataPacket.getUnsignedBlockNumber());
+				UIManager.printErrorMessage("PacketHandler", errorMessage);
 				
-				if (dataPacket != null) {
-					String[] messages = {
-							"",
-							String.format("received %s from %s:%d", dataPacket.toString(), remoteAddress, remotePort)
-					};
-					
-					UIManager.printMessage("PacketHandler", messages);
+				// a window sent again is acknowledged once, on the last block that was received
+				if (windowSize == 1 || dataPacket.getBlockNumber() == (short) (expectedBlockNumber - 1)) {
+					sendACKPacket(dataPacket.getBlockNumber(), true);
+					blocksSinceAcknowledgement = 0;
 				}
-							
-				res.dataPacket = dataPacket;
+				res.discarded = true;
+				return res;
 			}
-			else if (receivePacket.getPacketType() == TFTPPacketType.ERROR) {
-				// parse ERROR packet
-				ERRORPacket errorPacket = null;
+			else if (distance > 0 && distance < windowSize) {
+				String errorMessage = String.format("DATA packet received out of order. Expected: %d, Received: %d", 
+						Short.toUnsignedInt(expectedBlockNumber), dataPacket.getUnsignedBlockNumber());
+				UIManager.printErrorMessage("PacketHandler", errorMessage);
 				
-				try {
-					errorPacket = new ERRORPacket(receivePacket);
-				} catch (TFTPPacketParsingError e) {
-					// send error packet with error code 4
-					String errorMessage = "cannot parse ERROR packet";
-					UIManager.printErrorMessage("PacketHandler", errorMessage);
-					errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+				// a block of the window was lost, acknowledge the blocks received in order
+				// once so that the sender goes back to the missing block
+				if (!gapAcknowledged) {
+					sendACKPacket((short) (expectedBlockNumber - 1), true);
+					blocksSinceAcknowledgement = 0;
+					gapAcknowledged = true;
 				}
-				
-				String errorMessage = String.format("received %s from %s:%d", errorPacket.toString(), remoteAddress, remotePort);
-				UIManager.printErrorMessage("PacketHandler", errorMessage);
+				res.discarded = true;
+				return res;
 			}
-			else if (receivePacket.getPacketType() == TFTPPacketType.WRQ ||
-					receivePacket.getPacketType() == TFTPPacketType.RRQ) {
-				String errorMessage = "duplicate RRQ/WRQ packet received";
+			else if (distance > 0) {
+				String errorMessage = String.format("incorrect DATA packet block number received. Expected: %d, Received: %d", 
+						Short.toUnsignedInt(expectedBlockNumber), dataPacket.getUnsignedBlockNumber());
 				UIManager.printErrorMessage("PacketHandler", errorMessage);
-				receivePacket = null;
+				errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+				
+				// discard malformed data packet
+				dataPacket = null;
 			}
-			else {
-				System.out.println(receivePacket.getOPCode());
+			
+			if (dataPacket != null) {
+				String[] messages = {
+						"",
+						String.format("received %s from %s:%d", dataPacket.toString(), remoteAddress, remotePort)
+				};
 				
-				// send error packet with error code 4
-				String errorMessage = "invalid DATA sent";
-				UIManager.printErrorMessage("PacketHandler", errorMessage);
-				errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+				UIManager.printMessage("PacketHandler", messages);
+				
+				gapAcknowledged = false;
+				dataPacketsReceived = true;
 			}
+						
+			res.dataPacket = dataPacket;
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.OACK && expectedBlockNumber == 1 && !dataPacketsReceived) {
+			if (optionsAcknowledged) {
+				// the ACK 0 packet did not reach the server, send it again
+				UIManager.printErrorMessage("PacketHandler", "duplicate OACK packet received");
+				sendACKPacket((short) 0, true);
+				res.discarded = true;
+				return res;
+			}
+			
+			// the server accepted options of the read request
+			res.oackPacket = parseOACKPacket(receivePacket);
+			return res;
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.ERROR) {
+			printERRORPacket(receivePacket);
+		}
+		else if (receivePacket.getPacketType() == TFTPPacketType.WRQ ||
+				receivePacket.getPacketType() == TFTPPacketType.RRQ) {
+			String errorMessage = "duplicate RRQ/WRQ packet received";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			res.discarded = true;
+		}
+		else {
+			// send error packet with error code 4
+			String errorMessage = "invalid DATA sent";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
 		}
 		
-		return res	;
+		return res;
+	}
+	
+	/**
+	 * Parses and prints an OACK packet received from the remote host
+	 * 
+	 * @param receivePacket packet with the OACK op code
+	 * @return OACK packet, null if it cannot be parsed
+	 */
+	private OACKPacket parseOACKPacket(TFTPPacket receivePacket) {
+		OACKPacket oackPacket = null;
+		try {
+			oackPacket = new OACKPacket(receivePacket);
+		} catch (TFTPPacketParsingError e) {
+			String errorMessage = "cannot parse OACK packet";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+			return null;
+		}
+		
+		String[] messages = {
+				"",
+				String.format("received %s from %s:%d", oackPacket.toString(), remoteAddress, remotePort)
+		};
+		UIManager.printMessage("PacketHandler", messages);
+		
+		return oackPacket;
+	}
+
+	/**
+	 * Parses and prints an ERROR packet received from the remote host
+	 *
+	 * @param receivePacket packet with the ERROR op code
+	 */
+	private void printERRORPacket(TFTPPacket receivePacket) {
+		ERRORPacket errorPacket = null;
+		
+		try {
+			errorPacket = new ERRORPacket(receivePacket);
+		} catch (TFTPPacketParsingError e) {
+			// send error packet with error code 4
+			String errorMessage = "cannot parse ERROR packet";
+			UIManager.printErrorMessage("PacketHandler", errorMessage);
+			errorHandler.sendIllegalOperationErrorPacket(errorMessage, remoteAddress, remotePort);
+			return;
+		}
+		
+		String errorMessage = String.format("received %s from %s:%d", errorPacket.toString(), remoteAddress, remotePort);
+		UIManager.printErrorMessage("PacketHandler", errorMessage);
 	}
 	
 	/**
@@ -336,25 +768,18 @@ public class PacketHandler {
 	public DATAPacket receiveDATAPacket(short blockNumber) {
 		PacketHandlerReturn phRes = null;
 		
-		// counter to keep track the number of tries
-		int numberOfTries = 1; 
+		// keep on waiting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			tftpSocket.setTimeout(getWaitTime(timeout, retryDeadline));
+			phRes = recDATAPacket(blockNumber);
+			
+			// if no time out is reached don't try to receive data packet again
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
+				break;
+		}
 		
-		// tries for max tries
-    	while (numberOfTries < NetworkConfig.MAX_TRIES) {
-    		phRes = recDATAPacket(blockNumber);
-    		numberOfTries++;
-    		
-    		// if no time out is reached don't try to receive data packet again
-    		if (!phRes.timeout)
-    			break;
- 
-    	}
-    	
-    	if (numberOfTries == NetworkConfig.MAX_TRIES) {
-    		UIManager.printErrorMessage("PacketHandler", "max tries reached. Exitting connection");
-    	}
-    	
-    	return phRes.dataPacket;
+		return phRes.dataPacket;
 	}
 	
 	/**
@@ -365,33 +790,67 @@ public class PacketHandler {
 	 * @return data packet
 	 */
 	public DATAPacket receiveDATAPacket(short blockNumber, RRQWRQPacket requestPacket) {
+		return receiveDATAResponse(blockNumber, requestPacket).dataPacket;
+	}
+	
+	/**
+	 * Receive the first packet sent in response to a read or write request. If the request
+	 * has options the server answers with an OACK packet if it accepted any of them
+	 * 
+	 * @param requestPacket request packet to send upon timeout
+	 * @return OACK packet, DATA packet 1 for a read request or ACK packet 0 for a write request,
+	 *         null if an error occurred
+	 */
+	public TFTPPacket receiveRequestResponse(RRQWRQPacket requestPacket) {
+		PacketHandlerReturn phRes = null;
+		transferIDPending = true;
+		
+		if (requestPacket.getPacketType() == TFTPPacketType.RRQ) {
+			phRes = receiveDATAResponse((short) 1, requestPacket);
+			if (phRes.oackPacket != null)
+				return phRes.oackPacket;
+			
+			return phRes.dataPacket;
+		}
+		
+		phRes = receiveACKResponse(requestPacket);
+		if (phRes.oackPacket != null)
+			return phRes.oackPacket;
+		
+		return phRes.ackPacket;
+	}
+	
+	/**
+	 * Receive data packet given the request packet
+	 * 
+	 * @param blockNumber    expected block number
+	 * @param requestPacket  request packet to send upon timeout
+	 * @return return object with the DATA or OACK packet
+	 */
+	private PacketHandlerReturn receiveDATAResponse(short blockNumber, RRQWRQPacket requestPacket) {
 		PacketHandlerReturn phRes = null;
 		
-		// counter to keep track the number of tries
-		int numberOfTries = 1; 
-		
-		// tries for max tries
-    	while (numberOfTries < NetworkConfig.MAX_TRIES) {
-    		phRes = recDATAPacket(blockNumber);
-    		numberOfTries++;
-    		
-    		
-    		if (!phRes.timeout)
-    			// if no time out is reached don't try to receive data packet again
-    			break;
-    		else {
-    			// otherwise send the read or write request again
-    			if (blockNumber == 1) {
-    				sendReadWriteRequest(requestPacket);
-    			}
-    		}
-    	}
-    	
-    	if (numberOfTries == NetworkConfig.MAX_TRIES) {
-    		UIManager.printErrorMessage("PacketHandler", "max tries reached. Exitting connection");
-    	}
-    	
-    	return phRes.dataPacket;
+		// keep on waiting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			// the request is sent again with backoff, later blocks are only waited for
+			int waitTime = blockNumber == 1 ? getJitteredRetransmitTimeout() : timeout;
+			tftpSocket.setTimeout(getWaitTime(waitTime, retryDeadline));
+			phRes = recDATAPacket(blockNumber);
+			
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
+				// if no time out is reached don't try to receive data packet again
+				break;
+			else {
+				// otherwise send the read or write request again
+				if (blockNumber == 1) {
+					rttEstimator.backOff();
+					sendReadWriteRequest(requestPacket, true);
+				}
+			}
+		}
+		
+		return phRes;
 	}
 	
 	/**
@@ -402,23 +861,17 @@ public class PacketHandler {
 	public ACKPacket receiveACKPacket(short expectedBlockNumber) {
 		PacketHandlerReturn phRes = null;
 		
-		// counter to keep track the number of tries
-		int numberOfTries = 1;
-		
-		// tries for max tries
-		while (numberOfTries < NetworkConfig.MAX_TRIES) {
+		// keep on waiting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			tftpSocket.setTimeout(getWaitTime(timeout, retryDeadline));
 			phRes = recACKPacket(expectedBlockNumber);
-			numberOfTries++;
 			
 			// if no time out is reached don't try to receive ack packet again
-			if (!phRes.timeout)
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
 				break;
 		}
 		
-		if (numberOfTries == NetworkConfig.MAX_TRIES) {
-        	UIManager.printErrorMessage("PacketHandler", "max tries reached. Exitting connection");
-        }
-		
 		return phRes.ackPacket;
 	}
 	
@@ -430,25 +883,81 @@ public class PacketHandler {
 	public ACKPacket receiveACKPacket(DATAPacket sentDataPacket) {
 		PacketHandlerReturn phRes = null;
 		
-		// counter to keep track the number of tries
-		int numberOfTries = 1;
-		
-		// tries for max tries
-		while (numberOfTries < NetworkConfig.MAX_TRIES) {
+		// keep on retransmitting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			// wait as long as the round trip time estimate allows, it doubles with every retransmission
+			tftpSocket.setTimeout(getWaitTime(getJitteredRetransmitTimeout(), retryDeadline));
+			
 			phRes = recACKPacket(sentDataPacket.getBlockNumber());
-			numberOfTries++;
 			
 			// if no time out is reached don't try to receive ack packet again
-			if (!phRes.timeout)
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
 				break;
 			else
 				// otherwise send the data packet again
 				sendDATAPacket(sentDataPacket);
 		}
 		
-		if (numberOfTries == NetworkConfig.MAX_TRIES) {
-        	UIManager.printErrorMessage("PacketHandler", "max tries reached. Exitting connection");
-        }
+		return phRes.ackPacket;
+	}
+	
+	/**
+	 * Receive the ACK packet of a window of DATA packets. Upon timeout the window is
+	 * sent again from the first block that was not acknowledged
+	 * 
+	 * @param window window whose packets were sent
+	 * @return ACK packet received, null if an error occurred or a block cannot be read
+	 *         to be sent again
+	 */
+	public ACKPacket receiveACKPacket(DATAPacketWindow window) {
+		PacketHandlerReturn phRes = null;
+		
+		// keep on retransmitting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			tftpSocket.setTimeout(getWaitTime(getJitteredRetransmitTimeout(), retryDeadline));
+			
+			phRes = recACKPacket(window.getFirstBlockNumber(), window.getLastBlockNumber());
+			
+			// if no time out is reached don't try to receive ack packet again
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
+				break;
+			else {
+				// otherwise send the window again, the connection ends if a block cannot be read
+				window.rewind();
+				if (!window.send(this)) {
+					errorHandler.sendNotDefinedErrorPacket("cannot read file", remoteAddress, remotePort);
+					return null;
+				}
+			}
+		}
+		
+		return phRes.ackPacket;
+	}
+	
+	/**
+	 * Receive ACK packet 0 given the OACK packet
+	 * @param    sentOACKPacket OACK packet to re-send upon timeout
+	 * @return   ACK packet received
+	 */
+	public ACKPacket receiveACKPacket(OACKPacket sentOACKPacket) {
+		PacketHandlerReturn phRes = null;
+		
+		// keep on retransmitting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			tftpSocket.setTimeout(getWaitTime(getJitteredRetransmitTimeout(), retryDeadline));
+			
+			phRes = recACKPacket((short) 0);
+			
+			// if no time out is reached don't try to receive ack packet again
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
+				break;
+			else
+				// otherwise send the OACK packet again
+				sendOACKPacket(sentOACKPacket);
+		}
 		
 		return phRes.ackPacket;
 	}
@@ -459,28 +968,105 @@ public class PacketHandler {
 	 * @return ACK packet received
 	 */
 	public ACKPacket receiveACKPacket(RRQWRQPacket requestPacket) {
+		return receiveACKResponse(requestPacket).ackPacket;
+	}
+	
+	/**
+	 * Receive ACK packet 0 or OACK packet given the write request packet
+	 * @param  requestPacket
+	 * @return return object with the ACK or OACK packet
+	 */
+	private PacketHandlerReturn receiveACKResponse(RRQWRQPacket requestPacket) {
 		PacketHandlerReturn phRes = null;
 		
-		// counter to keep track the number of tries
-		int numberOfTries = 1;
-		
-		// tries for max tries
-		while (numberOfTries < NetworkConfig.MAX_TRIES) {
+		// keep on retransmitting until the retry budget is used up
+		long retryDeadline = getRetryDeadline();
+		while (true) {
+			tftpSocket.setTimeout(getWaitTime(getJitteredRetransmitTimeout(), retryDeadline));
 			phRes = recACKPacket((short) 0);
-			numberOfTries++;
 			
 			// if no time out is reached don't try to receive ack packet again
-			if (!phRes.timeout)
+			if (!phRes.timeout || isRetryBudgetExhausted(retryDeadline))
 				break;
-			else
+			else {
 				// send write or read request packet upon timeout
-				sendReadWriteRequest(requestPacket);
+				rttEstimator.backOff();
+				sendReadWriteRequest(requestPacket, true);
+			}
 		}
 		
-		if (numberOfTries == NetworkConfig.MAX_TRIES) {
-        	UIManager.printErrorMessage("PacketHandler", "max tries reached. Exitting connection");
-        }
+		return phRes;
+	}
+	
+	private static String formatBlockRange(short firstBlockNumber, short lastBlockNumber) {
+		if (firstBlockNumber == lastBlockNumber)
+			return Integer.toString(Short.toUnsignedInt(firstBlockNumber));
 		
-		return phRes.ackPacket;
+		return String.format("%d to %d", Short.toUnsignedInt(firstBlockNumber), Short.toUnsignedInt(lastBlockNumber));
+	}
+	
+	/**
+	 * Returns the time until which a packet is retried. A negotiated timeout gets
+	 * OPTION_TIMEOUT_TRIES intervals at least, however long the interval is
+	 * 
+	 * @return deadline in nano seconds
+	 */
+	public long getRetryDeadline() {
+		long retryBudget = NetworkConfig.RETRY_BUDGET;
+		if (timeoutNegotiated)
+			retryBudget = Math.max(retryBudget, (long) timeout * NetworkConfig.OPTION_TIMEOUT_TRIES);
+		
+		return System.nanoTime() + retryBudget * 1000000L;
+	}
+	
+	/**
+	 * Checks whether the retry budget of a packet is used up
+	 * 
+	 * @param retryDeadline deadline returned by getRetryDeadline
+	 * @return true if the connection should give up
+	 */
+	public static boolean isRetryBudgetExhausted(long retryDeadline) {
+		if (System.nanoTime() - retryDeadline < 0)
+			return false;
+		
+		UIManager.printErrorMessage("PacketHandler", "retry budget used up. Exitting connection");
+		return true;
+	}
+	
+	/**
+	 * Shortens a wait so that it does not go past the retry deadline
+	 * 
+	 * @param timeout       wait time in milli seconds
+	 * @param retryDeadline deadline returned by getRetryDeadline
+	 * @return wait time in milli seconds, at least 1
+	 */
+	public static int getWaitTime(int timeout, long retryDeadline) {
+		long remaining = (retryDeadline - System.nanoTime()) / 1000000L;
+		return (int) Math.max(1, Math.min(timeout, remaining));
+	}
+	
+	public synchronized long getRetransmittedPackets() {
+		return retransmittedPackets;
+	}
+	
+	/**
+	 * Returns the packet counters of the connection in a printable form
+	 * 
+	 * @return summary
+	 */
+	public synchronized String getRetransmissionSummary() {
+		double recoveryShare = sentBytes > 0 ? 100.0 * retransmittedBytes / sentBytes : 0;
+		
+		return String.format("sent %d packets (%d bytes), retransmitted %d packets (%d bytes, %.1f%%)", 
+				sentPackets, sentBytes, retransmittedPackets, retransmittedBytes, recoveryShare);
+	}
+	
+	/**
+	 * Adds the packet counters of the connection to the server totals
+	 * 
+	 * @param retransmissionStatistics server totals
+	 */
+	public synchronized void addTo(RetransmissionStatistics retransmissionStatistics) {
+		retransmissionStatistics.add(sentPackets, sentBytes, retransmittedPackets, retransmittedBytes);
 	}
 }
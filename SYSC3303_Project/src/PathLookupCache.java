@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class remembers what the file names of the read requests resolved to:
+ * the canonical path of the file, or that the file does not exist or cannot
+ * be read. A client that keeps asking for a file that is not there is answered
+ * without touching the disk.
+ *
+ * A result is kept for a limited time, and is dropped as soon as the directory
+ * watcher reports a change in the directory of the file. The number of results
+ * is bounded, the least recently used are dropped first
+ *
+ * @author Group 8
+ */
+public class PathLookupCache implements DirectoryWatcher.Listener {
+	/**
+	 * What a file name resolved to
+	 */
+	public static class Lookup {
+		private Path path;
+		private boolean notFound;
+		private boolean accessDenied;
+		// version of the file when it was checked
+		private long lastModified;
+		private long size;
+		// directory watched for the changes of the file, null if the result only expires
+		private Path directory;
+		private long expiryTime;
+
+		private Lookup(Path path, boolean notFound, boolean accessDenied) {
+			this.path = path;
+			this.notFound = notFound;
+			this.accessDenied = accessDenied;
+		}
+
+		/**
+		 * @return canonical path of the file, null if it cannot be read
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		public boolean isNotFound() {
+			return notFound;
+		}
+
+		public boolean isAccessDenied() {
+			return accessDenied;
+		}
+
+		/**
+		 * @return modification time of the file in milli seconds when it was checked
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return size of the file in bytes when it was checked
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
+	private long timeToLive;
+	private int maxEntries;
+	// reports the changes of the directories of the cached results, null if they only expire
+	private DirectoryWatcher directoryWatcher;
+
+	// results keyed by file name in least recently used order, guarded by this
+	private LinkedHashMap<String, Lookup> entries;
+	// file names of the results of each watched directory, guarded by this
+	private HashMap<Path, HashSet<String>> directoryEntries = new HashMap<Path, HashSet<String>>();
+
+	// counters, guarded by this
+	private long hits = 0;
+	private long negativeHits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+
+	// incremented whenever the changes of a directory may be missed, guarded by this
+	private long generation = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries number of results kept at most
+	 * @param timeToLive time in milli seconds a result is kept
+	 */
+	public PathLookupCache(int maxEntries, int timeToLive) {
+		this.maxEntries = maxEntries;
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+
+		entries = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+				if (size() <= PathLookupCache.this.maxEntries)
+					return false;
+
+				unwatch(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Drops the results of the directories that change
+	 *
+	 * @param directoryWatcher watcher that reports the changes of the watched directories
+	 */
+	public synchronized void setDirectoryWatcher(DirectoryWatcher directoryWatcher) {
+		this.directoryWatcher = directoryWatcher;
+	}
+
+	/**
+	 * Resolves a file name to the file that can be read, from the cache if the
+	 * result did not expire
+	 *
+	 * @param fileName file name of the request
+	 * @return what the file name resolved to
+	 * @throws IOException if the file cannot be checked for another reason than
+	 *                     it does not exist or cannot be read
+	 */
+	public Lookup resolve(String fileName) throws IOException {
+		synchronized (this) {
+			Lookup lookup = entries.get(fileName);
+			if (lookup != null && System.nanoTime() - lookup.expiryTime < 0) {
+				hits++;
+				if (lookup.notFound || lookup.accessDenied)
+					negativeHits++;
+				return lookup;
+			}
+
+			misses++;
+		}
+
+		// the directory is watched before the file is checked, a change made while the
+		// file is checked keeps the result out of the cache
+		Path path;
+		try {
+			path = Paths.get(fileName);
+		} catch (InvalidPathException e) {
+			return new Lookup(null, true, false);
+		}
+
+		Path directory = getDirectory(path);
+		long lookupGeneration = watch(directory);
+
+		Lookup lookup = lookup(path);
+		lookup.directory = directory;
+		put(fileName, lookup, lookupGeneration);
+		return lookup;
+	}
+
+	/**
+	 * Remembers that a file that resolved to a path cannot be opened
+	 *
+	 * @param fileName     file name of the request
+	 * @param accessDenied true if the file cannot be read, false if it does not exist
+	 */
+	public void putFailure(String fileName, boolean accessDenied) {
+		Path directory = getDirectory(Paths.get(fileName));
+		long lookupGeneration = watch(directory);
+
+		Lookup lookup = new Lookup(null, !accessDenied, accessDenied);
+		lookup.directory = directory;
+		put(fileName, lookup, lookupGeneration);
+	}
+
+	/**
+	 * Drops the results of the files of a directory that changed, called by the watcher
+	 */
+	@Override
+	public void onDirectoryChanged(Path directory) {
+		invalidate(directory);
+	}
+
+	/**
+	 * Drops the results of the files of a directory, called by the watcher or when a
+	 * file is known to have changed before the watcher reports it. The directory stays
+	 * watched for the results that are checked again
+	 *
+	 * @param directory canonical path of the directory, null to drop every result
+	 */
+	public synchronized void invalidate(Path directory) {
+		generation++;
+
+		if (directory == null) {
+			invalidations += entries.size();
+			entries.clear();
+			for (HashSet<String> fileNames : directoryEntries.values())
+				fileNames.clear();
+			return;
+		}
+
+		HashSet<String> fileNames = directoryEntries.get(directory);
+		if (fileNames == null)
+			return;
+
+		for (String fileName : fileNames) {
+			if (entries.remove(fileName) != null)
+				invalidations++;
+		}
+		fileNames.clear();
+	}
+
+	/**
+	 * Checks the file on the disk
+	 */
+	private Lookup lookup(Path path) throws IOException {
+		try {
+			Path canonicalPath = path.toRealPath();
+			BasicFileAttributes attributes = Files.readAttributes(canonicalPath, BasicFileAttributes.class);
+
+			// a directory cannot be sent
+			if (attributes.isDirectory())
+				return new Lookup(null, true, false);
+
+			Lookup lookup = new Lookup(canonicalPath, false, false);
+			lookup.lastModified = attributes.lastModifiedTime().toMillis();
+			lookup.size = attributes.size();
+			return lookup;
+		} catch (NoSuchFileException e) {
+			return new Lookup(null, true, false);
+		} catch (AccessDeniedException e) {
+			return new Lookup(null, false, true);
+		}
+	}
+
+	/**
+	 * Returns the directory whose changes can make a file appear or disappear, the
+	 * closest directory of the path that exists if the directory of the file does not
+	 *
+	 * @return canonical path of the directory, null if none can be resolved
+	 */
+	private Path getDirectory(Path path) {
+		try {
+			for (Path directory = path.toAbsolutePath().getParent(); directory != null; directory = directory.getParent()) {
+				try {
+					return directory.toRealPath();
+				} catch (NoSuchFileException e) {
+					continue;
+				}
+			}
+		} catch (IOException | SecurityException e) {
+			return null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Starts watching the directory of a result before the file is checked
+	 *
+	 * @return generation of the invalidations the result is checked in
+	 */
+	private synchronized long watch(Path directory) {
+		if (directory != null && directoryWatcher != null)
+			directoryWatcher.watch(directory, this);
+
+		return generation;
+	}
+
+	/**
+	 * Keeps a result unless a directory changed since the file was checked
+	 */
+	private synchronized void put(String fileName, Lookup lookup, long lookupGeneration) {
+		// a result whose directory cannot be watched is only kept until it expires
+		if (lookup.directory != null && (directoryWatcher == null || !directoryWatcher.watch(lookup.directory, this)))
+			lookup.directory = null;
+
+		if (lookupGeneration != generation) {
+			// the directory may have been watched for this result only
+			if (lookup.directory != null && !directoryEntries.containsKey(lookup.directory))
+				directoryWatcher.cancel(lookup.directory, this);
+			return;
+		}
+
+		lookup.expiryTime = System.nanoTime() + timeToLive;
+
+		// the directory is counted first so that the results dropped to make room do not stop watching it
+		if (lookup.directory != null)
+			directoryEntries.computeIfAbsent(lookup.directory, directory -> new HashSet<String>()).add(fileName);
+
+		Lookup previous = entries.put(fileName, lookup);
+		if (previous != null && !Objects.equals(previous.directory, lookup.directory))
+			unwatch(fileName, previous);
+
+		// the directories whose results were dropped are only watched again for a while
+		if (directoryEntries.size() > maxEntries)
+			cancelIdleDirectories();
+	}
+
+	/**
+	 * Stops watching the directories that have no result
+	 */
+	private void cancelIdleDirectories() {
+		directoryEntries.entrySet().removeIf(directoryEntry -> {
+			if (!directoryEntry.getValue().isEmpty())
+				return false;
+
+			// the changes are not seen until the directory is watched again
+			generation++;
+			if (directoryWatcher != null)
+				directoryWatcher.cancel(directoryEntry.getKey(), this);
+			return true;
+		});
+	}
+
+	/**
+	 * Removes a result from the results of its directory, the directory is no
+	 * longer watched once it has no result
+	 */
+	private void unwatch(String fileName, Lookup lookup) {
+		if (lookup.directory == null)
+			return;
+
+		HashSet<String> fileNames = directoryEntries.get(lookup.directory);
+		if (fileNames == null)
+			return;
+
+		fileNames.remove(fileName);
+		if (fileNames.isEmpty()) {
+			// the changes are not seen until the directory is watched again
+			generation++;
+			directoryEntries.remove(lookup.directory);
+			if (directoryWatcher != null)
+				directoryWatcher.cancel(lookup.directory, this);
+		}
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public synchronized String[] getStatistics() {
+		long lookups = hits + misses;
+		double hitRatio = lookups > 0 ? 100.0 * hits / lookups : 0;
+
+		String[] statistics = {
+				String.format("path cache: %d/%d file names, %d watched directories", entries.size(), maxEntries, directoryEntries.size()),
+				String.format("path cache hits: %d (%d not found or denied), misses: %d (%.2f%% hits), invalidated: %d",
+						hits, negativeHits, misses, hitRatio, invalidations)
+		};
+
+		return statistics;
+	}
+}
@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class moves the disk writes of a transfer off the thread that receives the
+ * DATA packets. The received blocks are queued in a bounded ring buffer and a
+ * dedicated writer thread writes them to the file, so a slow disk does not delay
+ * the ACK packets. The receiving thread only waits when the ring buffer is full.
+ * A write error is reported by the next block that is queued, or when the file
+ * is closed
+ *
+ * @author Group 8
+ */
+public class PipelinedFileBlockWriter extends FileBlockWriter implements Runnable {
+	// time in nano seconds a thread waits before it checks the ring buffer again
+	private static final long PARK_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private String fileName;
+	private SPSCRingBuffer<byte[]> blockQueue;
+	private Thread writerThread;
+
+	// set while the writer thread waits for a block
+	private volatile boolean writerWaiting = false;
+	// thread waiting for room in the ring buffer, null if none
+	private volatile Thread waitingProducer = null;
+
+	// first error of the writer thread
+	private volatile IOException writeError = null;
+	// set once the file is to be closed after the queued blocks
+	private volatile DurabilityPolicy closePolicy = null;
+	// completes once the writer thread closed the file
+	private CompletableFuture<Void> closedFuture = new CompletableFuture<Void>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param fileChannel        channel of the file opened for writing
+	 * @param groupCommitService service that forces the file to the storage device, or null
+	 * @param fileName           name of the file, used to name the writer thread
+	 * @param queueBlocks        number of blocks that can wait for the writer thread
+	 */
+	public PipelinedFileBlockWriter(FileChannel fileChannel, GroupCommitService groupCommitService, String fileName, int queueBlocks) {
+		super(fileChannel, groupCommitService);
+
+		this.fileName = fileName;
+		this.blockQueue = new SPSCRingBuffer<byte[]>(queueBlocks);
+
+		writerThread = new Thread(this, "FileBlockWriter-" + fileName);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues the data of a block for the writer thread
+	 *
+	 * @param data data bytes of the block
+	 * @throws IOException if the writer thread failed to write a previous block
+	 */
+	@Override
+	public void write(byte[] data) throws IOException {
+		checkWriteError();
+
+		while (!blockQueue.offer(data)) {
+			// wait for the writer thread to make room
+			waitingProducer = Thread.currentThread();
+			if (blockQueue.isFull())
+				LockSupport.parkNanos(this, PARK_TIME);
+			waitingProducer = null;
+
+			checkWriteError();
+		}
+
+		if (writerWaiting)
+			LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Closes the file once the writer thread wrote the queued blocks. With the
+	 * QUEUED policy the method returns without waiting for the writer thread
+	 *
+	 * @param durabilityPolicy how far the data must have gone before the method returns
+	 * @throws IOException if the file cannot be written
+	 */
+	@Override
+	public void close(DurabilityPolicy durabilityPolicy) throws IOException {
+		CompletableFuture<Void> future = closeAsync(durabilityPolicy);
+
+		if (closePolicy != DurabilityPolicy.QUEUED)
+			waitFor(future);
+
+		checkWriteError();
+	}
+
+	/**
+	 * Asks the writer thread to close the file once it wrote the queued blocks
+	 *
+	 * @param durabilityPolicy how far the data must have gone before the future completes
+	 * @return completes once the writer thread closed the file
+	 */
+	@Override
+	public CompletableFuture<Void> closeAsync(DurabilityPolicy durabilityPolicy) {
+		if (closePolicy == null) {
+			closePolicy = durabilityPolicy;
+			LockSupport.unpark(writerThread);
+		}
+
+		return closedFuture;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closePolicy != null;
+	}
+
+	/**
+	 * Writes the queued blocks until the file is closed
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			byte[] data = blockQueue.poll();
+
+			if (data != null) {
+				// the blocks after a failed write are dropped
+				if (writeError == null) {
+					try {
+						super.write(data);
+					} catch (IOException e) {
+						writeError = e;
+					}
+				}
+
+				Thread producer = waitingProducer;
+				if (producer != null)
+					LockSupport.unpark(producer);
+
+				continue;
+			}
+
+			// every block is queued before the close is requested
+			if (closePolicy != null && blockQueue.isEmpty())
+				break;
+
+			writerWaiting = true;
+			if (blockQueue.isEmpty() && closePolicy == null)
+				LockSupport.park(this);
+			writerWaiting = false;
+		}
+
+		try {
+			waitFor(closeFile(closePolicy));
+		} catch (IOException e) {
+			if (writeError == null)
+				writeError = e;
+		}
+
+		// nobody waits for the result of a QUEUED close
+		if (writeError != null && closePolicy == DurabilityPolicy.QUEUED)
+			UIManager.printErrorMessage("PipelinedFileBlockWriter", String.format("cannot write file %s: %s", fileName, writeError.getMessage()));
+
+		if (writeError == null)
+			closedFuture.complete(null);
+		else
+			closedFuture.completeExceptionally(writeError);
+	}
+
+	private void checkWriteError() throws IOException {
+		IOException e = writeError;
+		if (e != null)
+			throw e;
+	}
+}
@@ -1,10 +1,9 @@
 import java.net.InetAddress;
-import java.util.Queue;
 
 /**
  * This class is used to communicate further with a client that made a WQR request
  */
-public class RRQServerThread extends Thread {
+public class RRQServerThread implements Runnable, ServerSession {
 	private Server server;
 	private TFTPSocket tftpSocket;
 	private TFTPPacket requestPacket;
@@ -16,7 +15,10 @@ public class RRQServerThread extends Thread {
 	private InetAddress remoteAddress;
 	private int remotePort;
 	
-	private Queue<DATAPacket> dataPacketStack;
+	private DuplicateRequestCounter duplicateRequests = new DuplicateRequestCounter("RRQServerThread");
+	
+	private DATABlockSource blockSource;
+	private DATAPacketWindow dataPacketWindow;
 	
 	/**
 	 * Constructor
@@ -27,13 +29,10 @@ public class RRQServerThread extends Thread {
 		this.server = server;
 		this.requestPacket = requestPacket;
 		
-		tftpSocket = new TFTPSocket(NetworkConfig.TIMEOUT_TIME);
-		
 		remoteAddress = requestPacket.getRemoteAddress();
 		remotePort = requestPacket.getRemotePort();
 		
-		fileManager = new FileManager();
-		errorHandler = new ErrorHandler(tftpSocket);
+		fileManager = new FileManager(null, server.getFileContentCache(), server.getPathLookupCache(), server.getDirectoryIndex(), FileManager.SERVER_STAGING_PREFIX);
 	}
 	
 	/**
@@ -41,6 +40,10 @@ public class RRQServerThread extends Thread {
 	 */
 	@Override
 	public void run() {
+		// lease a socket that acts as the transfer ID of this connection
+		tftpSocket = server.leaseTransferSocket();
+		errorHandler = new ErrorHandler(tftpSocket);
+		
 		handleRRQConnection();
 		cleanUp();
 	}
@@ -66,53 +69,85 @@ public class RRQServerThread extends Thread {
 			return;
 		}
 		
+		// pick the options the server accepts
+		TFTPOptions options = null;
+		try {
+			options = TFTPOptions.negotiate(rrqPacket);
+		} catch (TFTPOptionError e) {
+			// an option that cannot be accepted will send an error packet with error code 8
+			UIManager.printErrorMessage("RRQServerThread", e.getMessage());
+			errorHandler.sendOptionNegotiationErrorPacket(e.getMessage(), remoteAddress, remotePort);
+			return;
+		}
+		
 		packetHandler = new PacketHandler(tftpSocket, errorHandler, remoteAddress, remotePort);
+		packetHandler.applyOptions(options);
 		
 		// get the file name requested by the client
 		String fileName = rrqPacket.getFileName();
 		
-		// read the whole file requested by the client
-		FileManager.FileManagerResult res = fileManager.readFile(fileName);
-		byte[] fileData = null;
+		// open the file requested by the client, its blocks are read as they are sent
+		FileManager.FileManagerResult res = fileManager.openFile(fileName, NetworkConfig.READ_AHEAD_BLOCKS > 0);
 		
-		if (!res.error) {
-			fileData = res.fileBytes;
-		}
-		else {
+		if (res.error) {
 			// access violation error will send an error packet with error code 2 and the connection
 			if (res.accessViolation) 
 				errorHandler.sendAccessViolationErrorPacket(String.format("read access denied to file: %s", fileName), remoteAddress, remotePort);
 			// file not found error will send an error packet with error code 1 and the connection
 			else if (res.fileNotFound)
 				errorHandler.sendFileNotFoundErrorPacket(String.format("file not found: %s", fileName), remoteAddress, remotePort);
+			// any other read error will send an error packet with error code 0
+			else
+				errorHandler.sendNotDefinedErrorPacket(String.format("cannot read file: %s", fileName), remoteAddress, remotePort);
 				
 			return;
 		}
 		
-		// create list of DATA datagram packets that contain up to 512 bytes of file data
-		dataPacketStack = TFTPPacketBuilder.getStackOfDATADatagramPackets(fileData, remoteAddress, remotePort);
+		// the blocks of a file kept by the file cache are not read from the disk
+		if (res.cachedFile != null)
+			blockSource = new DATABlockSource(res.cachedFile, options.getBlockSize(), remoteAddress, remotePort);
+		else if (res.asyncFileChannel != null)
+			blockSource = new DATABlockSource(res.asyncFileChannel, res.fileSize, options.getBlockSize(),
+					options.getWindowSize(), NetworkConfig.READ_AHEAD_BLOCKS, remoteAddress, remotePort);
+		else
+			blockSource = new DATABlockSource(res.fileChannel, res.fileSize, options.getBlockSize(), remoteAddress, remotePort);
 		
-		DATAPacket dataPacket = null;
-		ACKPacket ackPacket = null;
-		while (!dataPacketStack.isEmpty()) {
-			// send each datagram packet in order and wait for acknowledgement packet from the client
+		// report the size of the file if the client asked for it
+		options.setTransferSize(blockSource.getFileSize());
+		
+		// acknowledge the accepted options, the client answers with ACK packet 0
+		if (options.hasAcknowledgedOptions()) {
+			OACKPacket oackPacket = TFTPPacketBuilder.getOACKDatagram(options.getAcknowledgedOptions(), remoteAddress, remotePort);
+			packetHandler.sendOACKPacket(oackPacket);
 			
-			dataPacket = dataPacketStack.peek();
+			if (packetHandler.receiveACKPacket(oackPacket) == null)
+				return;
+		}
+		
+		// window of DATA datagram packets that contain up to a block of file data
+		dataPacketWindow = new DATAPacketWindow(blockSource, options.getWindowSize());
 		
-			packetHandler.sendDATAPacket(dataPacket);
+		ACKPacket ackPacket = null;
+		while (!dataPacketWindow.isComplete()) {
+			// send a window of datagram packets in order and wait for acknowledgement packet from the client
+			if (!dataPacketWindow.send(packetHandler)) {
+				errorHandler.sendNotDefinedErrorPacket(String.format("cannot read file: %s", fileName), remoteAddress, remotePort);
+				return;
+			}
 		 
-			ackPacket = packetHandler.receiveACKPacket(dataPacket); 
+			ackPacket = packetHandler.receiveACKPacket(dataPacketWindow); 
 			
 			if (ackPacket == null) {
 				break;
 			}
 			
-			dataPacketStack.poll();
+			dataPacketWindow.acknowledge(ackPacket.getBlockNumber());
 		}
 		
 		String[] messages = {
 				"read request connection finished",
-				String.format("read request connection finished with client %s:%d", remoteAddress, remotePort)
+				String.format("read request connection finished with client %s:%d, smoothed RTT %.3f ms, retransmit timeout %d ms",
+						remoteAddress, remotePort, packetHandler.getRTTEstimator().getSmoothedRTT() / 1e6, packetHandler.getRetransmitTimeout())
 		};
 		UIManager.printMessage("RRQServerThread", messages);
 	}
@@ -126,8 +161,32 @@ public class RRQServerThread extends Thread {
 				String.format("socket closed. Port %d released", tftpSocket.getPort())
 		};	
 		UIManager.printMessage("RRQServerThread", messages);
-		tftpSocket.close();
+		server.releaseTransferSocket(tftpSocket);
+		
+		if (blockSource != null)
+			blockSource.close();
 		
-		server.removeConnection(remoteAddress + ":" + remotePort);
+		server.recordRetransmissions(remoteAddress, remotePort, packetHandler);
+		server.removeConnection(remoteAddress, remotePort);
+	}
+	
+	@Override
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+	
+	@Override
+	public int getRemotePort() {
+		return remotePort;
+	}
+	
+	@Override
+	public void duplicateRequestReceived(TFTPPacket requestPacket) {
+		duplicateRequests.record(remoteAddress, remotePort);
+	}
+	
+	@Override
+	public int getDuplicateRequests() {
+		return duplicateRequests.get();
 	}
 }
@@ -0,0 +1,256 @@
+import java.io.IOException;
+
+/**
+ * This class is the event loop counterpart of the RRQServerThread.
+ * It sends windows of DATA packets to a client that made a RRQ request and
+ * slides the window on every ACK packet
+ *
+ * @author Group 8
+ */
+public class RRQSession extends TFTPSession {
+	private DATABlockSource blockSource;
+	private DATAPacketWindow dataPacketWindow;
+
+	// OACK packet waiting for ACK packet 0, null once the options are acknowledged
+	private OACKPacket oackPacket;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public RRQSession(Server server, TFTPPacket requestPacket) throws IOException {
+		super(server, requestPacket);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @param sharedSocket  shared socket of the event loop, or null for a dedicated channel
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public RRQSession(Server server, TFTPPacket requestPacket, TFTPSocket sharedSocket) throws IOException {
+		super(server, requestPacket, sharedSocket);
+	}
+
+	/**
+	 * Reads the requested file and sends the first DATA packet
+	 */
+	@Override
+	public void start() {
+		RRQWRQPacket rrqPacket = null;
+
+		// parse read request packet
+		try {
+			rrqPacket = new RRQWRQPacket(requestPacket);
+		} catch (TFTPPacketParsingError e) {
+			UIManager.printErrorMessage("RRQSession", "cannot parse RRQ TFTP packet");
+			errorHandler.sendIllegalOperationErrorPacket("invalid RRQ TFTP packet", remoteAddress, remotePort);
+			finish();
+			return;
+		}
+
+		// pick the options the server accepts
+		TFTPOptions options = null;
+		try {
+			options = TFTPOptions.negotiate(rrqPacket);
+		} catch (TFTPOptionError e) {
+			UIManager.printErrorMessage("RRQSession", e.getMessage());
+			errorHandler.sendOptionNegotiationErrorPacket(e.getMessage(), remoteAddress, remotePort);
+			finish();
+			return;
+		}
+
+		packetHandler.applyOptions(options);
+
+		// get the file name requested by the client
+		String fileName = rrqPacket.getFileName();
+
+		// open the file requested by the client, its blocks are read as they are sent
+		FileManager.FileManagerResult res = fileManager.openFile(fileName, NetworkConfig.READ_AHEAD_BLOCKS > 0);
+
+		if (res.error) {
+			// access violation error will send an error packet with error code 2 and the connection
+			if (res.accessViolation)
+				errorHandler.sendAccessViolationErrorPacket(String.format("read access denied to file: %s", fileName), remoteAddress, remotePort);
+			// file not found error will send an error packet with error code 1 and the connection
+			else if (res.fileNotFound)
+				errorHandler.sendFileNotFoundErrorPacket(String.format("file not found: %s", fileName), remoteAddress, remotePort);
+			// any other read error will send an error packet with error code 0
+			else
+				errorHandler.sendNotDefinedErrorPacket(String.format("cannot read file: %s", fileName), remoteAddress, remotePort);
+
+			finish();
+			return;
+		}
+
+		// window of DATA datagram packets that contain up to a block of file data
+		if (res.cachedFile != null)
+			blockSource = new DATABlockSource(res.cachedFile, options.getBlockSize(), remoteAddress, remotePort);
+		else if (res.asyncFileChannel != null)
+			blockSource = new DATABlockSource(res.asyncFileChannel, res.fileSize, options.getBlockSize(),
+					options.getWindowSize(), NetworkConfig.READ_AHEAD_BLOCKS, remoteAddress, remotePort);
+		else
+			blockSource = new DATABlockSource(res.fileChannel, res.fileSize, options.getBlockSize(), remoteAddress, remotePort);
+		// the event loop does not wait for the blocks read ahead
+		blockSource.setReadyListener(eventLoop::execute, this::onBlockRead);
+		dataPacketWindow = new DATAPacketWindow(blockSource, options.getWindowSize());
+
+		// report the size of the file if the client asked for it
+		options.setTransferSize(blockSource.getFileSize());
+
+		// acknowledge the accepted options first, the client answers with ACK packet 0
+		if (options.hasAcknowledgedOptions()) {
+			oackPacket = TFTPPacketBuilder.getOACKDatagram(options.getAcknowledgedOptions(), remoteAddress, remotePort);
+			packetHandler.sendOACKPacket(oackPacket);
+		}
+		else if (!sendWindow()) {
+			return;
+		}
+
+		armTimer();
+	}
+
+	/**
+	 * Slides the window past the acknowledged block and sends the packets that fit in
+	 */
+	@Override
+	public void onPacket(TFTPPacket receivePacket) {
+		if (oackPacket != null) {
+			onOptionsAcknowledgement(receivePacket);
+			return;
+		}
+
+		PacketHandler.PacketHandlerReturn phRes = packetHandler.processACKPacket(receivePacket, 
+				dataPacketWindow.getFirstBlockNumber(), dataPacketWindow.getLastBlockNumber());
+
+		// keep on waiting for the ACK packet
+		if (phRes.discarded)
+			return;
+
+		// an error occurred, end the connection
+		if (phRes.ackPacket == null) {
+			finish();
+			return;
+		}
+
+		dataPacketWindow.acknowledge(phRes.ackPacket.getBlockNumber());
+
+		if (dataPacketWindow.isComplete()) {
+			String[] messages = {
+					"read request connection finished",
+					String.format("read request connection finished with client %s:%d, smoothed RTT %.3f ms, retransmit timeout %d ms",
+							remoteAddress, remotePort, packetHandler.getRTTEstimator().getSmoothedRTT() / 1e6, packetHandler.getRetransmitTimeout())
+			};
+			UIManager.printMessage("RRQSession", messages);
+
+			finish();
+			return;
+		}
+
+		if (!sendWindow())
+			return;
+
+		armTimer();
+	}
+
+	/**
+	 * Starts sending DATA packets once ACK packet 0 acknowledges the OACK packet
+	 */
+	private void onOptionsAcknowledgement(TFTPPacket receivePacket) {
+		PacketHandler.PacketHandlerReturn phRes = packetHandler.processACKPacket(receivePacket, (short) 0);
+
+		// keep on waiting for the ACK packet
+		if (phRes.discarded)
+			return;
+
+		// an error occurred, end the connection
+		if (phRes.ackPacket == null) {
+			finish();
+			return;
+		}
+
+		oackPacket = null;
+
+		if (!sendWindow())
+			return;
+
+		armTimer();
+	}
+
+	/**
+	 * Sends the rest of the window once the block it stopped at is read
+	 */
+	private void onBlockRead() {
+		// the connection ended, or waits for the options to be acknowledged
+		if (isFinished() || oackPacket != null)
+			return;
+
+		if (!sendWindow())
+			return;
+
+		rearmTimer();
+	}
+
+	/**
+	 * Sends the packets that fit in the window, the connection is ended if
+	 * the file cannot be read
+	 *
+	 * @return false if the connection was ended
+	 */
+	private boolean sendWindow() {
+		if (dataPacketWindow.send(packetHandler))
+			return true;
+
+		errorHandler.sendNotDefinedErrorPacket("cannot read file", remoteAddress, remotePort);
+		finish();
+		return false;
+	}
+
+	/**
+	 * Closes the file once the connection is finished
+	 */
+	@Override
+	protected void closeFiles() {
+		if (blockSource != null)
+			blockSource.close();
+	}
+
+	/**
+	 * The ACK packets are waited for as long as the round trip time estimate allows,
+	 * the estimate doubles with every retransmission and is randomised
+	 */
+	@Override
+	protected int getRetransmitTimeout() {
+		return packetHandler.getJitteredRetransmitTimeout();
+	}
+
+	/**
+	 * Re-sends the OACK packet, or the window from its first block that is not
+	 * acknowledged, until the retry budget is used up
+	 */
+	@Override
+	public void onTimeout() {
+		UIManager.printErrorMessage("RRQSession", "Socket timed out. Cannot receive ACK packet");
+
+		if (isRetryBudgetExhausted()) {
+			finish();
+			return;
+		}
+
+		if (oackPacket != null) {
+			packetHandler.sendOACKPacket(oackPacket);
+		}
+		else {
+			// blocks of the window that were not sent yet are read, the connection ends if one cannot be
+			dataPacketWindow.rewind();
+			if (!sendWindow())
+				return;
+		}
+		rearmTimer();
+	}
+}
@@ -1,5 +1,7 @@
 import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class represents the RRQWRQ TFTP packet
@@ -11,6 +13,8 @@ public class RRQWRQPacket extends TFTPPacket {
 	
 	private String fileName;
 	private String mode;
+	// options requested after the mode (RFC 2347), empty if none
+	private LinkedHashMap<String, String> options = new LinkedHashMap<String, String>();
 	
 	/**
 	 * Constructor used in the static buildPacket method
@@ -29,6 +33,7 @@ public class RRQWRQPacket extends TFTPPacket {
 		super(tftpPackett);
 		parseFileName();
 		parseMode();
+		parseOptions();
 	}
 	
 	/**
@@ -88,6 +93,18 @@ public class RRQWRQPacket extends TFTPPacket {
 		mode =  ByteConversions.bytesToString(modeBytes);
 	}
 	
+	/**
+	 * Reads the option name and value pairs that follow the mode
+	 * 
+	 * @throws TFTPPacketParsingError
+	 */
+	private void parseOptions() throws TFTPPacketParsingError {
+		int optionsOffset = 2 + ByteConversions.stringToBytes(fileName).length + 1 
+				+ ByteConversions.stringToBytes(mode).length + 1;
+		
+		options = parseOptions(super.packetBytes, optionsOffset);
+	}
+	
 	/**
 	 * Getter function for returning file name
 	 * 
@@ -106,6 +123,15 @@ public class RRQWRQPacket extends TFTPPacket {
 		return mode;
 	}
 	
+	/**
+	 * Getter function for returning the requested options
+	 * 
+	 * @return option values keyed by lower case option name
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+	
 	/**
 	 * Returns an RRQ/WRQ packet given the attributes
 	 * 
@@ -117,12 +143,28 @@ public class RRQWRQPacket extends TFTPPacket {
 	 * 		   initialized attributes
 	 */
 	public static RRQWRQPacket buildPacket(TFTPPacketType type, String fileName, String mode, InetAddress remoteAddress, int remotePort) {
+		return buildPacket(type, fileName, mode, new LinkedHashMap<String, String>(), remoteAddress, remotePort);
+	}
+	
+	/**
+	 * Returns an RRQ/WRQ packet given the attributes
+	 * 
+	 * @param type     packet type - RRQ or WWRQ
+	 * @param fileName name of the file that is being requested
+	 * @param mode     mode that is being requested
+	 * @param options  options that are requested, may be empty
+	 * 
+	 * @return RRQ/WRQ packet containing the array of bytes that form the packet and the
+	 * 		   initialized attributes
+	 */
+	public static RRQWRQPacket buildPacket(TFTPPacketType type, String fileName, String mode, Map<String, String> options, InetAddress remoteAddress, int remotePort) {
 		RRQWRQPacket requestPacket = new RRQWRQPacket();
 		
 		byte[] fileNameBytes = ByteConversions.stringToBytes(fileName);
 		byte[] modeBytes = ByteConversions.stringToBytes(mode);
+		byte[] optionBytes = optionsToBytes(options);
 		
-		byte[] packetBytes = new byte[4 + fileNameBytes.length + modeBytes.length];
+		byte[] packetBytes = new byte[4 + fileNameBytes.length + modeBytes.length + optionBytes.length];
 		
 		// assign opCode depending on package type
 		// opCode is 1 if RRQ
@@ -160,9 +202,13 @@ public class RRQWRQPacket extends TFTPPacket {
 		packetBytes[c] = 0;
 		c++;
 		
+		// append option name and value pairs
+		System.arraycopy(optionBytes, 0, packetBytes, c, optionBytes.length);
+		
 		requestPacket.opCode = opCode;
 		requestPacket.fileName = fileName;
 		requestPacket.mode = mode;
+		requestPacket.options = new LinkedHashMap<String, String>(options);
 		requestPacket.packetBytes = packetBytes;
 		requestPacket.remoteAddress = remoteAddress;
 		requestPacket.remotePort = remotePort;
@@ -171,6 +217,6 @@ public class RRQWRQPacket extends TFTPPacket {
 	}
 	
 	public String toString() {
-		return String.format("RRQ/WRQ Packet: OPCode: %d, Filename: %s, Mode: %s, Packet size: %d", opCode, fileName, mode, packetLength);
+		return String.format("RRQ/WRQ Packet: OPCode: %d, Filename: %s, Mode: %s, Options: %s, Packet size: %d", opCode, fileName, mode, options, packetLength);
 	}
 }
@@ -0,0 +1,96 @@
+/**
+ * This class estimates the round trip time of a connection from the time it takes
+ * to get a DATA packet acknowledged, and derives the retransmission timeout from it.
+ *
+ * The smoothed round trip time and its variance are updated as described by
+ * Jacobson and Karels (RFC 6298). Following Karn's rule, blocks that were sent more
+ * than once do not give a sample because the ACK cannot be matched to one of the
+ * transmissions, and the timeout is doubled on every retransmission until a new
+ * sample is taken
+ *
+ * @author Group 8
+ */
+public class RTTEstimator {
+	// clock granularity, the variance term never goes below it
+	private static final long CLOCK_GRANULARITY = 1000000L;
+
+	private long minTimeout;
+	private long maxTimeout;
+
+	// all times in nano seconds, a smoothed round trip time of -1 means no sample yet
+	private long smoothedRTT = -1;
+	private long rttVariance = 0;
+	private long retransmitTimeout;
+
+	private long samples = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialTimeout timeout in milli seconds used until the first sample
+	 * @param minTimeout     lower bound of the timeout in milli seconds
+	 * @param maxTimeout     upper bound of the timeout in milli seconds
+	 */
+	public RTTEstimator(int initialTimeout, int minTimeout, int maxTimeout) {
+		this.minTimeout = minTimeout * 1000000L;
+		this.maxTimeout = maxTimeout * 1000000L;
+
+		retransmitTimeout = clamp(initialTimeout * 1000000L);
+	}
+
+	/**
+	 * Adds a round trip time measured on a block that was sent only once
+	 *
+	 * @param rtt round trip time in nano seconds
+	 */
+	public void addSample(long rtt) {
+		if (smoothedRTT < 0) {
+			smoothedRTT = rtt;
+			rttVariance = rtt / 2;
+		}
+		else {
+			// RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R
+			rttVariance = rttVariance - (rttVariance >> 2) + (Math.abs(smoothedRTT - rtt) >> 2);
+			smoothedRTT = smoothedRTT - (smoothedRTT >> 3) + (rtt >> 3);
+		}
+
+		retransmitTimeout = clamp(smoothedRTT + Math.max(CLOCK_GRANULARITY, 4 * rttVariance));
+		samples++;
+	}
+
+	/**
+	 * Doubles the timeout after a retransmission
+	 */
+	public void backOff() {
+		retransmitTimeout = clamp(retransmitTimeout * 2);
+	}
+
+	/**
+	 * @return retransmission timeout in milli seconds
+	 */
+	public int getTimeout() {
+		return (int) ((retransmitTimeout + 999999L) / 1000000L);
+	}
+
+	/**
+	 * @return smoothed round trip time in nano seconds, -1 if there is no sample yet
+	 */
+	public long getSmoothedRTT() {
+		return smoothedRTT;
+	}
+
+	/**
+	 * @return round trip time variance in nano seconds
+	 */
+	public long getRTTVariance() {
+		return rttVariance;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	private long clamp(long timeout) {
+		return Math.min(maxTimeout, Math.max(minTimeout, timeout));
+	}
+}
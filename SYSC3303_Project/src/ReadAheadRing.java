@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Executor;
+
+/**
+ * This class reads the blocks of a file ahead of the connection that sends them.
+ * Up to distance blocks past the highest block the window took, the last block
+ * that is not acknowledged, are read asynchronously, each into the bytes of its
+ * DATA packet, so the packets are sent without waiting for the disk as long as
+ * the disk keeps ahead of the client. The slots of the ring are reused as the
+ * window takes their blocks.
+ *
+ * A connection that has its own thread waits for a block that is not read yet.
+ * A connection of an event loop is never made to wait, it is given no block and
+ * its ready listener is run on the event loop once the block is read
+ *
+ * @author Group 8
+ */
+public class ReadAheadRing {
+	/**
+	 * A block being read, or read and not taken yet
+	 */
+	private static class Slot {
+		// position of the block in the file
+		private long index;
+		private byte[] packetBytes;
+		// data part of the packet bytes the file is read into
+		private ByteBuffer buffer;
+		// true once the block is read or cannot be read
+		private boolean done = false;
+		private IOException error;
+
+		Slot(long index, byte[] packetBytes, ByteBuffer buffer) {
+			this.index = index;
+			this.packetBytes = packetBytes;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Completes the reads of the blocks, run by the threads of the file channel
+	 */
+	private class ReadHandler implements CompletionHandler<Integer, Slot> {
+		@Override
+		public void completed(Integer bytesRead, Slot slot) {
+			if (bytesRead == -1)
+				finish(slot, new IOException("file is shorter than its size"));
+			// the read stopped short, the rest of the block is read
+			else if (slot.buffer.hasRemaining())
+				read(slot);
+			else
+				finish(slot, null);
+		}
+
+		@Override
+		public void failed(Throwable e, Slot slot) {
+			// the file was closed with the connection
+			if (e instanceof AsynchronousCloseException)
+				return;
+
+			finish(slot, e instanceof IOException ? (IOException) e : new IOException(e));
+		}
+	}
+
+	private AsynchronousFileChannel fileChannel;
+	private long fileSize;
+	private int blockSize;
+	private long blockCount;
+	private ReadHandler readHandler = new ReadHandler();
+
+	// runs the ready listener on the thread of the connection, null if the connection waits for the blocks
+	private Executor listenerExecutor;
+	// called once the block the connection found not read yet is read
+	private Runnable readyListener;
+
+	// the following fields are guarded by this, the reads complete on the threads of the file channel
+	// the block at index i is read into slot i % slots.length, null if the slot is free
+	private Slot[] slots;
+	// index of the block the window is expected to take next
+	private long nextToTake = 0;
+	// index of the next block to read
+	private long nextToRead = 0;
+	// index of the block the connection waits for, -1 if it waits for none
+	private long awaitedIndex = -1;
+	private boolean closed = false;
+
+	/**
+	 * Constructor, the first blocks are read right away
+	 *
+	 * @param fileChannel channel of the file opened for reading
+	 * @param fileSize    size of the file in bytes
+	 * @param blockSize   number of data bytes in a full DATA packet
+	 * @param distance    number of blocks read ahead of the highest block taken
+	 */
+	public ReadAheadRing(AsynchronousFileChannel fileChannel, long fileSize, int blockSize, int distance) {
+		this.fileChannel = fileChannel;
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.blockCount = fileSize / blockSize + 1;
+
+		slots = new Slot[Math.max(1, distance)];
+
+		synchronized (this) {
+			readAhead();
+		}
+	}
+
+	/**
+	 * Stops waiting for the blocks that are not read yet, they are given as null
+	 * and the listener is run once the block is read
+	 *
+	 * @param listenerExecutor executor of the thread of the connection
+	 * @param readyListener    listener that takes the block again
+	 */
+	public synchronized void setReadyListener(Executor listenerExecutor, Runnable readyListener) {
+		this.listenerExecutor = listenerExecutor;
+		this.readyListener = readyListener;
+	}
+
+	/**
+	 * Returns the bytes of the DATA packet of a block and reads the next blocks
+	 *
+	 * @param index position of the block in the file, starting at 0
+	 * @return bytes of the packet, owned by the caller, or null if the block is not
+	 *         read yet and the ready listener will be run once it is
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized byte[] getPacketBytes(long index) throws IOException {
+		// the window takes the blocks in order, anything else starts reading from the block
+		if (index != nextToTake)
+			restart(index);
+
+		int position = (int) (index % slots.length);
+		Slot slot = slots[position];
+
+		if (!slot.done) {
+			if (listenerExecutor != null) {
+				awaitedIndex = index;
+				return null;
+			}
+
+			try {
+				while (!slot.done)
+					wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while reading the file");
+			}
+		}
+
+		slots[position] = null;
+		if (slot.error != null)
+			throw slot.error;
+
+		nextToTake = index + 1;
+		readAhead();
+		return slot.packetBytes;
+	}
+
+	/**
+	 * Starts reading the blocks that fit in the free slots
+	 */
+	private void readAhead() {
+		long readEnd = Math.min(blockCount, nextToTake + slots.length);
+
+		while (nextToRead < readEnd) {
+			long position = nextToRead * blockSize;
+			int length = (int) Math.min(blockSize, fileSize - position);
+
+			byte[] packetBytes = new byte[4 + length];
+			DATAPacket.encodeHeader(packetBytes, (short) (nextToRead + 1));
+			Slot slot = new Slot(nextToRead, packetBytes, ByteBuffer.wrap(packetBytes, 4, length));
+			slots[(int) (nextToRead % slots.length)] = slot;
+
+			// the empty last block has nothing to read
+			if (length > 0)
+				read(slot);
+			else
+				slot.done = true;
+
+			nextToRead++;
+		}
+	}
+
+	/**
+	 * Reads the rest of a block
+	 */
+	private void read(Slot slot) {
+		long position = slot.index * blockSize + slot.buffer.position() - 4;
+		fileChannel.read(slot.buffer, position, slot, readHandler);
+	}
+
+	/**
+	 * Marks a block read and tells the connection if it waits for it
+	 */
+	private void finish(Slot slot, IOException error) {
+		Runnable listener = null;
+
+		synchronized (this) {
+			// the block was dropped by a restart, its bytes are not held by anyone
+			if (closed || slots[(int) (slot.index % slots.length)] != slot)
+				return;
+
+			slot.done = true;
+			slot.error = error;
+
+			if (listenerExecutor == null) {
+				notifyAll();
+			}
+			else if (awaitedIndex == slot.index) {
+				awaitedIndex = -1;
+				listener = readyListener;
+			}
+		}
+
+		if (listener != null)
+			listenerExecutor.execute(listener);
+	}
+
+	/**
+	 * Drops the blocks read ahead and reads again from a block, the reads that are
+	 * not done fill bytes nobody holds anymore
+	 */
+	private void restart(long index) {
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = null;
+
+		awaitedIndex = -1;
+		nextToTake = index;
+		nextToRead = index;
+		readAhead();
+	}
+
+	/**
+	 * Closes the file, the reads that are not done are abandoned
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+		}
+
+		fileChannel.close();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * This class adds up the packets sent by the finished connections of the server,
+ * so that the share of the bandwidth spent on retransmissions can be seen
+ *
+ * @author Group 8
+ */
+public class RetransmissionStatistics {
+	private long connections = 0;
+	private long connectionsWithRetransmissions = 0;
+	private long sentPackets = 0;
+	private long sentBytes = 0;
+	private long retransmittedPackets = 0;
+	private long retransmittedBytes = 0;
+
+	/**
+	 * Adds the counters of a finished connection
+	 *
+	 * @param sentPackets          packets sent, retransmissions included
+	 * @param sentBytes            bytes sent, retransmissions included
+	 * @param retransmittedPackets packets that were sent again
+	 * @param retransmittedBytes   bytes that were sent again
+	 */
+	public synchronized void add(long sentPackets, long sentBytes, long retransmittedPackets, long retransmittedBytes) {
+		connections++;
+		if (retransmittedPackets > 0)
+			connectionsWithRetransmissions++;
+
+		this.sentPackets += sentPackets;
+		this.sentBytes += sentBytes;
+		this.retransmittedPackets += retransmittedPackets;
+		this.retransmittedBytes += retransmittedBytes;
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public synchronized String[] getStatistics() {
+		double recoveryShare = sentBytes > 0 ? 100.0 * retransmittedBytes / sentBytes : 0;
+
+		String[] statistics = {
+				String.format("finished connections: %d, with retransmissions: %d", connections, connectionsWithRetransmissions),
+				String.format("packets sent: %d (%d bytes), retransmitted: %d (%d bytes, %.2f%% of the bandwidth)",
+						sentPackets, sentBytes, retransmittedPackets, retransmittedBytes, recoveryShare)
+		};
+
+		return statistics;
+	}
+}
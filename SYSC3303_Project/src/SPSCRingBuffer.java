@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded queue for exactly one producer thread and one consumer
+ * thread. Each side only writes its own index, so no lock is taken when an
+ * element is added or removed
+ *
+ * @author Group 8
+ *
+ * @param <E> type of the elements
+ */
+public class SPSCRingBuffer<E> {
+	private Object[] slots;
+	private int mask;
+
+	// index of the next element to remove, only written by the consumer
+	private AtomicLong head = new AtomicLong();
+	// index of the next element to add, only written by the producer
+	private AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity maximum number of elements, rounded up to a power of two
+	 */
+	public SPSCRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		slots = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an element, only called by the producer
+	 *
+	 * @param element element to add
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		long currentTail = tail.get();
+		if (currentTail - head.get() == slots.length)
+			return false;
+
+		slots[(int) (currentTail & mask)] = element;
+		tail.set(currentTail + 1);
+
+		return true;
+	}
+
+	/**
+	 * Removes the oldest element, only called by the consumer
+	 *
+	 * @return element, or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long currentHead = head.get();
+		if (currentHead == tail.get())
+			return null;
+
+		int index = (int) (currentHead & mask);
+		E element = (E) slots[index];
+		slots[index] = null;
+		head.set(currentHead + 1);
+
+		return element;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	public boolean isFull() {
+		return tail.get() - head.get() == slots.length;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+}
@@ -1,33 +1,225 @@
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents a server.
  * It is used to accept incoming WRQ or RRQ requests 
  */
 public class Server implements Runnable {
-	private TFTPSocket tftpSocket;
-	private ErrorHandler errorHandler;
+	/**
+	 * This class listens for requests on one of the sockets bound to the server port.
+	 * With more than one listener the sockets share the port and the operating system
+	 * spreads the incoming requests over them
+	 */
+	private class RequestListener implements Runnable {
+		private TFTPSocket tftpSocket;
+		private ErrorHandler errorHandler;
+		private int listenerIndex;
+		
+		// only used by the listener thread
+		private int nextEventLoop = 0;
+		
+		RequestListener(int listenerIndex, boolean reusePort) {
+			this.listenerIndex = listenerIndex;
+			
+			tftpSocket = new TFTPSocket(0, NetworkConfig.SERVER_PORT, reusePort);
+			errorHandler = new ErrorHandler(tftpSocket);
+		}
+		
+		@Override
+		public void run() {
+			listen(this);
+		}
+		
+		/**
+		 * Picks the event loop for the next connection. When there are enough event loops
+		 * every listener spreads its connections over its own event loops
+		 * 
+		 * @return event loop
+		 */
+		TFTPEventLoop nextEventLoop() {
+			int numberOfListeners = requestListeners.length;
+			if (eventLoops.length < numberOfListeners)
+				return eventLoops[listenerIndex % eventLoops.length];
+			
+			// event loops listenerIndex, listenerIndex + numberOfListeners, ... belong to this listener
+			int ownedEventLoops = (eventLoops.length - listenerIndex + numberOfListeners - 1) / numberOfListeners;
+			TFTPEventLoop eventLoop = eventLoops[listenerIndex + nextEventLoop * numberOfListeners];
+			nextEventLoop = (nextEventLoop + 1) % ownedEventLoops;
+			
+			return eventLoop;
+		}
+	}
 	
-	private HashSet<String> activeConnections;
+	private RequestListener[] requestListeners;
+	
+	// connections that are running or waiting for a free slot, keyed by client address and port
+	private SessionTable sessionTable;
+	private AtomicLong duplicateRequests;
+	
+	// limits the number of connections running at the same time
+	private SessionAdmissionController admissionController;
+	// packets sent and retransmitted by the finished connections
+	private RetransmissionStatistics retransmissionStatistics;
+	// forces the uploads that must be durable in group commits
+	private GroupCommitService groupCommitService;
+	// files that are read the most, shared by every connection, null if disabled
+	private FileContentCache fileContentCache;
+	// lookups of the requested file names, null if disabled
+	private PathLookupCache pathLookupCache;
+	// reports the changes of the directories of the remembered lookups and of the index,
+	// null if the file system cannot watch directories
+	private DirectoryWatcher directoryWatcher;
+	// attributes of the files of the destination directory, null if disabled
+	private DirectoryIndex directoryIndex;
+	
+	private ServerMode serverMode;
+	
+	// executor that runs the server threads in thread per transfer modes
+	private ExecutorService connectionExecutor;
+	// transfer sockets leased by the server threads, null if ephemeral ports are used
+	private TFTPSocketPool transferSocketPool;
+	
+	// event loops that run the connections in event loop and multiplexed modes
+	private TFTPEventLoop[] eventLoops;
+	// used for connections that are started after waiting in the pending queue
+	private AtomicInteger nextSharedEventLoop;
 	
 	public Server() {
-		tftpSocket = new TFTPSocket(0, NetworkConfig.SERVER_PORT);
-		errorHandler = new ErrorHandler(tftpSocket);
-		activeConnections = new HashSet<String>();
+		this(ServerMode.THREAD_PER_TRANSFER);
 	}
 	
+	public Server(ServerMode serverMode) {
+		this(serverMode, NetworkConfig.LISTENER_THREADS);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param serverMode      way the connections are run
+	 * @param listenerThreads number of sockets listening for requests on the server port
+	 */
+	public Server(ServerMode serverMode, int listenerThreads) {
+		this.serverMode = serverMode;
+		
+		// the sockets can only share the port if SO_REUSEPORT is set on each of them
+		requestListeners = new RequestListener[listenerThreads];
+		for (int i = 0; i < requestListeners.length; i++) {
+			requestListeners[i] = new RequestListener(i, listenerThreads > 1);
+		}
+		
+		sessionTable = new SessionTable();
+		duplicateRequests = new AtomicLong();
+		admissionController = new SessionAdmissionController(NetworkConfig.MAX_ACTIVE_SESSIONS,
+				NetworkConfig.MAX_PENDING_SESSIONS, NetworkConfig.MAX_ADMISSION_WAIT);
+		retransmissionStatistics = new RetransmissionStatistics();
+		
+		// uploads that were not published before the last server stopped cannot be finished
+		int staleUploads = FileManager.cleanStagingDirectory(FileManager.SERVER_STAGING_PREFIX);
+		if (staleUploads > 0) {
+			String[] messages = {
+					"unfinished uploads deleted",
+					String.format("deleted %d unfinished uploads from the staging directory", staleUploads)
+			};
+			UIManager.printMessage("Server", messages);
+		}
+		
+		groupCommitService = new GroupCommitService(NetworkConfig.GROUP_COMMIT_INTERVAL, NetworkConfig.GROUP_COMMIT_THREADS);
+		Thread groupCommitThread = new Thread(groupCommitService, "GroupCommitService");
+		groupCommitThread.setDaemon(true);
+		groupCommitThread.start();
+		
+		if (NetworkConfig.FILE_CACHE_SIZE > 0)
+			fileContentCache = new FileContentCache(NetworkConfig.FILE_CACHE_SIZE, NetworkConfig.FILE_CACHE_MAX_FILE_SIZE, NetworkConfig.FILE_CACHE_LOADER_THREADS);
+		
+		// one thread watches the directories of the lookups and of the index
+		if (NetworkConfig.PATH_CACHE_SIZE > 0 || NetworkConfig.DIRECTORY_INDEX) {
+			try {
+				directoryWatcher = new DirectoryWatcher();
+				
+				Thread directoryWatcherThread = new Thread(directoryWatcher, "DirectoryWatcher");
+				directoryWatcherThread.setDaemon(true);
+				directoryWatcherThread.start();
+			} catch (IOException e) {
+				UIManager.printErrorMessage("Server", "cannot watch directories, file lookups are remembered until they expire");
+			}
+		}
+		
+		if (NetworkConfig.PATH_CACHE_SIZE > 0) {
+			pathLookupCache = new PathLookupCache(NetworkConfig.PATH_CACHE_SIZE, NetworkConfig.PATH_CACHE_TTL);
+			
+			// without a watcher the lookups are only forgotten once they expire
+			if (directoryWatcher != null)
+				pathLookupCache.setDirectoryWatcher(directoryWatcher);
+		}
+		
+		if (NetworkConfig.DIRECTORY_INDEX)
+			buildDirectoryIndex();
+		
+		if (usesEventLoops()) {
+			int sharedChannels = serverMode == ServerMode.MULTIPLEXED ? NetworkConfig.MULTIPLEXED_CHANNELS : 0;
+			
+			nextSharedEventLoop = new AtomicInteger();
+			eventLoops = new TFTPEventLoop[NetworkConfig.EVENT_LOOP_THREADS];
+			for (int i = 0; i < eventLoops.length; i++) {
+				eventLoops[i] = new TFTPEventLoop(this, sharedChannels);
+				
+				Thread eventLoopThread = new Thread(eventLoops[i], "TFTPEventLoop-" + i);
+				eventLoopThread.start();
+			}
+		}
+		else if (serverMode == ServerMode.VIRTUAL_THREAD) {
+			connectionExecutor = newVirtualThreadExecutor();
+		}
+		else {
+			connectionExecutor = Executors.newCachedThreadPool();
+		}
+		
+		if (connectionExecutor != null && NetworkConfig.TRANSFER_PORT_MIN > 0) {
+			transferSocketPool = new TFTPSocketPool(NetworkConfig.TRANSFER_PORT_MIN, NetworkConfig.TRANSFER_PORT_MAX,
+					NetworkConfig.TIMEOUT_TIME, NetworkConfig.TRANSFER_SOCKET_LEASE_TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Runs the first listener on the current thread and every other listener on its own thread
+	 */
 	@Override
 	public void run() {
-		listen();
+		Thread[] listenerThreads = new Thread[requestListeners.length];
+		for (int i = 1; i < requestListeners.length; i++) {
+			listenerThreads[i] = new Thread(requestListeners[i], "RequestListener-" + i);
+			listenerThreads[i].start();
+		}
+		
+		requestListeners[0].run();
+		
+		for (int i = 1; i < listenerThreads.length; i++) {
+			try {
+				listenerThreads[i].join();
+			} catch (InterruptedException e) {
+				UIManager.printErrorMessage("Server", "cannot join listener thread");
+			}
+		}
 	}
 	
-	private void listen() {
+	/**
+	 * Receives requests on the socket of the listener and starts the connections
+	 * 
+	 * @param requestListener listener that owns the socket
+	 */
+	private void listen(RequestListener requestListener) {
+		TFTPSocket tftpSocket = requestListener.tftpSocket;
+		ErrorHandler errorHandler = requestListener.errorHandler;
+		
 		while (!tftpSocket.isClosed()) {
 			String[] messages = {
 					"waiting for packet...",
@@ -44,6 +236,10 @@ public class Server implements Runnable {
 				UIManager.printErrorMessage("Server", errorMessage);	
 				continue;
 			} catch (IOException e) {
+				// the socket is closed by the shutdown
+				if (tftpSocket.isClosed())
+					break;
+				
 				UIManager.printErrorMessage("Server", "oops... the connection broke");
 				e.printStackTrace();
 				System.exit(-1);
@@ -59,56 +255,329 @@ public class Server implements Runnable {
 			}
 			
 			
-			String clientAddress = requestPacket.getRemoteAddress().toString() + ":" + requestPacket.getRemotePort();
-			if (!activeConnections.contains(clientAddress)) {
-				TFTPPacketType packetType = requestPacket.getPacketType();
-				if (packetType == TFTPPacketType.RRQ) {
-					String[] messages1 = {
-							"RRQ request recevied.",
-							String.format("RRQ request recevied from client %s:%d", requestPacket.getRemoteAddress(), requestPacket.getRemotePort())
-					};
-					
-					UIManager.printMessage("Server", messages1);
-					
-					activeConnections.add(clientAddress);
-					
-					// create a server thread for handling read requests
-					RRQServerThread rrqServerThread = new RRQServerThread(this, requestPacket);
-					rrqServerThread.start();
-				}
-				else if (packetType == TFTPPacketType.WRQ) {
-					String[] messages1 = {
-							"WRQ request recevied.",
-							String.format("RRQ request recevied from client %s:%d", requestPacket.getRemoteAddress(), requestPacket.getRemotePort())
-					};
-					
-					UIManager.printMessage("Server", messages1);
-					
-					activeConnections.add(clientAddress);
-					
-					// create a server thread for handling write requests
-					WRQServerThread wrqServerThread = new WRQServerThread(this, requestPacket);
-					wrqServerThread.start();
-				}
-				else {
-					UIManager.printErrorMessage("Server", "invalid request packet");
-					errorHandler.sendIllegalOperationErrorPacket("cannot parse TFTP packet", requestPacket.getRemoteAddress(), requestPacket.getRemotePort());
-				}
+			InetAddress clientAddress = requestPacket.getRemoteAddress();
+			int clientPort = requestPacket.getRemotePort();
+			
+			TFTPPacketType packetType = requestPacket.getPacketType();
+			// only requests are duplicates, other packets are invalid on the server port
+			// whether or not the client has a connection
+			if (packetType != TFTPPacketType.RRQ && packetType != TFTPPacketType.WRQ) {
+				UIManager.printErrorMessage("Server", "invalid request packet");
+				errorHandler.sendIllegalOperationErrorPacket("cannot parse TFTP packet", clientAddress, clientPort);
+				continue;
+			}
+			
+			// reserve the client entry, fails if the client already has a connection
+			if (!sessionTable.reserve(clientAddress, clientPort)) {
+				duplicateRequestReceived(requestPacket);
+				continue;
+			}
+			
+			if (packetType == TFTPPacketType.RRQ) {
+				String[] messages1 = {
+						"RRQ request recevied.",
+						String.format("RRQ request recevied from client %s:%d", clientAddress, clientPort)
+				};
+				
+				UIManager.printMessage("Server", messages1);
 			}
 			else {
-				UIManager.printErrorMessage("Server", "duplicate request packet recieved. connection already in use");
+				String[] messages1 = {
+						"WRQ request recevied.",
+						String.format("WRQ request recevied from client %s:%d", clientAddress, clientPort)
+				};
+				
+				UIManager.printMessage("Server", messages1);
 			}
+			
+			admitConnection(requestPacket, requestListener);
 		}
 		
 		tftpSocket.close();
 	}
 	
-	public synchronized void removeConnection(String clientAddress) {
-		if (activeConnections.contains(clientAddress)) {
-			activeConnections.remove(clientAddress);
+	/**
+	 * Hands a request from a client that already has a connection to that connection
+	 * 
+	 * @param requestPacket request packet received from the client
+	 */
+	private void duplicateRequestReceived(TFTPPacket requestPacket) {
+		duplicateRequests.incrementAndGet();
+		UIManager.printErrorMessage("Server", "duplicate request packet recieved. connection already in use");
+		
+		// requests that are still waiting in the pending queue have no connection yet
+		ServerSession session = sessionTable.get(requestPacket.getRemoteAddress(), requestPacket.getRemotePort());
+		if (session != null) {
+			session.duplicateRequestReceived(requestPacket);
+		}
+	}
+	
+	/**
+	 * Starts the connection if the server is not saturated, otherwise the request is queued
+	 * or rejected with an ERROR packet
+	 * 
+	 * @param requestPacket   request packet received from the client
+	 * @param requestListener listener that received the request
+	 */
+	private void admitConnection(TFTPPacket requestPacket, RequestListener requestListener) {
+		SessionAdmissionController.Admission admission = admissionController.admit(requestPacket);
+		
+		if (admission == SessionAdmissionController.Admission.REJECTED) {
+			UIManager.printErrorMessage("Server", String.format("server busy. request from %s:%d rejected", 
+					requestPacket.getRemoteAddress(), requestPacket.getRemotePort()));
+			requestListener.errorHandler.sendNotDefinedErrorPacket("server busy, try again later", requestPacket.getRemoteAddress(), requestPacket.getRemotePort());
+			sessionTable.remove(requestPacket.getRemoteAddress(), requestPacket.getRemotePort());
+			return;
+		}
+		
+		// queued requests keep their table entry so that retransmitted requests are treated as duplicates
+		if (admission == SessionAdmissionController.Admission.STARTED) {
+			startConnection(requestPacket, requestListener);
+		}
+		else {
+			String[] messages = {
+					"",
+					String.format("server busy. request from %s:%d queued", requestPacket.getRemoteAddress(), requestPacket.getRemotePort())
+			};
+			UIManager.printMessage("Server", messages);
+		}
+	}
+	
+	/**
+	 * Starts handling a RRQ or WRQ connection depending on the server mode
+	 * 
+	 * @param requestPacket   request packet received from the client
+	 * @param requestListener listener that received the request or null if the request
+	 *                        waited in the pending queue
+	 */
+	private void startConnection(TFTPPacket requestPacket, RequestListener requestListener) {
+		boolean readRequest = requestPacket.getPacketType() == TFTPPacketType.RRQ;
+		
+		if (usesEventLoops()) {
+			// spread the connections over the event loops
+			// connections taken out of the pending queue are started by other threads
+			TFTPEventLoop eventLoop = null;
+			if (requestListener != null)
+				eventLoop = requestListener.nextEventLoop();
+			else
+				eventLoop = eventLoops[Math.floorMod(nextSharedEventLoop.getAndIncrement(), eventLoops.length)];
+			
+			// in multiplexed mode the connection sends from a shared channel of its event loop
+			TFTPSocket sharedSocket = eventLoop.nextSharedSocket();
+			
+			TFTPSession session = null;
+			try {
+				if (readRequest)
+					session = new RRQSession(this, requestPacket, sharedSocket);
+				else
+					session = new WRQSession(this, requestPacket, sharedSocket);
+			} catch (IOException e) {
+				UIManager.printErrorMessage("Server", "cannot open datagram channel for new connection");
+				removeConnection(requestPacket.getRemoteAddress(), requestPacket.getRemotePort());
+				return;
+			}
+			
+			sessionTable.attach(session);
+			eventLoop.register(session);
+		}
+		else if (readRequest) {
+			// create a server thread for handling read requests
+			RRQServerThread rrqServerThread = new RRQServerThread(this, requestPacket);
+			sessionTable.attach(rrqServerThread);
+			connectionExecutor.execute(rrqServerThread);
+		}
+		else {
+			// create a server thread for handling write requests
+			WRQServerThread wrqServerThread = new WRQServerThread(this, requestPacket);
+			sessionTable.attach(wrqServerThread);
+			connectionExecutor.execute(wrqServerThread);
+		}
+	}
+	
+	/**
+	 * Returns an executor that starts a virtual thread for every connection.
+	 * Virtual threads are only available on Java 21 and newer, older virtual machines
+	 * fall back to platform threads
+	 * 
+	 * @return executor service
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			UIManager.printErrorMessage("Server", "virtual threads are not supported by this JVM, using platform threads");
+			return Executors.newCachedThreadPool();
 		}
 	}
 	
+	/**
+	 * @return service that forces the uploads that must be durable in group commits
+	 */
+	public GroupCommitService getGroupCommitService() {
+		return groupCommitService;
+	}
+	
+	/**
+	 * @return cache of the files that are read the most, or null if it is disabled
+	 */
+	public FileContentCache getFileContentCache() {
+		return fileContentCache;
+	}
+	
+	/**
+	 * Scans the destination directory, the server checks the files on the disk
+	 * if the index cannot be kept current
+	 */
+	private void buildDirectoryIndex() {
+		// an index that is not kept current would serve files that no longer exist
+		if (directoryWatcher == null) {
+			UIManager.printErrorMessage("Server", "cannot index the destination directory, files are checked on the disk");
+			return;
+		}
+		
+		DirectoryIndex index = new DirectoryIndex(FileManager.getDestinationDirectory(),
+				Collections.singleton(FileManager.getStagingDirectoryName()));
+		
+		try {
+			index.setDirectoryWatcher(directoryWatcher);
+			index.build();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("Server", "cannot index the destination directory, files are checked on the disk");
+			return;
+		}
+		
+		directoryIndex = index;
+		
+		String[] messages = {
+				"destination directory indexed",
+				directoryIndex.getStatistics()[0]
+		};
+		UIManager.printMessage("Server", messages);
+	}
+	
+	/**
+	 * @return index of the files of the destination directory, or null if it is disabled
+	 */
+	public DirectoryIndex getDirectoryIndex() {
+		return directoryIndex;
+	}
+	
+	/**
+	 * @return cache of the lookups of the requested file names, or null if it is disabled
+	 */
+	public PathLookupCache getPathLookupCache() {
+		return pathLookupCache;
+	}
+	
+	/**
+	 * Returns a socket for a server thread to use as its transfer ID
+	 * 
+	 * @return socket from the pool or a new socket on an ephemeral port
+	 */
+	public TFTPSocket leaseTransferSocket() {
+		if (transferSocketPool == null)
+			return new TFTPSocket(NetworkConfig.TIMEOUT_TIME);
+		
+		return transferSocketPool.lease();
+	}
+	
+	/**
+	 * Gives back the socket of a finished server thread
+	 * 
+	 * @param tftpSocket socket returned by leaseTransferSocket
+	 */
+	public void releaseTransferSocket(TFTPSocket tftpSocket) {
+		if (transferSocketPool == null) {
+			tftpSocket.close();
+			return;
+		}
+		
+		transferSocketPool.release(tftpSocket);
+	}
+	
+	/**
+	 * Removes a finished connection, called by the connection itself
+	 * 
+	 * @param clientAddress client address
+	 * @param clientPort    client port
+	 */
+	public void removeConnection(InetAddress clientAddress, int clientPort) {
+		sessionTable.remove(clientAddress, clientPort);
+		
+		// hand the connection slot over to the next waiting request
+		ArrayList<TFTPPacket> expiredRequests = new ArrayList<TFTPPacket>();
+		TFTPPacket nextRequestPacket = admissionController.release(expiredRequests);
+		
+		for (TFTPPacket expiredRequest : expiredRequests) {
+			sessionTable.remove(expiredRequest.getRemoteAddress(), expiredRequest.getRemotePort());
+		}
+		
+		if (nextRequestPacket != null && !requestListeners[0].tftpSocket.isClosed()) {
+			startConnection(nextRequestPacket, null);
+		}
+	}
+	
+	/**
+	 * Records the packets sent by a finished connection, called by the connection itself
+	 * 
+	 * @param clientAddress client address
+	 * @param clientPort    client port
+	 * @param packetHandler packet handler of the connection, null if the connection 
+	 *                      ended before sending anything
+	 */
+	public void recordRetransmissions(InetAddress clientAddress, int clientPort, PacketHandler packetHandler) {
+		if (packetHandler == null)
+			return;
+		
+		packetHandler.addTo(retransmissionStatistics);
+		
+		String[] messages = {
+				"",
+				String.format("connection with client %s:%d %s", clientAddress, clientPort, packetHandler.getRetransmissionSummary())
+		};
+		UIManager.printMessage("Server", messages);
+	}
+	
+	/**
+	 * Prints the server counters
+	 */
+	public void printStatistics() {
+		UIManager.printStatistics("Server", admissionController.getStatistics());
+		UIManager.printStatistics("Server", retransmissionStatistics.getStatistics());
+		UIManager.printStatistics("Server", groupCommitService.getStatistics());
+		if (fileContentCache != null)
+			UIManager.printStatistics("Server", fileContentCache.getStatistics());
+		if (pathLookupCache != null)
+			UIManager.printStatistics("Server", pathLookupCache.getStatistics());
+		if (directoryIndex != null)
+			UIManager.printStatistics("Server", directoryIndex.getStatistics());
+		
+		String[] statistics = {
+				String.format("session table entries: %d", sessionTable.size()),
+				String.format("duplicate requests: %d total, %d for running connections", 
+						duplicateRequests.get(), sessionTable.getDuplicateRequests())
+		};
+		UIManager.printStatistics("Server", statistics);
+		
+		if (transferSocketPool != null) {
+			UIManager.printStatistics("Server", transferSocketPool.getStatistics());
+		}
+		
+		if (eventLoops != null) {
+			for (TFTPEventLoop eventLoop : eventLoops) {
+				UIManager.printStatistics("Server", eventLoop.getStatistics());
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the connections are run by event loops instead of server threads
+	 */
+	private boolean usesEventLoops() {
+		return serverMode == ServerMode.EVENT_LOOP || serverMode == ServerMode.MULTIPLEXED;
+	}
+	
 	public void shutdown() {
 		String[] messages1 = {
 				"shutting down...",
@@ -126,27 +595,38 @@ public class Server implements Runnable {
 			System.exit(-1);
 		}
 		
-		if (!tftpSocket.isClosed()) {
-			// temporary socket is created to send a decoy package to the server so that it can stop listening
-			// therefore once it re-evaluates that the boolean online is false it will exit
-			try {
-				DatagramSocket shutdownClient = new DatagramSocket();
-				shutdownClient.send(new DatagramPacket(new byte[0], 0, InetAddress.getLocalHost(), NetworkConfig.SERVER_PORT));
-				shutdownClient.close();
-			} catch (UnknownHostException e) {
-				UIManager.printErrorMessage("Server", "cannot find localhost address.");
-				e.printStackTrace();
-				System.exit(-1);
-			} catch (IOException e) {
-				UIManager.printErrorMessage("Server", "cannot send packet to server.");
-				e.printStackTrace();
-				System.exit(-1);
+		// closing the sockets makes the listeners stop listening
+		// a decoy packet would only reach one of the sockets that share the port
+		for (RequestListener requestListener : requestListeners) {
+			requestListener.tftpSocket.close();
+		}
+		
+		if (eventLoops != null) {
+			for (TFTPEventLoop eventLoop : eventLoops) {
+				eventLoop.shutdown();
 			}
 		}
+		
+		// connections that are still running are allowed to finish
+		if (connectionExecutor != null) {
+			connectionExecutor.shutdown();
+		}
+		
+		if (transferSocketPool != null) {
+			transferSocketPool.close();
+		}
+		
+		groupCommitService.shutdown();
+		
+		if (fileContentCache != null)
+			fileContentCache.shutdown();
+		
+		if (directoryWatcher != null)
+			directoryWatcher.close();
 
 		String[] messages2 = {
 				"goodbye",
-				String.format("server is shutdown. Port %d released.", tftpSocket.getPort())
+				String.format("server is shutdown. Port %d released.", NetworkConfig.SERVER_PORT)
 		};
 		
 		UIManager.printMessage("Server", messages2);
@@ -168,8 +648,10 @@ public class Server implements Runnable {
 		
 		Server server = null;
 		if (selection == 1) {
+			ServerMode serverMode = UIManager.promptForServerMode();
+			
 			// create server a thread for it listen on
-			server = new Server();
+			server = new Server(serverMode);
 			serverThread = new Thread(server);
 			serverThread.start();
 		}
@@ -183,7 +665,10 @@ public class Server implements Runnable {
 		while (!quitCommand.equals("quit")) {
 			quitCommand = UIManager.promptForQuit();
 			
-			if (quitCommand.equals("quit")) {
+			if (quitCommand.equals("stats")) {
+				server.printStatistics();
+			}
+			else if (quitCommand.equals("quit")) {
 				server.shutdown();
 				try {
 					serverThread.join(1000);
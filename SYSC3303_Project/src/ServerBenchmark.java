@@ -0,0 +1,209 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class compares the server modes under concurrent load.
+ * Many clients read the same file from the server at the same time and the
+ * elapsed time, the throughput and the peak number of JVM threads are reported
+ * for each server mode.
+ *
+ * Usage: ServerBenchmark [clients] [file size in bytes] [server modes...]
+ *        ServerBenchmark listeners [clients] [file size in bytes] [server mode]
+ *
+ * The second form runs the server with 1, 2, 4, ... listener sockets sharing the
+ * server port, up to the number of processors
+ *
+ * @author Group 8
+ */
+public class ServerBenchmark {
+	private static final String BENCHMARK_FILE_NAME = "benchmark.bin";
+
+	private int numberOfClients;
+	private int fileSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param numberOfClients number of clients that read the file concurrently
+	 * @param fileSize        size of the file that is read by the clients
+	 */
+	public ServerBenchmark(int numberOfClients, int fileSize) {
+		this.numberOfClients = numberOfClients;
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Runs the benchmark against a server running in the given mode
+	 *
+	 * @param serverMode server mode to benchmark
+	 */
+	public void run(ServerMode serverMode) throws InterruptedException {
+		run(serverMode, NetworkConfig.LISTENER_THREADS);
+	}
+
+	/**
+	 * Runs the benchmark against a server running in the given mode
+	 *
+	 * @param serverMode      server mode to benchmark
+	 * @param listenerThreads number of sockets listening on the server port
+	 */
+	public void run(ServerMode serverMode, int listenerThreads) throws InterruptedException {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		int baselineThreads = threadBean.getThreadCount();
+		threadBean.resetPeakThreadCount();
+
+		Server server = new Server(serverMode, listenerThreads);
+		Thread serverThread = new Thread(server);
+		serverThread.start();
+
+		CountDownLatch startSignal = new CountDownLatch(1);
+		CountDownLatch doneSignal = new CountDownLatch(numberOfClients);
+		AtomicInteger failedTransfers = new AtomicInteger();
+
+		for (int i = 0; i < numberOfClients; i++) {
+			Thread clientThread = new Thread(() -> {
+				try {
+					startSignal.await();
+					if (!readFile())
+						failedTransfers.incrementAndGet();
+				} catch (InterruptedException e) {
+					failedTransfers.incrementAndGet();
+				}
+
+				doneSignal.countDown();
+			});
+			clientThread.start();
+		}
+
+		long startTime = System.nanoTime();
+		startSignal.countDown();
+		doneSignal.await();
+		long elapsedTime = System.nanoTime() - startTime;
+
+		// the client threads are counted in the peak, they are the same for every mode
+		int peakServerThreads = threadBean.getPeakThreadCount() - baselineThreads - numberOfClients;
+
+		server.shutdown();
+		serverThread.join();
+
+		double seconds = elapsedTime / 1e9;
+		double megaBytes = (double) fileSize * (numberOfClients - failedTransfers.get()) / (1024 * 1024);
+
+		System.out.println(String.format("%-20s listeners: %3d  clients: %6d  failed: %4d  time: %8.3f s  throughput: %8.2f MB/s  transfers: %8.1f/s  peak server threads: %d",
+				serverMode, listenerThreads, numberOfClients, failedTransfers.get(), seconds, megaBytes / seconds,
+				(numberOfClients - failedTransfers.get()) / seconds, peakServerThreads));
+	}
+
+	/**
+	 * Reads the benchmark file from the server without saving it
+	 *
+	 * @return true if the whole file was received
+	 */
+	private boolean readFile() {
+		TFTPSocket tftpSocket = new TFTPSocket(NetworkConfig.TIMEOUT_TIME);
+		ErrorHandler errorHandler = new ErrorHandler(tftpSocket);
+
+		InetAddress serverAddress = InetAddress.getLoopbackAddress();
+		PacketHandler packetHandler = new PacketHandler(tftpSocket, errorHandler, serverAddress, NetworkConfig.SERVER_PORT);
+
+		RRQWRQPacket requestPacket = TFTPPacketBuilder.getRRQWRQDatagramPacket(TFTPPacketType.RRQ, BENCHMARK_FILE_NAME, "octet",
+				serverAddress, NetworkConfig.SERVER_PORT);
+		packetHandler.sendReadWriteRequest(requestPacket);
+
+		int bytesReceived = 0;
+		short expectedBlockNumber = 1;
+		int dataLenReceived = NetworkConfig.DATAGRAM_PACKET_MAX_LEN;
+		while (dataLenReceived == NetworkConfig.DATAGRAM_PACKET_MAX_LEN) {
+			DATAPacket dataPacket = null;
+			if (bytesReceived == 0)
+				dataPacket = packetHandler.receiveDATAPacket(expectedBlockNumber, requestPacket);
+			else
+				dataPacket = packetHandler.receiveDATAPacket(expectedBlockNumber);
+
+			if (dataPacket == null)
+				break;
+
+			bytesReceived += dataPacket.getDataBytes().length;
+			dataLenReceived = dataPacket.getPacketLength();
+			expectedBlockNumber++;
+
+			packetHandler.sendACKPacket(dataPacket.getBlockNumber());
+		}
+
+		tftpSocket.close();
+
+		return bytesReceived == fileSize;
+	}
+
+	/**
+	 * Creates the file that is read by the clients in the working directory
+	 */
+	private void createBenchmarkFile() throws IOException {
+		byte[] fileData = new byte[fileSize];
+		new Random().nextBytes(fileData);
+
+		FileOutputStream fileOutputStream = new FileOutputStream(BENCHMARK_FILE_NAME);
+		fileOutputStream.write(fileData);
+		fileOutputStream.close();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("listeners")) {
+			runListenerScaling(args);
+			return;
+		}
+
+		int numberOfClients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+
+		ServerMode[] serverModes = { ServerMode.THREAD_PER_TRANSFER, ServerMode.VIRTUAL_THREAD };
+		if (args.length > 2) {
+			serverModes = new ServerMode[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				serverModes[i - 2] = ServerMode.valueOf(args[i]);
+			}
+		}
+
+		UIManager.setSilentMode(true);
+
+		ServerBenchmark benchmark = new ServerBenchmark(numberOfClients, fileSize);
+		benchmark.createBenchmarkFile();
+
+		for (ServerMode serverMode : serverModes) {
+			benchmark.run(serverMode);
+
+			// give the operating system time to release the server port
+			Thread.sleep(1000);
+		}
+	}
+
+	/**
+	 * Runs the benchmark with an increasing number of listener sockets
+	 *
+	 * @param args command line arguments, the first one is "listeners"
+	 */
+	private static void runListenerScaling(String[] args) throws IOException, InterruptedException {
+		int numberOfClients = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int fileSize = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		ServerMode serverMode = args.length > 3 ? ServerMode.valueOf(args[3]) : ServerMode.EVENT_LOOP;
+
+		UIManager.setSilentMode(true);
+
+		ServerBenchmark benchmark = new ServerBenchmark(numberOfClients, fileSize);
+		benchmark.createBenchmarkFile();
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int listenerThreads = 1; listenerThreads <= processors; listenerThreads *= 2) {
+			benchmark.run(serverMode, listenerThreads);
+
+			// give the operating system time to release the server port
+			Thread.sleep(1000);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+/**
+ * Ways the server can run the connections it accepts
+ * 
+ * @author Group 8
+ *
+ */
+public enum ServerMode {
+	// every RRQ/WRQ connection gets its own platform server thread
+	THREAD_PER_TRANSFER,
+	// every RRQ/WRQ connection gets its own virtual server thread
+	VIRTUAL_THREAD,
+	// RRQ/WRQ connections are state machines driven by a few event loop threads
+	EVENT_LOOP,
+	// like EVENT_LOOP, but the connections share a few channels of their event loop
+	// instead of opening one channel each
+	MULTIPLEXED
+}
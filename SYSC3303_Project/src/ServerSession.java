@@ -0,0 +1,39 @@
+import java.net.InetAddress;
+
+/**
+ * This interface represents a RRQ or WRQ connection that is running on the server,
+ * no matter whether it runs on its own thread or on an event loop
+ * 
+ * @author Group 8
+ *
+ */
+public interface ServerSession {
+	/**
+	 * Returns the address of the client
+	 * 
+	 * @return client address
+	 */
+	public InetAddress getRemoteAddress();
+	
+	/**
+	 * Returns the port of the client
+	 * 
+	 * @return client port
+	 */
+	public int getRemotePort();
+	
+	/**
+	 * Called by the server when the client sends its request again while the
+	 * connection is running. Called on the server thread
+	 * 
+	 * @param requestPacket duplicate request packet
+	 */
+	public void duplicateRequestReceived(TFTPPacket requestPacket);
+	
+	/**
+	 * Returns the number of duplicate requests received for this connection
+	 * 
+	 * @return number of duplicate requests
+	 */
+	public int getDuplicateRequests();
+}
@@ -0,0 +1,156 @@
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * This class limits the number of connections the server runs at the same time.
+ * Requests that arrive while the server is saturated wait in a bounded queue,
+ * once the queue is full the request is rejected so that the server can answer
+ * with an ERROR packet instead of creating more connections
+ *
+ * @author Group 8
+ */
+public class SessionAdmissionController {
+	/**
+	 * Result of asking for a connection slot
+	 */
+	public enum Admission {
+		// a slot is free, the connection can start right away
+		STARTED,
+		// the request waits in the pending queue for a free slot
+		QUEUED,
+		// the pending queue is full, the request must be rejected
+		REJECTED
+	}
+
+	/**
+	 * Request waiting in the pending queue
+	 */
+	private class PendingRequest {
+		TFTPPacket requestPacket;
+		long queuedTime;
+	}
+
+	private int maxActiveSessions;
+	private int maxPendingRequests;
+	// requests that waited longer than this have been given up by the client
+	private long maxAdmissionWait;
+
+	private int activeSessions = 0;
+	private ArrayDeque<PendingRequest> pendingRequests;
+
+	// counters
+	private long admittedRequests = 0;
+	private long queuedRequests = 0;
+	private long rejectedRequests = 0;
+	private long expiredRequests = 0;
+	private long totalAdmissionWait = 0;
+	private long maxObservedAdmissionWait = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxActiveSessions  maximum number of connections running at the same time
+	 * @param maxPendingRequests maximum number of requests waiting for a free slot
+	 * @param maxAdmissionWait   time in milli seconds after which a waiting request is dropped
+	 */
+	public SessionAdmissionController(int maxActiveSessions, int maxPendingRequests, long maxAdmissionWait) {
+		this.maxActiveSessions = maxActiveSessions;
+		this.maxPendingRequests = maxPendingRequests;
+		this.maxAdmissionWait = maxAdmissionWait * 1000000L;
+
+		pendingRequests = new ArrayDeque<PendingRequest>();
+	}
+
+	/**
+	 * Asks for a connection slot for a new request
+	 *
+	 * @param requestPacket RRQ or WRQ packet received from the client
+	 * @return whether the connection can start, is queued or is rejected
+	 */
+	public synchronized Admission admit(TFTPPacket requestPacket) {
+		if (activeSessions < maxActiveSessions) {
+			activeSessions++;
+			admittedRequests++;
+			return Admission.STARTED;
+		}
+
+		if (pendingRequests.size() < maxPendingRequests) {
+			PendingRequest pendingRequest = new PendingRequest();
+			pendingRequest.requestPacket = requestPacket;
+			pendingRequest.queuedTime = System.nanoTime();
+
+			pendingRequests.add(pendingRequest);
+			queuedRequests++;
+			return Admission.QUEUED;
+		}
+
+		rejectedRequests++;
+		return Admission.REJECTED;
+	}
+
+	/**
+	 * Releases the slot of a finished connection. If a request is waiting then
+	 * the slot is handed over to it
+	 *
+	 * @param expiredRequests list that receives the requests that waited too long,
+	 *                        their clients have already given up
+	 * @return request that takes over the slot or null if no request is waiting
+	 */
+	public synchronized TFTPPacket release(List<TFTPPacket> expiredRequests) {
+		long now = System.nanoTime();
+
+		PendingRequest pendingRequest;
+		while ((pendingRequest = pendingRequests.poll()) != null) {
+			long admissionWait = now - pendingRequest.queuedTime;
+
+			if (admissionWait > maxAdmissionWait) {
+				this.expiredRequests++;
+				expiredRequests.add(pendingRequest.requestPacket);
+				continue;
+			}
+
+			admittedRequests++;
+			totalAdmissionWait += admissionWait;
+			maxObservedAdmissionWait = Math.max(maxObservedAdmissionWait, admissionWait);
+
+			// the slot is handed over, the number of active sessions stays the same
+			return pendingRequest.requestPacket;
+		}
+
+		activeSessions--;
+		return null;
+	}
+
+	public synchronized int getActiveSessions() {
+		return activeSessions;
+	}
+
+	public synchronized int getQueueDepth() {
+		return pendingRequests.size();
+	}
+
+	public synchronized long getRejectedRequests() {
+		return rejectedRequests;
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public synchronized String[] getStatistics() {
+		long queuedAdmissions = queuedRequests - expiredRequests - pendingRequests.size();
+		double averageAdmissionWait = queuedAdmissions > 0 ? totalAdmissionWait / 1e6 / queuedAdmissions : 0;
+
+		String[] statistics = {
+				String.format("active sessions: %d/%d", activeSessions, maxActiveSessions),
+				String.format("queue depth: %d/%d", pendingRequests.size(), maxPendingRequests),
+				String.format("admitted: %d, queued: %d, rejected: %d, expired in queue: %d",
+						admittedRequests, queuedRequests, rejectedRequests, expiredRequests),
+				String.format("admission wait: average %.2f ms, max %.2f ms",
+						averageAdmissionWait, maxObservedAdmissionWait / 1e6)
+		};
+
+		return statistics;
+	}
+}
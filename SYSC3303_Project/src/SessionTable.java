@@ -0,0 +1,283 @@
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * This class keeps track of the connections that are running on the server.
+ *
+ * Connections are keyed by a packed 64 bit value built from the client address and port,
+ * so looking up a connection for every incoming request does not build strings or
+ * allocate objects. An IPv4 address and port fit in the key exactly, an IPv6 address
+ * is folded into the key and is compared in full on lookup.
+ *
+ * The table is split in segments with their own lock so that connections can be
+ * added and removed by many threads at the same time
+ *
+ * @author Group 8
+ */
+public class SessionTable {
+	private static final int NUMBER_OF_SEGMENTS = 64;
+	private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+	/**
+	 * Table entry. An entry without a session is reserved for a request that
+	 * was accepted but has not started yet
+	 */
+	private static class Entry {
+		final long key;
+		final InetAddress address;
+		final int port;
+		volatile ServerSession session;
+		Entry next;
+
+		Entry(long key, InetAddress address, int port, Entry next) {
+			this.key = key;
+			this.address = address;
+			this.port = port;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Chained hash table guarded by its own lock
+	 */
+	private static class Segment {
+		private Entry[] buckets = new Entry[INITIAL_SEGMENT_CAPACITY];
+		private int size = 0;
+
+		synchronized Entry get(long key, InetAddress address, int port) {
+			Entry entry = buckets[indexFor(key, buckets.length)];
+			while (entry != null) {
+				if (entry.key == key && entry.port == port && entry.address.equals(address))
+					return entry;
+
+				entry = entry.next;
+			}
+
+			return null;
+		}
+
+		synchronized boolean putIfAbsent(long key, InetAddress address, int port) {
+			if (get(key, address, port) != null)
+				return false;
+
+			if (size >= buckets.length * 3 / 4)
+				resize();
+
+			int index = indexFor(key, buckets.length);
+			buckets[index] = new Entry(key, address, port, buckets[index]);
+			size++;
+
+			return true;
+		}
+
+		synchronized boolean remove(long key, InetAddress address, int port) {
+			int index = indexFor(key, buckets.length);
+
+			Entry previous = null;
+			Entry entry = buckets[index];
+			while (entry != null) {
+				if (entry.key == key && entry.port == port && entry.address.equals(address)) {
+					if (previous == null)
+						buckets[index] = entry.next;
+					else
+						previous.next = entry.next;
+
+					size--;
+					return true;
+				}
+
+				previous = entry;
+				entry = entry.next;
+			}
+
+			return false;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized int sumDuplicateRequests() {
+			int duplicateRequests = 0;
+			for (Entry entry : buckets) {
+				for (; entry != null; entry = entry.next) {
+					ServerSession session = entry.session;
+					if (session != null)
+						duplicateRequests += session.getDuplicateRequests();
+				}
+			}
+
+			return duplicateRequests;
+		}
+
+		private void resize() {
+			Entry[] newBuckets = new Entry[buckets.length * 2];
+
+			for (Entry entry : buckets) {
+				while (entry != null) {
+					Entry next = entry.next;
+					int index = indexFor(entry.key, newBuckets.length);
+					entry.next = newBuckets[index];
+					newBuckets[index] = entry;
+					entry = next;
+				}
+			}
+
+			buckets = newBuckets;
+		}
+	}
+
+	private Segment[] segments;
+
+	public SessionTable() {
+		segments = new Segment[NUMBER_OF_SEGMENTS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Packs a client address and port into a 64 bit key
+	 *
+	 * @param address client address
+	 * @param port    client port
+	 * @return key
+	 */
+	public static long key(InetAddress address, int port) {
+		// the hash code of an IPv4 address is the address itself
+		// for IPv6 addresses it is a fold of the 128 bit address
+		long addressBits = address.hashCode() & 0xFFFFFFFFL;
+
+		// IPv6 keys are tagged so that they never collide with IPv4 keys
+		if (!(address instanceof Inet4Address))
+			addressBits |= 1L << 32;
+
+		return (addressBits << 16) | (port & 0xFFFF);
+	}
+
+	/**
+	 * Reserves the table entry for a new request
+	 *
+	 * @param address client address
+	 * @param port    client port
+	 * @return true if the entry was reserved, false if the client already has a connection
+	 */
+	public boolean reserve(InetAddress address, int port) {
+		long key = key(address, port);
+		return segmentFor(key).putIfAbsent(key, address, port);
+	}
+
+	/**
+	 * Attaches the running connection to its reserved entry
+	 *
+	 * @param session connection that started
+	 */
+	public void attach(ServerSession session) {
+		long key = key(session.getRemoteAddress(), session.getRemotePort());
+
+		Entry entry = segmentFor(key).get(key, session.getRemoteAddress(), session.getRemotePort());
+		if (entry != null)
+			entry.session = session;
+	}
+
+	/**
+	 * Returns whether the client has a running or waiting connection
+	 *
+	 * @param address client address
+	 * @param port    client port
+	 * @return true if an entry exists
+	 */
+	public boolean contains(InetAddress address, int port) {
+		long key = key(address, port);
+		return segmentFor(key).get(key, address, port) != null;
+	}
+
+	/**
+	 * Returns the running connection of the client
+	 *
+	 * @param address client address
+	 * @param port    client port
+	 * @return the connection or null if there is no connection or it has not started yet
+	 */
+	public ServerSession get(InetAddress address, int port) {
+		long key = key(address, port);
+
+		Entry entry = segmentFor(key).get(key, address, port);
+		if (entry == null)
+			return null;
+
+		return entry.session;
+	}
+
+	/**
+	 * Removes the entry of the client
+	 *
+	 * @param address client address
+	 * @param port    client port
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(InetAddress address, int port) {
+		long key = key(address, port);
+		return segmentFor(key).remove(key, address, port);
+	}
+
+	/**
+	 * Returns the number of running and waiting connections
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the number of duplicate requests received by the running connections
+	 *
+	 * @return number of duplicate requests
+	 */
+	public int getDuplicateRequests() {
+		int duplicateRequests = 0;
+		for (Segment segment : segments) {
+			duplicateRequests += segment.sumDuplicateRequests();
+		}
+
+		return duplicateRequests;
+	}
+
+	/**
+	 * Picks the segment from the highest bits of the spread key
+	 *
+	 * @param key packed key
+	 * @return segment
+	 */
+	private Segment segmentFor(long key) {
+		return segments[(int) (spread(key) >>> 58) & (NUMBER_OF_SEGMENTS - 1)];
+	}
+
+	/**
+	 * Picks the bucket from the lower bits of the spread key, these are not used
+	 * for picking the segment so the entries of a segment use all of its buckets
+	 *
+	 * @param key    packed key
+	 * @param length power of two array length
+	 * @return index
+	 */
+	private static int indexFor(long key, int length) {
+		return (int) (spread(key) >>> 16) & (length - 1);
+	}
+
+	/**
+	 * Mixes the key bits so that neighbouring ports and addresses are spread out
+	 *
+	 * @param key packed key
+	 * @return mixed key
+	 */
+	private static long spread(long key) {
+		return key * 0x9E3779B97F4A7C15L;
+	}
+}
@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs many RRQ and WRQ sessions on a single thread.
+ * Every session channel is registered with one selector, received packets
+ * and expired retransmission timers are dispatched to the session state machines.
+ * The retransmission timers of all sessions are kept in one timing wheel, so the
+ * event loop never has to look at sessions that are waiting.
+ *
+ * In multiplexed mode the sessions do not have their own channel, they share a few
+ * channels owned by the event loop. Packets received on a shared channel are routed
+ * to the session of the client that sent them, packets of unknown clients are answered
+ * with an ERROR packet
+ *
+ * @author Group 8
+ */
+public class TFTPEventLoop implements Runnable {
+	private Server server;
+	private Selector selector;
+
+	// tasks submitted from other threads, executed on the event loop thread
+	private ConcurrentLinkedQueue<Runnable> pendingTasks;
+
+	private HashSet<TFTPSession> sessions;
+	// retransmission timers of the sessions
+	private TimingWheel timingWheel;
+
+	// channels shared by the multiplexed sessions, empty if every session has its own channel
+	private TFTPSocket[] sharedSockets;
+	private AtomicInteger nextSharedSocket;
+	// routes the packets received on the shared channels to the sessions
+	private SessionTable multiplexedSessions;
+
+	private ByteBuffer receiveBuffer;
+
+	private volatile boolean running = true;
+
+	// counters, only used by the event loop thread
+	private long wakeups = 0;
+	private long receivedDatagrams = 0;
+	private long unknownSourceDatagrams = 0;
+
+	/**
+	 * Constructor, every session registered with the event loop brings its own channel
+	 *
+	 * @param server server that owns the event loop
+	 */
+	public TFTPEventLoop(Server server) {
+		this(server, 0);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server         server that owns the event loop
+	 * @param sharedChannels number of channels shared by the multiplexed sessions
+	 */
+	public TFTPEventLoop(Server server, int sharedChannels) {
+		this.server = server;
+
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("TFTPEventLoop", "cannot open selector");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+		sessions = new HashSet<TFTPSession>();
+		timingWheel = new TimingWheel(NetworkConfig.TIMER_TICK, NetworkConfig.TIMER_WHEEL_SIZE);
+		// shared by all sessions, large enough for the largest block size the server accepts
+		receiveBuffer = ByteBuffer.allocate(TFTPOptions.DATA_HEADER_LENGTH + NetworkConfig.MAX_BLOCK_SIZE);
+
+		sharedSockets = new TFTPSocket[sharedChannels];
+		nextSharedSocket = new AtomicInteger();
+		multiplexedSessions = new SessionTable();
+
+		for (int i = 0; i < sharedSockets.length; i++) {
+			try {
+				DatagramChannel datagramChannel = DatagramChannel.open();
+				datagramChannel.bind(null);
+				datagramChannel.configureBlocking(false);
+
+				sharedSockets[i] = new TFTPSocket(datagramChannel);
+				datagramChannel.register(selector, SelectionKey.OP_READ, sharedSockets[i]);
+			} catch (IOException e) {
+				UIManager.printErrorMessage("TFTPEventLoop", "cannot open shared datagram channel");
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+	}
+
+	/**
+	 * Picks the shared socket for a new multiplexed session, can be called from any thread
+	 *
+	 * @return shared socket or null if the event loop has no shared channels
+	 */
+	public TFTPSocket nextSharedSocket() {
+		if (sharedSockets.length == 0)
+			return null;
+
+		return sharedSockets[Math.floorMod(nextSharedSocket.getAndIncrement(), sharedSockets.length)];
+	}
+
+	/**
+	 * Hands a session over to the event loop, can be called from any thread
+	 *
+	 * @param session session to run on this event loop
+	 */
+	public void register(TFTPSession session) {
+		execute(() -> {
+			session.setEventLoop(this);
+
+			if (session.isMultiplexed()) {
+				multiplexedSessions.reserve(session.getRemoteAddress(), session.getRemotePort());
+				multiplexedSessions.attach(session);
+				sessions.add(session);
+				session.start();
+				return;
+			}
+
+			try {
+				session.getDatagramChannel().register(selector, SelectionKey.OP_READ, session);
+				sessions.add(session);
+			} catch (ClosedChannelException e) {
+				UIManager.printErrorMessage("TFTPEventLoop", "cannot register closed session channel");
+				server.removeConnection(session.getRemoteAddress(), session.getRemotePort());
+				return;
+			}
+
+			session.start();
+		});
+	}
+
+	/**
+	 * Runs a task on the event loop thread
+	 *
+	 * @param task task to run
+	 */
+	public void execute(Runnable task) {
+		pendingTasks.add(task);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				// wake up at the end of the tick if timers are pending
+				selector.select(timingWheel.getTimeUntilNextTick());
+			} catch (IOException e) {
+				UIManager.printErrorMessage("TFTPEventLoop", "oops... the selector broke");
+				e.printStackTrace();
+				break;
+			}
+
+			runPendingTasks();
+			processSelectedKeys();
+			timingWheel.advance(System.nanoTime());
+		}
+
+		// release every session that is still open
+		for (TFTPSession session : new ArrayList<TFTPSession>(sessions)) {
+			closeSession(session);
+		}
+
+		for (TFTPSocket sharedSocket : sharedSockets) {
+			sharedSocket.close();
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			UIManager.printErrorMessage("TFTPEventLoop", "cannot close selector");
+		}
+	}
+
+	/**
+	 * Stops the event loop, open sessions are closed
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Releases the channel of a finished session
+	 *
+	 * @param session session to close
+	 */
+	void closeSession(TFTPSession session) {
+		if (session.isMultiplexed()) {
+			// the shared channel stays open for the other sessions
+			multiplexedSessions.remove(session.getRemoteAddress(), session.getRemotePort());
+
+			String[] messages = {
+					"",
+					String.format("client %s:%d removed from shared port %d",
+							session.getRemoteAddress(), session.getRemotePort(), session.getTFTPSocket().getPort())
+			};
+			UIManager.printMessage("TFTPEventLoop", messages);
+		}
+		else {
+			SelectionKey key = session.getDatagramChannel().keyFor(selector);
+			if (key != null)
+				key.cancel();
+
+			String[] messages = {
+					"socket closed",
+					String.format("socket closed. Port %d released", session.getTFTPSocket().getPort())
+			};
+			UIManager.printMessage("TFTPEventLoop", messages);
+
+			session.getTFTPSocket().close();
+		}
+
+		sessions.remove(session);
+		session.closeFiles();
+
+		server.removeConnection(session.getRemoteAddress(), session.getRemotePort());
+	}
+
+	private void runPendingTasks() {
+		Runnable task;
+		while ((task = pendingTasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void processSelectedKeys() {
+		wakeups++;
+
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+		while (iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+
+			if (!key.isValid() || !key.isReadable())
+				continue;
+
+			if (key.attachment() instanceof TFTPSocket) {
+				processSharedChannel((TFTPSocket) key.attachment());
+				continue;
+			}
+
+			TFTPSession session = (TFTPSession) key.attachment();
+
+			// drain every datagram that is queued on the channel
+			while (!session.isFinished()) {
+				TFTPPacket receivePacket = null;
+				try {
+					receivePacket = receive(session.getDatagramChannel(), session.getErrorHandler());
+				} catch (IOException e) {
+					UIManager.printErrorMessage("TFTPEventLoop", "oops... the connection broke");
+					session.finish();
+					break;
+				}
+
+				if (receivePacket == null)
+					break;
+
+				session.onPacket(receivePacket);
+			}
+		}
+	}
+
+	/**
+	 * Routes the datagrams queued on a shared channel to their sessions.
+	 * At most a batch of datagrams is drained so that a busy channel does not starve
+	 * the others, the selector reports the channel again if datagrams are left
+	 *
+	 * @param sharedSocket socket of the shared channel
+	 */
+	private void processSharedChannel(TFTPSocket sharedSocket) {
+		for (int i = 0; i < NetworkConfig.MAX_DATAGRAMS_PER_WAKEUP; i++) {
+			TFTPPacket receivePacket = null;
+			try {
+				receivePacket = receive(sharedSocket.getDatagramChannel(), sharedSocket.getErrorHandler());
+			} catch (IOException e) {
+				// the channel is shared, so the sessions using it are left to time out
+				UIManager.printErrorMessage("TFTPEventLoop", "cannot receive on shared channel");
+				break;
+			}
+
+			if (receivePacket == null)
+				break;
+
+			TFTPSession session = (TFTPSession) multiplexedSessions.get(receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
+
+			// the shared port only belongs to the clients routed to this event loop
+			if (session == null || session.isFinished() || session.getTFTPSocket() != sharedSocket) {
+				unknownSourceDatagrams++;
+
+				String errorMessage = String.format("Received packet from unknown source %s:%d on shared port %d",
+						receivePacket.getRemoteAddress(), receivePacket.getRemotePort(), sharedSocket.getPort());
+				UIManager.printErrorMessage("TFTPEventLoop", errorMessage);
+
+				sharedSocket.getErrorHandler().sendUnknownTrasnferIDErrorPacket(errorMessage,
+						receivePacket.getRemoteAddress(), receivePacket.getRemotePort());
+				continue;
+			}
+
+			session.onPacket(receivePacket);
+		}
+	}
+
+	/**
+	 * Receives one TFTP packet from a channel
+	 *
+	 * @param datagramChannel channel to receive from
+	 * @param errorHandler    used to answer packets that cannot be parsed
+	 * @return packet received or null if no more datagrams are queued
+	 * @throws IOException if the channel broke
+	 */
+	private TFTPPacket receive(DatagramChannel datagramChannel, ErrorHandler errorHandler) throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+
+			InetSocketAddress sourceAddress = (InetSocketAddress) datagramChannel.receive(receiveBuffer);
+			if (sourceAddress == null)
+				return null;
+
+			receivedDatagrams++;
+
+			try {
+				return new TFTPPacket(receiveBuffer.array(), 0, receiveBuffer.position(),
+						sourceAddress.getAddress(), sourceAddress.getPort());
+			} catch (TFTPPacketParsingError e) {
+				UIManager.printErrorMessage("TFTPEventLoop", "cannot parse TFTP packet");
+				errorHandler.sendIllegalOperationErrorPacket("cannot parse TFTP packet", sourceAddress.getAddress(), sourceAddress.getPort());
+			}
+		}
+	}
+
+	/**
+	 * @return timing wheel of the session timers, only used on the event loop thread
+	 */
+	TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
+
+	/**
+	 * Returns the counters in a printable form, can be called from any thread
+	 *
+	 * @return list of lines
+	 */
+	public String[] getStatistics() {
+		// the sessions and the timing wheel belong to the event loop thread, read them there
+		FutureTask<String[]> statistics = new FutureTask<String[]>(this::collectStatistics);
+		execute(statistics);
+
+		try {
+			return statistics.get(1, TimeUnit.SECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			String[] messages = { "event loop is not running" };
+			return messages;
+		}
+	}
+
+	private String[] collectStatistics() {
+		double datagramsPerWakeup = wakeups > 0 ? (double) receivedDatagrams / wakeups : 0;
+		String[] timerStatistics = timingWheel.getStatistics();
+
+		String[] statistics = {
+				String.format("event loop sessions: %d, shared channels: %d", sessions.size(), sharedSockets.length),
+				String.format("wakeups: %d, datagrams received: %d (%.2f per wakeup), unknown sources: %d",
+						wakeups, receivedDatagrams, datagramsPerWakeup, unknownSourceDatagrams),
+				timerStatistics[0],
+				timerStatistics[1]
+		};
+
+		return statistics;
+	}
+}
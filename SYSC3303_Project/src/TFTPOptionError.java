@@ -0,0 +1,17 @@
+/**
+ * This class represents the exception for a request or OACK option
+ * that cannot be accepted, it is answered with an ERROR packet with error code 8
+ * @author Group 8
+ *
+ */
+public class TFTPOptionError extends Exception {
+	private static final long serialVersionUID = 6074411521915474812L;
+
+	public TFTPOptionError() {
+		super();
+	}
+	
+	public TFTPOptionError(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,268 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class holds the transfer options of a connection that were negotiated
+ * with the OACK packet (RFC 2347). A connection without options uses the
+ * values of the original protocol
+ *
+ * Supported options:
+ * 		- blksize (RFC 2348): number of data bytes in a DATA packet
+ * 		- windowsize (RFC 7440): number of DATA packets sent before an ACK packet
+ * 		- tsize (RFC 2349): size of the file in bytes
+ * 		- timeout (RFC 2349): retransmission interval in seconds
+ *
+ * @author Group 8
+ */
+public class TFTPOptions {
+	public static final String BLOCK_SIZE = "blksize";
+	public static final String WINDOW_SIZE = "windowsize";
+	public static final String TRANSFER_SIZE = "tsize";
+	public static final String TIMEOUT = "timeout";
+
+	public static final int DEFAULT_BLOCK_SIZE = 512;
+	public static final int MIN_BLOCK_SIZE = 8;
+
+	public static final int DEFAULT_WINDOW_SIZE = 1;
+	public static final int MIN_WINDOW_SIZE = 1;
+	public static final int MAX_WINDOW_SIZE = 65535;
+
+	public static final int MIN_TIMEOUT = 1;
+	public static final int MAX_TIMEOUT = 255;
+
+	// size of the opcode and block number in front of the data of a DATA packet
+	public static final int DATA_HEADER_LENGTH = 4;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	// size of the file in bytes, -1 if it is not known
+	private long transferSize = -1;
+	// retransmission interval in seconds, -1 if it was not negotiated
+	private int timeout = -1;
+
+	// options acknowledged in the OACK packet, empty if no OACK is sent
+	private LinkedHashMap<String, String> acknowledgedOptions = new LinkedHashMap<String, String>();
+
+	/**
+	 * Options of a connection that did not negotiate any
+	 */
+	public TFTPOptions() {
+	}
+
+	/**
+	 * Picks the options the server accepts out of a request, unknown options are ignored
+	 *
+	 * @param requestPacket read or write request
+	 * @return negotiated options
+	 * @throws TFTPOptionError if an option has a value that cannot be accepted
+	 */
+	public static TFTPOptions negotiate(RRQWRQPacket requestPacket) throws TFTPOptionError {
+		TFTPOptions options = new TFTPOptions();
+		Map<String, String> requestedOptions = requestPacket.getOptions();
+
+		if (requestedOptions.containsKey(BLOCK_SIZE)) {
+			int requestedBlockSize = parseValue(BLOCK_SIZE, requestedOptions.get(BLOCK_SIZE));
+			if (requestedBlockSize < MIN_BLOCK_SIZE)
+				throw new TFTPOptionError(String.format("blksize %d is smaller than %d", requestedBlockSize, MIN_BLOCK_SIZE));
+
+			// a smaller block size than requested can be answered
+			options.blockSize = Math.min(requestedBlockSize, NetworkConfig.MAX_BLOCK_SIZE);
+			options.acknowledgedOptions.put(BLOCK_SIZE, Integer.toString(options.blockSize));
+		}
+
+		if (requestedOptions.containsKey(WINDOW_SIZE)) {
+			int requestedWindowSize = parseValue(WINDOW_SIZE, requestedOptions.get(WINDOW_SIZE));
+			if (requestedWindowSize < MIN_WINDOW_SIZE || requestedWindowSize > MAX_WINDOW_SIZE)
+				throw new TFTPOptionError(String.format("windowsize %d is not between %d and %d", requestedWindowSize, MIN_WINDOW_SIZE, MAX_WINDOW_SIZE));
+
+			// a smaller window than requested can be answered
+			options.windowSize = Math.min(requestedWindowSize, NetworkConfig.MAX_WINDOW_SIZE);
+			options.acknowledgedOptions.put(WINDOW_SIZE, Integer.toString(options.windowSize));
+		}
+
+		if (requestedOptions.containsKey(TRANSFER_SIZE)) {
+			// the size of a write request is the size of the file that is sent,
+			// a read request asks for the size with 0 and is answered by setTransferSize
+			options.transferSize = parseSize(TRANSFER_SIZE, requestedOptions.get(TRANSFER_SIZE));
+			options.acknowledgedOptions.put(TRANSFER_SIZE, Long.toString(options.transferSize));
+		}
+
+		if (requestedOptions.containsKey(TIMEOUT)) {
+			int requestedTimeout = parseValue(TIMEOUT, requestedOptions.get(TIMEOUT));
+			if (requestedTimeout < MIN_TIMEOUT || requestedTimeout > MAX_TIMEOUT)
+				throw new TFTPOptionError(String.format("timeout %d is not between %d and %d", requestedTimeout, MIN_TIMEOUT, MAX_TIMEOUT));
+
+			// the interval is acknowledged as it was requested (RFC 2349), an interval out of
+			// the server policy is left out of the OACK packet
+			if (requestedTimeout >= NetworkConfig.MIN_OPTION_TIMEOUT && requestedTimeout <= NetworkConfig.MAX_OPTION_TIMEOUT) {
+				options.timeout = requestedTimeout;
+				options.acknowledgedOptions.put(TIMEOUT, Integer.toString(options.timeout));
+			}
+		}
+
+		return options;
+	}
+
+	/**
+	 * Returns the options the client asks for
+	 *
+	 * @param transferSize size of the file that is written, 0 for a read request
+	 * @return option values keyed by option name, empty to make a plain request
+	 */
+	public static Map<String, String> getRequestedOptions(long transferSize) {
+		LinkedHashMap<String, String> requestedOptions = new LinkedHashMap<String, String>();
+
+		if (NetworkConfig.BLOCK_SIZE != DEFAULT_BLOCK_SIZE)
+			requestedOptions.put(BLOCK_SIZE, Integer.toString(NetworkConfig.BLOCK_SIZE));
+
+		if (NetworkConfig.WINDOW_SIZE != DEFAULT_WINDOW_SIZE)
+			requestedOptions.put(WINDOW_SIZE, Integer.toString(NetworkConfig.WINDOW_SIZE));
+
+		requestedOptions.put(TRANSFER_SIZE, Long.toString(transferSize));
+
+		if (NetworkConfig.REQUEST_TIMEOUT > 0)
+			requestedOptions.put(TIMEOUT, Integer.toString(NetworkConfig.REQUEST_TIMEOUT));
+
+		return requestedOptions;
+	}
+
+	/**
+	 * Checks the options acknowledged by the server against the ones that were requested
+	 *
+	 * @param oackPacket        OACK packet received from the server
+	 * @param requestedOptions  options sent in the request
+	 * @return negotiated options
+	 * @throws TFTPOptionError if the server acknowledged an option that was not requested
+	 *                         or a value that the client cannot accept
+	 */
+	public static TFTPOptions accept(OACKPacket oackPacket, Map<String, String> requestedOptions) throws TFTPOptionError {
+		TFTPOptions options = new TFTPOptions();
+
+		for (Map.Entry<String, String> option : oackPacket.getOptions().entrySet()) {
+			if (!requestedOptions.containsKey(option.getKey()))
+				throw new TFTPOptionError(String.format("option %s was not requested", option.getKey()));
+
+			if (option.getKey().equals(BLOCK_SIZE)) {
+				int blockSize = parseValue(BLOCK_SIZE, option.getValue());
+				int requestedBlockSize = parseValue(BLOCK_SIZE, requestedOptions.get(BLOCK_SIZE));
+
+				if (blockSize < MIN_BLOCK_SIZE || blockSize > requestedBlockSize)
+					throw new TFTPOptionError(String.format("blksize %d is not between %d and %d", blockSize, MIN_BLOCK_SIZE, requestedBlockSize));
+
+				options.blockSize = blockSize;
+			}
+			else if (option.getKey().equals(WINDOW_SIZE)) {
+				int windowSize = parseValue(WINDOW_SIZE, option.getValue());
+				int requestedWindowSize = parseValue(WINDOW_SIZE, requestedOptions.get(WINDOW_SIZE));
+
+				if (windowSize < MIN_WINDOW_SIZE || windowSize > requestedWindowSize)
+					throw new TFTPOptionError(String.format("windowsize %d is not between %d and %d", windowSize, MIN_WINDOW_SIZE, requestedWindowSize));
+
+				options.windowSize = windowSize;
+			}
+			else if (option.getKey().equals(TRANSFER_SIZE)) {
+				options.transferSize = parseSize(TRANSFER_SIZE, option.getValue());
+			}
+			else if (option.getKey().equals(TIMEOUT)) {
+				// the server acknowledges the interval that was requested or leaves it out
+				int timeout = parseValue(TIMEOUT, option.getValue());
+				int requestedTimeout = parseValue(TIMEOUT, requestedOptions.get(TIMEOUT));
+
+				if (timeout != requestedTimeout)
+					throw new TFTPOptionError(String.format("timeout %d is not the requested %d", timeout, requestedTimeout));
+
+				options.timeout = timeout;
+			}
+
+			options.acknowledgedOptions.put(option.getKey(), option.getValue());
+		}
+
+		return options;
+	}
+
+	private static int parseValue(String name, String value) throws TFTPOptionError {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new TFTPOptionError(String.format("invalid %s value: %s", name, value));
+		}
+	}
+
+	private static long parseSize(String name, String value) throws TFTPOptionError {
+		long size;
+		try {
+			size = Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new TFTPOptionError(String.format("invalid %s value: %s", name, value));
+		}
+
+		if (size < 0)
+			throw new TFTPOptionError(String.format("%s %d is negative", name, size));
+
+		return size;
+	}
+
+	/**
+	 * Sets the size of the file of a read request, reported in the OACK packet
+	 * if the client asked for it
+	 *
+	 * @param transferSize size of the file in bytes
+	 */
+	public void setTransferSize(long transferSize) {
+		if (!acknowledgedOptions.containsKey(TRANSFER_SIZE))
+			return;
+
+		this.transferSize = transferSize;
+		acknowledgedOptions.put(TRANSFER_SIZE, Long.toString(transferSize));
+	}
+
+	/**
+	 * @return size of the file in bytes, -1 if it is not known
+	 */
+	public long getTransferSize() {
+		return transferSize;
+	}
+
+	/**
+	 * @return retransmission interval in milli seconds, -1 if it was not negotiated
+	 */
+	public int getTimeout() {
+		return timeout < 0 ? -1 : timeout * 1000;
+	}
+
+	/**
+	 * @return true if the options have to be acknowledged with an OACK packet
+	 */
+	public boolean hasAcknowledgedOptions() {
+		return !acknowledgedOptions.isEmpty();
+	}
+
+	public Map<String, String> getAcknowledgedOptions() {
+		return acknowledgedOptions;
+	}
+
+	/**
+	 * @return number of data bytes in a full DATA packet
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return number of DATA packets sent before an ACK packet
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return length of a full DATA packet
+	 */
+	public int getMaxPacketLength() {
+		return DATA_HEADER_LENGTH + blockSize;
+	}
+
+	public String toString() {
+		return acknowledgedOptions.isEmpty() ? "default options" : acknowledgedOptions.toString();
+	}
+}
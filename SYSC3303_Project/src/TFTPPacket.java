@@ -1,4 +1,9 @@
+import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * This class represents the TFTP packet
@@ -106,10 +111,91 @@ public class TFTPPacket {
 			return TFTPPacketType.ACK;
 		else if (opCode == 5)
 			return TFTPPacketType.ERROR;
+		else if (opCode == 6)
+			return TFTPPacketType.OACK;
 		else
 			return TFTPPacketType.INVALID;
 	}
 	
+	/**
+	 * Compares two block numbers. Block numbers are unsigned 16 bit values that
+	 * wrap around to 0 after 65535, a block number comes after another one if it
+	 * is less than half of the block number space ahead of it
+	 * 
+	 * @param blockNumber block number to compare
+	 * @param reference   block number it is compared to
+	 * @return distance from the reference, negative if the block number comes before it
+	 */
+	public static int compareBlockNumbers(short blockNumber, short reference) {
+		return (short) (blockNumber - reference);
+	}
+	
+	/**
+	 * Reads the option name and value pairs of a RRQ, WRQ or OACK packet (RFC 2347).
+	 * Option names are not case sensitive, they are returned in lower case
+	 * 
+	 * @param packetBytes bytes that form the packet
+	 * @param offset      index of the first option name
+	 * @return options in the order they appear in the packet
+	 * @throws TFTPPacketParsingError if a name or value is not terminated
+	 */
+	protected static LinkedHashMap<String, String> parseOptions(byte[] packetBytes, int offset) throws TFTPPacketParsingError {
+		LinkedHashMap<String, String> options = new LinkedHashMap<String, String>();
+		
+		int i = offset;
+		while (i < packetBytes.length) {
+			int nameEnd = indexOfZero(packetBytes, i);
+			if (nameEnd < 0)
+				throw new TFTPPacketParsingError("option name is not terminated");
+			
+			int valueEnd = indexOfZero(packetBytes, nameEnd + 1);
+			if (valueEnd < 0)
+				throw new TFTPPacketParsingError("option value is not terminated");
+			
+			String name = ByteConversions.bytesToString(Arrays.copyOfRange(packetBytes, i, nameEnd));
+			String value = ByteConversions.bytesToString(Arrays.copyOfRange(packetBytes, nameEnd + 1, valueEnd));
+			
+			if (name.isEmpty())
+				throw new TFTPPacketParsingError("empty option name");
+			
+			options.put(name.toLowerCase(Locale.ROOT), value);
+			i = valueEnd + 1;
+		}
+		
+		return options;
+	}
+	
+	/**
+	 * Converts option name and value pairs into zero terminated strings
+	 * 
+	 * @param options options to convert
+	 * @return array of bytes
+	 */
+	protected static byte[] optionsToBytes(Map<String, String> options) {
+		ByteArrayOutputStream optionBytes = new ByteArrayOutputStream();
+		
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			byte[] nameBytes = ByteConversions.stringToBytes(option.getKey());
+			byte[] valueBytes = ByteConversions.stringToBytes(option.getValue());
+			
+			optionBytes.write(nameBytes, 0, nameBytes.length);
+			optionBytes.write(0);
+			optionBytes.write(valueBytes, 0, valueBytes.length);
+			optionBytes.write(0);
+		}
+		
+		return optionBytes.toByteArray();
+	}
+	
+	private static int indexOfZero(byte[] bytes, int start) {
+		for (int i = start; i < bytes.length; i++) {
+			if (bytes[i] == 0)
+				return i;
+		}
+		
+		return -1;
+	}
+	
 	public String toString() {
 		return String.format("TFTP Packet: OPCode: %d, Packet size: %d", opCode, packetLength);
 	}
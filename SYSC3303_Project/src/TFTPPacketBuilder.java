@@ -1,7 +1,5 @@
 import java.net.InetAddress;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Map;
 
 /**
  * This class contains all the methods to create a RRQ, WQR, DATA, ACK and ERROR datagram packets
@@ -26,6 +24,22 @@ public class TFTPPacketBuilder {
 		return RRQWRQPacket.buildPacket(packetType, fileName, mode, ipAddress, port);	
 	}
 	
+	/**
+	* Returns a datagram packet RRQ/WRQ format with options (RFC 2347)
+	* 
+	* @param packetType  packet type
+	* @param fileName    name of the file to request from the server
+	* @param mode        mode used to write or read file on the server
+	* @param options     option values keyed by option name
+	* @param ipAddress   IP address where the datagram packet will be sent to
+	* @param port        port where the datagram packet will bent to 
+	*
+	* @return datagram packet in RRQ/WRQ format
+	*/
+	public static RRQWRQPacket getRRQWRQDatagramPacket(TFTPPacketType packetType, String fileName, String mode, Map<String, String> options, InetAddress ipAddress, int port) {
+		return RRQWRQPacket.buildPacket(packetType, fileName, mode, options, ipAddress, port);
+	}
+	
 	/**
 	* Returns a datagram packet in DATA format
 	* 
@@ -39,6 +53,18 @@ public class TFTPPacketBuilder {
 		return DATAPacket.buildPacket(blockNumber, data, ipAddress, port);
 	}
 	
+	/**
+	* Returns a datagram packet in DATA format from bytes encoded beforehand
+	* 
+	* @param packetBytes    bytes of the encoded packet, shared and not copied
+	* @param returnAddress  return socket address where the datagram packet will be sent to
+	*
+	* @return datagram packet in DATA format
+	*/
+	public static DATAPacket getDATADatagram(byte[] packetBytes, InetAddress ipAddress, int port) {
+		return DATAPacket.buildPacket(packetBytes, ipAddress, port);
+	}
+	
 	/**
 	* Returns a datagram packet in ACK format
 	* 
@@ -66,30 +92,15 @@ public class TFTPPacketBuilder {
 	}
 	
 	/**
-	 * Return a stack of DATA datagram packets each containing maximum of 512 bytes of the file
-	 * @param fileData       bytes from the whole file
-	 * @param returnAddress  address where the datagram packets will be sent to 
-	 * 
-	 * @return stack of datagram packets
+	 * Returns a datagram packet in OACK format
+	 *
+	 * @param options   options accepted by the server
+	 * @param ipAddress IP address where the datagram packet will be sent to
+	 * @param port      port where the datagram packet will be sent to
+	 *
+	 * @return datagram packet in OACK format
 	 */
-	public static Queue<DATAPacket> getStackOfDATADatagramPackets(byte[] fileData, InetAddress ipAddress, int port) {
-		Queue<DATAPacket> dataPacketStack = new LinkedList<DATAPacket>();
-		
-		// calculate the number of packets will be required to transfer the whole file
-		int numOfPackets = (fileData.length / DATAPacket.MAX_DATA_SIZE_BYTES) + 1;
-		for (int i = 0; i < numOfPackets; i++) {
-			short blockNumber = (short) (i + 1);
-			
-			int start = i * DATAPacket.MAX_DATA_SIZE_BYTES;
-			int end = (i + 1) * DATAPacket.MAX_DATA_SIZE_BYTES;
-			
-			if (end > fileData.length)
-				end = fileData.length;
-			
-			byte[] fileDataPart = Arrays.copyOfRange(fileData, start, end);
-			dataPacketStack.add(TFTPPacketBuilder.getDATADatagram(blockNumber, fileDataPart, ipAddress, port));
-		}
-		
-		return dataPacketStack;
+	public static OACKPacket getOACKDatagram(Map<String, String> options, InetAddress ipAddress, int port) {
+		return OACKPacket.buildPacket(options, ipAddress, port);
 	}
 }
@@ -10,6 +10,7 @@ public enum TFTPPacketType {
 	DATA,
 	ACK,
 	ERROR,
+	OACK,
 	INVALID
 }
  
\ No newline at end of file
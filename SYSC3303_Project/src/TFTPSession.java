@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * This class represents a RRQ or WRQ connection that is driven by a TFTP event loop
+ * instead of having its own thread. A session is a state machine that reacts to
+ * packets received on its datagram channel and to its retransmission timeouts.
+ *
+ * All methods except the constructor are called on the event loop thread
+ *
+ * @author Group 8
+ */
+public abstract class TFTPSession implements ServerSession {
+	protected Server server;
+	// set on the event loop thread, read by the server thread that hands over duplicate requests
+	protected volatile TFTPEventLoop eventLoop;
+	protected TFTPPacket requestPacket;
+
+	protected DatagramChannel datagramChannel;
+	protected TFTPSocket tftpSocket;
+	// true if the channel is shared with other sessions of the event loop
+	private boolean multiplexed;
+
+	protected FileManager fileManager;
+	protected ErrorHandler errorHandler;
+	protected PacketHandler packetHandler;
+
+	protected InetAddress remoteAddress;
+	protected int remotePort;
+
+	// expires when the packet the session is waiting for did not arrive in time
+	private TimingWheel.Timer retransmitTimer;
+	// time in nano seconds until which the packet the session is waiting for is retried
+	private long retryDeadline;
+
+	private boolean finished = false;
+
+	private DuplicateRequestCounter duplicateRequests = new DuplicateRequestCounter("TFTPSession");
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public TFTPSession(Server server, TFTPPacket requestPacket) throws IOException {
+		this(server, requestPacket, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @param sharedSocket  shared socket of the event loop the session runs on,
+	 *                      or null to give the session its own channel
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public TFTPSession(Server server, TFTPPacket requestPacket, TFTPSocket sharedSocket) throws IOException {
+		this.server = server;
+		this.requestPacket = requestPacket;
+
+		remoteAddress = requestPacket.getRemoteAddress();
+		remotePort = requestPacket.getRemotePort();
+
+		if (sharedSocket != null) {
+			// the event loop routes the packets of the client to this session
+			tftpSocket = sharedSocket;
+			datagramChannel = sharedSocket.getDatagramChannel();
+			multiplexed = true;
+		}
+		else {
+			// every session gets its own transfer ID
+			datagramChannel = DatagramChannel.open();
+			datagramChannel.bind(null);
+			datagramChannel.configureBlocking(false);
+
+			tftpSocket = new TFTPSocket(datagramChannel);
+			multiplexed = false;
+		}
+
+		retransmitTimer = new TimingWheel.Timer(this::onTimeout);
+
+		fileManager = new FileManager(server.getGroupCommitService(), server.getFileContentCache(), server.getPathLookupCache(), server.getDirectoryIndex(), FileManager.SERVER_STAGING_PREFIX);
+		errorHandler = new ErrorHandler(tftpSocket);
+		packetHandler = new PacketHandler(tftpSocket, errorHandler, remoteAddress, remotePort);
+	}
+
+	/**
+	 * Called once the session is registered with its event loop
+	 */
+	public abstract void start();
+
+	/**
+	 * Called for every TFTP packet received on the session channel
+	 *
+	 * @param receivePacket packet received
+	 */
+	public abstract void onPacket(TFTPPacket receivePacket);
+
+	/**
+	 * Called when the session did not receive the expected packet in time
+	 */
+	public abstract void onTimeout();
+
+	/**
+	 * Restarts the retransmission timer, the retry budget is renewed as well
+	 */
+	protected void armTimer() {
+		retryDeadline = packetHandler.getRetryDeadline();
+		rearmTimer();
+	}
+
+	/**
+	 * Restarts the retransmission timer without renewing the retry budget
+	 */
+	protected void rearmTimer() {
+		eventLoop.getTimingWheel().schedule(retransmitTimer, PacketHandler.getWaitTime(getRetransmitTimeout(), retryDeadline));
+	}
+
+	/**
+	 * Checks whether the session should give up waiting
+	 *
+	 * @return true if the retry budget is used up
+	 */
+	protected boolean isRetryBudgetExhausted() {
+		return PacketHandler.isRetryBudgetExhausted(retryDeadline);
+	}
+
+	/**
+	 * Returns how long to wait for the next packet of the client
+	 *
+	 * @return timeout in milli seconds
+	 */
+	protected int getRetransmitTimeout() {
+		return packetHandler.getTimeout();
+	}
+
+	/**
+	 * Ends the session, the event loop releases the channel or stops routing
+	 * the packets of the client to the session
+	 */
+	protected void finish() {
+		if (finished)
+			return;
+
+		finished = true;
+		eventLoop.getTimingWheel().cancel(retransmitTimer);
+
+		server.recordRetransmissions(remoteAddress, remotePort, packetHandler);
+		eventLoop.closeSession(this);
+	}
+
+	/**
+	 * Called once the session is closed, the session releases the files it holds
+	 */
+	protected void closeFiles() {
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public boolean isMultiplexed() {
+		return multiplexed;
+	}
+
+	public DatagramChannel getDatagramChannel() {
+		return datagramChannel;
+	}
+
+	public TFTPSocket getTFTPSocket() {
+		return tftpSocket;
+	}
+
+	public ErrorHandler getErrorHandler() {
+		return errorHandler;
+	}
+
+	@Override
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	@Override
+	public void duplicateRequestReceived(TFTPPacket requestPacket) {
+		duplicateRequests.record(remoteAddress, remotePort);
+	}
+
+	@Override
+	public int getDuplicateRequests() {
+		return duplicateRequests.get();
+	}
+
+	void setEventLoop(TFTPEventLoop eventLoop) {
+		this.eventLoop = eventLoop;
+	}
+}
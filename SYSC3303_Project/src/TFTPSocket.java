@@ -2,13 +2,21 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 public class TFTPSocket {
 	private DatagramSocket datagramSocket;
+	private DatagramChannel datagramChannel;
 	private ErrorHandler errorHandler;
 	
+	// reused for every receive, the received bytes are copied into the TFTP packet
+	private byte[] receiveBytes = new byte[NetworkConfig.DATAGRAM_PACKET_MAX_LEN];
+	
 	public TFTPSocket(int timeout) {
 		try {
 			datagramSocket = new DatagramSocket();
@@ -25,20 +33,78 @@ public class TFTPSocket {
 	}
 	
 	public TFTPSocket(int timeout, int port) {
+		this(timeout, port, false);
+	}
+	
+	/**
+	 * Creates a socket bound to the given port
+	 * 
+	 * @param timeout   receive timeout in milli seconds, 0 for none
+	 * @param port      port to bind to
+	 * @param reusePort allow other sockets to bind to the same port with SO_REUSEPORT,
+	 *                  the operating system then spreads the incoming packets over them
+	 */
+	public TFTPSocket(int timeout, int port, boolean reusePort) {
 		try {
-			datagramSocket = new DatagramSocket(port);
+			datagramSocket = new DatagramSocket(null);
+			
+			if (reusePort) {
+				if (datagramSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+					datagramSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				else
+					UIManager.printErrorMessage("TFTPSocket", "SO_REUSEPORT is not supported on this platform");
+			}
+			
+			datagramSocket.bind(new InetSocketAddress(port));
+			
 			if (timeout > 0) {
 				datagramSocket.setSoTimeout(timeout);
 			}
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			UIManager.printErrorMessage("TFTPSocket", String.format("cannot create datagram socket on port %d", port));
 			e.printStackTrace();
 			System.exit(-1);
 		}
 	}
 	
+	/**
+	 * Wraps a datagram socket that is already bound
+	 * 
+	 * @param datagramSocket bound datagram socket
+	 */
+	public TFTPSocket(DatagramSocket datagramSocket) {
+		this.datagramSocket = datagramSocket;
+		
+		errorHandler = new ErrorHandler(this);
+	}
+	
+	/**
+	 * Wraps a non-blocking datagram channel that is driven by an event loop.
+	 * Only sending goes through this socket, receiving is done by the event loop
+	 * 
+	 * @param datagramChannel bound datagram channel
+	 */
+	public TFTPSocket(DatagramChannel datagramChannel) {
+		this.datagramChannel = datagramChannel;
+		this.datagramSocket = datagramChannel.socket();
+		
+		errorHandler = new ErrorHandler(this);
+	}
+	
 	public void send(TFTPPacket tftpPacket) {
 		byte[] tftpPacketBytes = tftpPacket.getPacketBytes();
+		
+		if (datagramChannel != null) {
+			// non-blocking channels cannot go through the datagram socket adaptor
+			try {
+				datagramChannel.send(ByteBuffer.wrap(tftpPacketBytes), new InetSocketAddress(tftpPacket.getRemoteAddress(), tftpPacket.getRemotePort()));
+			} catch (IOException e) {
+				UIManager.printErrorMessage("TFTPSocket", "oops... the connection broke");
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		DatagramPacket sendDatagramPacket = new DatagramPacket(tftpPacketBytes, tftpPacketBytes.length, tftpPacket.getRemoteAddress(), tftpPacket.getRemotePort());
 		
 		try {
@@ -53,7 +119,6 @@ public class TFTPSocket {
 	public TFTPPacket receive() throws SocketTimeoutException, IOException {
 		TFTPPacket tftpPacket = null;
 		
-		byte[] receiveBytes = new byte[NetworkConfig.DATAGRAM_PACKET_MAX_LEN];
 		DatagramPacket receiveDatagramPacket = new DatagramPacket(receiveBytes, receiveBytes.length);
 		
 		if (receiveDatagramPacket.getLength() == 0) {
@@ -81,11 +146,78 @@ public class TFTPSocket {
 		return tftpPacket;
 	}
 	
+	/**
+	 * Changes the receive timeout
+	 * 
+	 * @param timeout receive timeout in milli seconds, 0 for none
+	 */
+	public void setTimeout(int timeout) {
+		try {
+			datagramSocket.setSoTimeout(timeout);
+		} catch (SocketException e) {
+			UIManager.printErrorMessage("TFTPSocket", "cannot change socket timeout");
+		}
+	}
+	
+	/**
+	 * Sizes the receive buffer for the largest packet of the connection,
+	 * longer datagrams are truncated
+	 * 
+	 * @param maxPacketLength length in bytes of the largest packet expected
+	 */
+	public void setMaxPacketLength(int maxPacketLength) {
+		if (receiveBytes.length != maxPacketLength)
+			receiveBytes = new byte[maxPacketLength];
+	}
+	
+	/**
+	 * Discards every packet that is queued on the socket, so that a reused socket
+	 * does not hand packets of the previous connection to the next one
+	 * 
+	 * @return number of discarded packets
+	 */
+	public int discardQueuedPackets() {
+		int discardedPackets = 0;
+		
+		try {
+			int timeout = datagramSocket.getSoTimeout();
+			datagramSocket.setSoTimeout(1);
+			
+			DatagramPacket receiveDatagramPacket = new DatagramPacket(receiveBytes, receiveBytes.length);
+			try {
+				while (true) {
+					datagramSocket.receive(receiveDatagramPacket);
+					discardedPackets++;
+				}
+			} catch (SocketTimeoutException e) {
+				// no more packets are queued
+			}
+			
+			datagramSocket.setSoTimeout(timeout);
+		} catch (IOException e) {
+			UIManager.printErrorMessage("TFTPSocket", "cannot discard queued packets");
+		}
+		
+		return discardedPackets;
+	}
+	
 	public boolean isClosed() {
+		if (datagramChannel != null)
+			return !datagramChannel.isOpen();
+		
 		return datagramSocket.isClosed();
 	}
 	
 	public void close() {
+		if (datagramChannel != null) {
+			try {
+				datagramChannel.close();
+			} catch (IOException e) {
+				UIManager.printErrorMessage("TFTPSocket", "cannot close datagram channel");
+			}
+			return;
+		}
+		
 		datagramSocket.close();
 	}
 	
@@ -96,4 +228,15 @@ public class TFTPSocket {
 	public int getPort() {
 		return datagramSocket.getLocalPort();
 	}
+	
+	public ErrorHandler getErrorHandler() {
+		return errorHandler;
+	}
+	
+	/**
+	 * @return the channel the socket sends through, or null for a blocking socket
+	 */
+	public DatagramChannel getDatagramChannel() {
+		return datagramChannel;
+	}
 }
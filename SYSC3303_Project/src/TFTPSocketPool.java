@@ -0,0 +1,167 @@
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a pool of sockets that are bound once to a configured port range
+ * and are leased to the connections as their transfer ID.
+ *
+ * Returned sockets go to the back of the pool, so a port is reused as late as possible
+ * and late packets of the previous connection are less likely to reach the next one.
+ * If the pool is empty for too long a connection gets an ephemeral socket instead
+ *
+ * @author Group 8
+ */
+public class TFTPSocketPool {
+	private ArrayBlockingQueue<TFTPSocket> availableSockets;
+	// every socket that belongs to the pool, not modified after construction
+	private Set<TFTPSocket> pooledSockets;
+	private int poolSize;
+	private int socketTimeout;
+	private long leaseTimeout;
+	private volatile boolean closed = false;
+
+	// counters
+	private int leasedSockets = 0;
+	private int peakLeasedSockets = 0;
+	private long leases = 0;
+	private long fallbackLeases = 0;
+	private long discardedPackets = 0;
+	private long totalLeaseWait = 0;
+	private long maxLeaseWait = 0;
+
+	/**
+	 * Constructor, binds a socket to every free port in the range
+	 *
+	 * @param firstPort     first port of the range
+	 * @param lastPort      last port of the range
+	 * @param socketTimeout receive timeout of the sockets in milli seconds
+	 * @param leaseTimeout  time in milli seconds to wait for a pooled socket
+	 */
+	public TFTPSocketPool(int firstPort, int lastPort, int socketTimeout, long leaseTimeout) {
+		this.socketTimeout = socketTimeout;
+		this.leaseTimeout = leaseTimeout;
+
+		availableSockets = new ArrayBlockingQueue<TFTPSocket>(Math.max(1, lastPort - firstPort + 1));
+		pooledSockets = Collections.newSetFromMap(new IdentityHashMap<TFTPSocket, Boolean>());
+
+		for (int port = firstPort; port <= lastPort; port++) {
+			try {
+				DatagramSocket datagramSocket = new DatagramSocket(port);
+				datagramSocket.setSoTimeout(socketTimeout);
+
+				TFTPSocket tftpSocket = new TFTPSocket(datagramSocket);
+				availableSockets.add(tftpSocket);
+				pooledSockets.add(tftpSocket);
+			} catch (SocketException e) {
+				// port is used by another process, skip it
+				UIManager.printErrorMessage("TFTPSocketPool", String.format("cannot bind transfer socket to port %d", port));
+			}
+		}
+
+		poolSize = availableSockets.size();
+
+		String[] messages = {
+				"",
+				String.format("bound %d transfer sockets to ports %d - %d", poolSize, firstPort, lastPort)
+		};
+		UIManager.printMessage("TFTPSocketPool", messages);
+	}
+
+	/**
+	 * Leases a socket, waits for a returned socket if the pool is empty
+	 *
+	 * @return pooled socket, or an ephemeral socket if no socket was returned in time
+	 */
+	public TFTPSocket lease() {
+		long startTime = System.nanoTime();
+
+		TFTPSocket tftpSocket = null;
+		try {
+			tftpSocket = availableSockets.poll(leaseTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		long leaseWait = System.nanoTime() - startTime;
+
+		synchronized (this) {
+			leases++;
+			totalLeaseWait += leaseWait;
+			maxLeaseWait = Math.max(maxLeaseWait, leaseWait);
+
+			if (tftpSocket == null) {
+				fallbackLeases++;
+			}
+			else {
+				leasedSockets++;
+				peakLeasedSockets = Math.max(peakLeasedSockets, leasedSockets);
+			}
+		}
+
+		if (tftpSocket == null) {
+			UIManager.printErrorMessage("TFTPSocketPool", "no transfer socket available, using an ephemeral port");
+			return new TFTPSocket(socketTimeout);
+		}
+
+		return tftpSocket;
+	}
+
+	/**
+	 * Returns a leased socket to the pool. Ephemeral sockets are closed
+	 *
+	 * @param tftpSocket socket returned by lease
+	 */
+	public void release(TFTPSocket tftpSocket) {
+		if (closed || !pooledSockets.contains(tftpSocket)) {
+			tftpSocket.close();
+			return;
+		}
+
+		// the connection may have changed the timeout and the receive buffer
+		tftpSocket.setTimeout(socketTimeout);
+		tftpSocket.setMaxPacketLength(NetworkConfig.DATAGRAM_PACKET_MAX_LEN);
+		int discarded = tftpSocket.discardQueuedPackets();
+
+		synchronized (this) {
+			leasedSockets--;
+			discardedPackets += discarded;
+		}
+
+		availableSockets.add(tftpSocket);
+	}
+
+	/**
+	 * Closes the sockets that are in the pool, leased sockets are closed once returned
+	 */
+	public void close() {
+		closed = true;
+		
+		TFTPSocket tftpSocket;
+		while ((tftpSocket = availableSockets.poll()) != null) {
+			tftpSocket.close();
+		}
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public synchronized String[] getStatistics() {
+		double utilisation = poolSize > 0 ? 100.0 * leasedSockets / poolSize : 0;
+		double averageLeaseWait = leases > 0 ? totalLeaseWait / 1e6 / leases : 0;
+
+		String[] statistics = {
+				String.format("transfer sockets leased: %d/%d (%.1f%%), peak %d", leasedSockets, poolSize, utilisation, peakLeasedSockets),
+				String.format("leases: %d, ephemeral fallbacks: %d, stale packets discarded: %d", leases, fallbackLeases, discardedPackets),
+				String.format("lease wait: average %.3f ms, max %.3f ms", averageLeaseWait, maxLeaseWait / 1e6)
+		};
+
+		return statistics;
+	}
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+
+/**
+ * This class is a hashed timing wheel that keeps the retransmission deadlines of
+ * the sessions of an event loop.
+ *
+ * Time is split in ticks, every slot of the wheel holds the timers that expire in
+ * the ticks mapped to it. Timers further away than one turn of the wheel wait for
+ * the remaining number of turns. Scheduling and cancelling a timer only link or
+ * unlink it from its slot, so both take constant time however many timers are pending.
+ *
+ * The wheel is not thread safe, it is only used by the thread of its event loop
+ *
+ * @author Group 8
+ */
+public class TimingWheel {
+	/**
+	 * Timer that can be scheduled on the wheel again and again
+	 */
+	public static class Timer {
+		private Runnable task;
+		private long deadline;
+		private long remainingRounds;
+		private boolean scheduled = false;
+		// expired on the tick being processed, cleared if the timer is cancelled or scheduled again
+		private boolean expiring = false;
+
+		// slot list links
+		private Timer previous;
+		private Timer next;
+		private int slot;
+
+		/**
+		 * Constructor
+		 *
+		 * @param task task run on the event loop thread when the timer expires
+		 */
+		public Timer(Runnable task) {
+			this.task = task;
+		}
+
+		public boolean isScheduled() {
+			return scheduled;
+		}
+
+		/**
+		 * @return deadline in nano seconds
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	private long tickDuration;
+	private long startTime;
+	// first tick that has not been processed yet
+	private long currentTick = 0;
+
+	private Timer[] slotHeads;
+	private Timer[] slotTails;
+	private int mask;
+
+	private int pendingTimers = 0;
+
+	// timers that expired on the tick being processed
+	private ArrayList<Timer> expiredBuffer = new ArrayList<Timer>();
+
+	// counters
+	private long scheduledTimers = 0;
+	private long cancelledTimers = 0;
+	private long expiredTimers = 0;
+	private long totalSkew = 0;
+	private long maxSkew = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tickDuration duration of a tick in milli seconds
+	 * @param wheelSize    number of slots, rounded up to a power of two
+	 */
+	public TimingWheel(long tickDuration, int wheelSize) {
+		this.tickDuration = Math.max(1, tickDuration) * 1000000L;
+
+		int slots = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		slotHeads = new Timer[slots];
+		slotTails = new Timer[slots];
+		mask = slots - 1;
+
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * Schedules a timer, a timer that is already scheduled is moved to the new deadline
+	 *
+	 * @param timer timer to schedule
+	 * @param delay delay in milli seconds
+	 */
+	public void schedule(Timer timer, long delay) {
+		if (timer.scheduled)
+			unlink(timer);
+
+		timer.expiring = false;
+
+		long now = System.nanoTime();
+		timer.deadline = now + delay * 1000000L;
+
+		// an empty wheel is not advanced by the event loop, skip the ticks that passed
+		if (pendingTimers == 0)
+			currentTick = Math.max(currentTick, (now - startTime) / tickDuration);
+
+		// a timer is never fired before the end of its tick
+		long deadlineTick = Math.max(currentTick, (timer.deadline - startTime) / tickDuration);
+		timer.remainingRounds = (deadlineTick - currentTick) / slotHeads.length;
+
+		link(timer, (int) (deadlineTick & mask));
+		scheduledTimers++;
+	}
+
+	/**
+	 * Cancels a timer, nothing happens if the timer is not scheduled
+	 *
+	 * @param timer timer to cancel
+	 */
+	public void cancel(Timer timer) {
+		timer.expiring = false;
+
+		if (!timer.scheduled)
+			return;
+
+		unlink(timer);
+		cancelledTimers++;
+	}
+
+	/**
+	 * Processes every tick that ended and runs the tasks of the expired timers
+	 *
+	 * @param now current time in nano seconds
+	 */
+	public void advance(long now) {
+		if (pendingTimers == 0) {
+			currentTick = Math.max(currentTick, (now - startTime) / tickDuration);
+			return;
+		}
+
+		while (now - startTime >= (currentTick + 1) * tickDuration) {
+			int slot = (int) (currentTick & mask);
+
+			// collect the expired timers before running any task,
+			// the tasks are free to schedule and cancel other timers
+			Timer timer = slotHeads[slot];
+			while (timer != null) {
+				Timer next = timer.next;
+
+				if (timer.remainingRounds > 0) {
+					timer.remainingRounds--;
+				}
+				else {
+					unlink(timer);
+					timer.expiring = true;
+					expiredBuffer.add(timer);
+				}
+
+				timer = next;
+			}
+
+			for (Timer expiredTimer : expiredBuffer) {
+				if (expiredTimer.expiring) {
+					expiredTimer.expiring = false;
+					expire(expiredTimer, now);
+				}
+			}
+			expiredBuffer.clear();
+
+			currentTick++;
+		}
+	}
+
+	/**
+	 * Returns how long the event loop can wait before the current tick ends
+	 *
+	 * @return time in milli seconds, 0 if no timer is pending
+	 */
+	public long getTimeUntilNextTick() {
+		if (pendingTimers == 0)
+			return 0;
+
+		long remaining = startTime + (currentTick + 1) * tickDuration - System.nanoTime();
+
+		// select(0) blocks forever, wake up after at least one milli second
+		return Math.max(1, (remaining + 999999L) / 1000000L);
+	}
+
+	public int getPendingTimers() {
+		return pendingTimers;
+	}
+
+	/**
+	 * Returns the counters in a printable form
+	 *
+	 * @return list of lines
+	 */
+	public String[] getStatistics() {
+		double averageSkew = expiredTimers > 0 ? totalSkew / 1e6 / expiredTimers : 0;
+
+		String[] statistics = {
+				String.format("timers pending: %d, scheduled: %d, cancelled: %d, expired: %d",
+						pendingTimers, scheduledTimers, cancelledTimers, expiredTimers),
+				String.format("timer skew: average %.2f ms, max %.2f ms (tick %d ms)",
+						averageSkew, maxSkew / 1e6, tickDuration / 1000000L)
+		};
+
+		return statistics;
+	}
+
+	private void expire(Timer timer, long now) {
+		long skew = now - timer.deadline;
+
+		expiredTimers++;
+		totalSkew += skew;
+		maxSkew = Math.max(maxSkew, skew);
+
+		timer.task.run();
+	}
+
+	private void link(Timer timer, int slot) {
+		timer.scheduled = true;
+		pendingTimers++;
+
+		timer.slot = slot;
+		timer.previous = slotTails[slot];
+		timer.next = null;
+
+		if (slotTails[slot] == null)
+			slotHeads[slot] = timer;
+		else
+			slotTails[slot].next = timer;
+
+		slotTails[slot] = timer;
+	}
+
+	private void unlink(Timer timer) {
+		int slot = timer.slot;
+
+		if (timer.previous == null)
+			slotHeads[slot] = timer.next;
+		else
+			timer.previous.next = timer.next;
+
+		if (timer.next == null)
+			slotTails[slot] = timer.previous;
+		else
+			timer.next.previous = timer.previous;
+
+		timer.previous = null;
+		timer.next = null;
+		timer.scheduled = false;
+		pendingTimers--;
+	}
+}
@@ -4,6 +4,8 @@ import java.util.Scanner;
 
 public class UIManager {
 	private static boolean verboseMode = false;
+	// silent mode hides every message except errors, used by the benchmarks
+	private static boolean silentMode = false;
 	private static Scanner sc = new Scanner(System.in);
 	
 	public UIManager() {}
@@ -14,6 +16,9 @@ public class UIManager {
 	 * @param messages
 	 */
 	public static void printMessage(String className, String[] messages) {
+		if (silentMode)
+			return;
+		
 		if (verboseMode)
 			System.out.println(String.format("VERBOSE: %s - %s", className, messages[1]));
 		else 
@@ -33,6 +38,14 @@ public class UIManager {
 		System.err.println(String.format("ERROR: %s - %s", className, message));
 	}
 	
+	/**
+	 * Hide or show every message that is not an error
+	 * @param silent
+	 */
+	public static void setSilentMode(boolean silent) {
+		silentMode = silent;
+	}
+	
 	/**
 	 * Prompt for UI Mode, Quiet or Verbose mode
 	 */
@@ -66,6 +79,32 @@ public class UIManager {
 		return UIManager.promptForOperationSelection(options);
 	}
 	
+	/**
+	 * Prompt for the way the server runs its connections
+	 * @return selected server mode
+	 */
+	public static ServerMode promptForServerMode() {
+		System.out.println("\nSelect server mode");
+		
+		String[] options = {
+				"Thread per transfer",
+				"Virtual thread per transfer",
+				"Event loop",
+				"Multiplexed event loop"
+		};
+		
+		int selection = UIManager.promptForOperationSelection(options);
+		
+		if (selection == 2)
+			return ServerMode.VIRTUAL_THREAD;
+		else if (selection == 3)
+			return ServerMode.EVENT_LOOP;
+		else if (selection == 4)
+			return ServerMode.MULTIPLEXED;
+		
+		return ServerMode.THREAD_PER_TRANSFER;
+	}
+	
 	/**
 	 * prompt for IP Address
 	 * 
@@ -140,7 +179,7 @@ public class UIManager {
 	}
 	
 	public static String promptForQuit() {
-		System.out.print("Enter 'quit' to quit server: ");
+		System.out.print("Enter 'stats' to show server statistics or 'quit' to quit server: ");
 		String quitCommand = null;
 		
 		quitCommand = sc.nextLine().trim();
@@ -148,6 +187,17 @@ public class UIManager {
 		return quitCommand;
 	}
 	
+	/**
+	 * Print a list of statistics
+	 * @param className
+	 * @param statistics
+	 */
+	public static void printStatistics(String className, String[] statistics) {
+		for (String statistic : statistics) {
+			System.out.println(String.format("STATS: %s - %s", className, statistic));
+		}
+	}
+	
 	public static void close() {
 		sc.close();
 	}
@@ -1,6 +1,6 @@
 import java.net.InetAddress;
 
-public class WRQServerThread extends Thread {
+public class WRQServerThread implements Runnable, ServerSession {
 	/**
 	 * This class is used to communicate further with a client that made a WQR request
 	 */
@@ -16,6 +16,17 @@ public class WRQServerThread extends Thread {
 	private InetAddress remoteAddress;
 	private int remotePort;
 	
+	private DuplicateRequestCounter duplicateRequests = new DuplicateRequestCounter("WRQServerThread");
+	// OACK or ACK 0 packet sent in response to the request, set until DATA packet 1 is
+	// received so that the server thread can send it again for a duplicate request
+	private volatile TFTPPacket responsePacket;
+	// held while the response is sent again, so that the socket is not released to another connection meanwhile
+	private final Object responseLock = new Object();
+	
+	// file that is written, open until the connection is finished
+	private FileBlockWriter fileWriter;
+	private String fileName;
+	
 	/**
 	 * Constructor
 	 * 
@@ -25,11 +36,7 @@ public class WRQServerThread extends Thread {
 		this.server = server;
 		this.requestPacket = tftpPacket;
 		
-		//tftpSocket = new TFTPSocket(0);
-		tftpSocket = new TFTPSocket(NetworkConfig.TIMEOUT_TIME);
-		
-		fileManager = new FileManager();
-		errorHandler = new ErrorHandler(tftpSocket);
+		fileManager = new FileManager(server.getGroupCommitService(), server.getFileContentCache(), server.getPathLookupCache(), server.getDirectoryIndex(), FileManager.SERVER_STAGING_PREFIX);
 		
 		remoteAddress = tftpPacket.getRemoteAddress();
 		remotePort = tftpPacket.getRemotePort();
@@ -40,6 +47,10 @@ public class WRQServerThread extends Thread {
 	 */
 	@Override
 	public void run() {
+		// lease a socket that acts as the transfer ID of this connection
+		tftpSocket = server.leaseTransferSocket();
+		errorHandler = new ErrorHandler(tftpSocket);
+		
 		handleWRQConnection();
 		cleanUp();
 	}
@@ -65,10 +76,28 @@ public class WRQServerThread extends Thread {
 			return;
 		}
 		
+		// pick the options the server accepts
+		TFTPOptions options = null;
+		try {
+			options = TFTPOptions.negotiate(wrqPacket);
+		} catch (TFTPOptionError e) {
+			// an option that cannot be accepted will send an error packet with error code 8
+			UIManager.printErrorMessage("WRQServerThread", e.getMessage());
+			errorHandler.sendOptionNegotiationErrorPacket(e.getMessage(), remoteAddress, remotePort);
+			return;
+		}
+		
 		packetHandler = new PacketHandler(tftpSocket, errorHandler, remoteAddress, remotePort);
 		
+		fileName = wrqPacket.getFileName();
+		
+		// refuse a file that does not fit before any of it is transferred
+		if (options.getTransferSize() > 0 && fileManager.checkUsableSpace(options.getTransferSize()).error) {
+			errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), remoteAddress, remotePort);
+			return;
+		}
+		
 		// creates file if it does not exist
-		String fileName = wrqPacket.getFileName();
 		FileManager.FileManagerResult res = fileManager.createFile(fileName);
 		
 		if (res.error) {
@@ -83,17 +112,55 @@ public class WRQServerThread extends Thread {
 			return;
 		}
 		
-		// send ACK packet to client in response to the write request
-		packetHandler.sendACKPacket((short) 0);
+		// reserve the space of the whole file once the client reported its size
+		if (options.getTransferSize() > 0) {
+			res = fileManager.allocateFile(fileName, options.getTransferSize());
+			
+			if (res.error) {
+				if (res.diskFull)
+					errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), remoteAddress, remotePort);
+				else
+					errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), remoteAddress, remotePort);
+				
+				fileManager.discardFile(fileName);
+				return;
+			}
+		}
+		
+		// keep the file open for the whole transfer
+		res = fileManager.openFileWriter(fileName, NetworkConfig.PIPELINED_WRITES);
+		
+		if (res.error) {
+			errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), remoteAddress, remotePort);
+			fileManager.discardFile(fileName);
+			return;
+		}
+		
+		fileWriter = res.fileWriter;
+		
+		// make room for the negotiated block size
+		tftpSocket.setMaxPacketLength(options.getMaxPacketLength());
+		packetHandler.applyOptions(options);
+		
+		// send OACK packet if options were accepted, ACK packet otherwise, in response to the write request
+		if (options.hasAcknowledgedOptions()) {
+			OACKPacket oackPacket = TFTPPacketBuilder.getOACKDatagram(options.getAcknowledgedOptions(), remoteAddress, remotePort);
+			packetHandler.sendOACKPacket(oackPacket);
+			responsePacket = oackPacket;
+		}
+		else {
+			packetHandler.sendACKPacket((short) 0);
+			responsePacket = TFTPPacketBuilder.getACKDatagram((short) 0, remoteAddress, remotePort);
+		}
 		
 		// receive all data packets from client that wants to transfer a file
-		// once the data length is less than 512 bytes then stop listening for
+		// once the packet is shorter than a full block then stop listening for
 		// data packets from the client
-		int dataLenReceived = NetworkConfig.DATAGRAM_PACKET_MAX_LEN;
+		int dataLenReceived = options.getMaxPacketLength();
 		
 		short blockNumber = 1;
 		DATAPacket dataPacket = null;
-		while (dataLenReceived == NetworkConfig.DATAGRAM_PACKET_MAX_LEN) {
+		while (dataLenReceived == options.getMaxPacketLength()) {
 			String[] messages1 = {
 					"",
 					String.format("waiting for DATA packet from client %s:%d", remoteAddress, remotePort)
@@ -109,10 +176,13 @@ public class WRQServerThread extends Thread {
 			}
 			
 			if (dataPacket.getBlockNumber() == blockNumber) {
+				// the client received the response to its request
+				responsePacket = null;
+				
 				byte[] fileData = dataPacket.getDataBytes();
 	
 				// write file data from DATA packet to hard drive
-				res = fileManager.writeFile(fileName, fileData);
+				res = fileManager.writeFile(fileWriter, fileData);
 				
 				// if error occurred end connection
 				if (res.error) {
@@ -129,7 +199,7 @@ public class WRQServerThread extends Thread {
 				
 				String[] messages2 = {
 						"",
-						String.format("finsihed writing data from DATA packet %d to file %s", dataPacket.getBlockNumber(), fileName)
+						String.format("finsihed writing data from DATA packet %d to file %s", dataPacket.getUnsignedBlockNumber(), fileName)
 				};
 				
 				UIManager.printMessage("WRQServerThread", messages2);
@@ -140,7 +210,25 @@ public class WRQServerThread extends Thread {
 				blockNumber++;
 			}
 		
-			packetHandler.sendACKPacket(dataPacket.getBlockNumber());
+			// the file is flushed as far as the durability policy requires and published before
+			// the last block is acknowledged, the client may use the file as soon as the transfer ends
+			boolean lastBlock = dataLenReceived < options.getMaxPacketLength();
+			if (lastBlock) {
+				res = fileManager.finishFile(fileName, fileWriter, NetworkConfig.DURABILITY_POLICY);
+				
+				if (res.error) {
+					if (res.fileAlreadyExist)
+						errorHandler.sendFileExistsErrorPacket(String.format("file already exists: %s", fileName), remoteAddress, remotePort);
+					else if (res.diskFull)
+						errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), remoteAddress, remotePort);
+					else
+						errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), remoteAddress, remotePort);
+					return;
+				}
+			}
+			
+			// send ACK packet once per window
+			packetHandler.acknowledgeDATAPacket(dataPacket, lastBlock);
 		}
 		
 		String[] messages3 = {
@@ -162,8 +250,49 @@ public class WRQServerThread extends Thread {
 		};
 		
 		UIManager.printMessage("WRQServerThread", messages);
-		tftpSocket.close();
 		
-		server.removeConnection(remoteAddress + ":" + remotePort);
+		// no response is sent again once the socket may serve another connection
+		synchronized (responseLock) {
+			responsePacket = null;
+		}
+		server.releaseTransferSocket(tftpSocket);
+		
+		// the partial file of a connection that ended early is never published
+		if (fileWriter != null && !fileWriter.isClosed()) {
+			fileManager.closeFileWriter(fileWriter);
+			fileManager.discardFile(fileName);
+		}
+		
+		server.recordRetransmissions(remoteAddress, remotePort, packetHandler);
+		server.removeConnection(remoteAddress, remotePort);
+	}
+	
+	@Override
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+	
+	@Override
+	public int getRemotePort() {
+		return remotePort;
+	}
+	
+	@Override
+	public void duplicateRequestReceived(TFTPPacket requestPacket) {
+		duplicateRequests.record(remoteAddress, remotePort);
+		
+		// the response to the request was lost, the client waits for it instead of sending DATA packet 1
+		if (requestPacket.getPacketType() != TFTPPacketType.WRQ)
+			return;
+		
+		synchronized (responseLock) {
+			if (responsePacket != null)
+				packetHandler.resendResponse(responsePacket);
+		}
+	}
+	
+	@Override
+	public int getDuplicateRequests() {
+		return duplicateRequests.get();
 	}
 }
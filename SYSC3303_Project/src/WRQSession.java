@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is the event loop counterpart of the WRQServerThread.
+ * It receives DATA packets from a client that made a WRQ request, writes
+ * them to the hard drive and acknowledges each one of them
+ *
+ * @author Group 8
+ */
+public class WRQSession extends TFTPSession {
+	private String fileName;
+	private short blockNumber;
+	private int maxPacketLength;
+	// file that is written, open until the session is closed
+	private FileBlockWriter fileWriter;
+	// set while the last block waits for the file to be closed
+	private boolean closingFile = false;
+	// OACK or ACK 0 packet sent in response to the request, set until DATA packet 1 is received
+	private TFTPPacket responsePacket;
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public WRQSession(Server server, TFTPPacket requestPacket) throws IOException {
+		super(server, requestPacket);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param server        server that accepted the request
+	 * @param requestPacket request packet received from the client
+	 * @param sharedSocket  shared socket of the event loop, or null for a dedicated channel
+	 * @throws IOException if the datagram channel cannot be opened
+	 */
+	public WRQSession(Server server, TFTPPacket requestPacket, TFTPSocket sharedSocket) throws IOException {
+		super(server, requestPacket, sharedSocket);
+	}
+
+	/**
+	 * Creates the requested file and acknowledges the write request
+	 */
+	@Override
+	public void start() {
+		RRQWRQPacket wrqPacket = null;
+
+		// parse write request packet
+		try {
+			wrqPacket = new RRQWRQPacket(requestPacket);
+		} catch (TFTPPacketParsingError e) {
+			UIManager.printErrorMessage("WRQSession", "cannot parse WRQ TFTP packet");
+			errorHandler.sendIllegalOperationErrorPacket("invalid WRQ TFTP packet", remoteAddress, remotePort);
+			finish();
+			return;
+		}
+
+		// pick the options the server accepts
+		TFTPOptions options = null;
+		try {
+			options = TFTPOptions.negotiate(wrqPacket);
+		} catch (TFTPOptionError e) {
+			UIManager.printErrorMessage("WRQSession", e.getMessage());
+			errorHandler.sendOptionNegotiationErrorPacket(e.getMessage(), remoteAddress, remotePort);
+			finish();
+			return;
+		}
+
+		// the receive buffer of the event loop fits the largest block size the server accepts
+		maxPacketLength = options.getMaxPacketLength();
+		packetHandler.applyOptions(options);
+
+		fileName = wrqPacket.getFileName();
+		// size reported by the client with the tsize option, -1 if it is not known
+		long transferSize = options.getTransferSize();
+
+		// refuse a file that does not fit before any of it is transferred
+		if (transferSize > 0 && fileManager.checkUsableSpace(transferSize).error) {
+			errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), remoteAddress, remotePort);
+			finish();
+			return;
+		}
+
+		// creates file if it does not exist
+		FileManager.FileManagerResult res = fileManager.createFile(fileName);
+
+		if (res.error) {
+			sendFileErrorPacket(res);
+			finish();
+			return;
+		}
+
+		// reserve the space of the whole file once the client reported its size
+		if (transferSize > 0) {
+			res = fileManager.allocateFile(fileName, transferSize);
+
+			if (res.error) {
+				if (!res.diskFull)
+					res.accessViolation = true;
+				sendFileErrorPacket(res);
+				fileManager.discardFile(fileName);
+				finish();
+				return;
+			}
+		}
+
+		// keep the file open for the whole transfer
+		res = fileManager.openFileWriter(fileName);
+
+		if (res.error) {
+			res.accessViolation = true;
+			sendFileErrorPacket(res);
+			fileManager.discardFile(fileName);
+			finish();
+			return;
+		}
+
+		fileWriter = res.fileWriter;
+
+		// send OACK packet if options were accepted, ACK packet otherwise, in response to the write request
+		if (options.hasAcknowledgedOptions()) {
+			OACKPacket oackPacket = TFTPPacketBuilder.getOACKDatagram(options.getAcknowledgedOptions(), remoteAddress, remotePort);
+			packetHandler.sendOACKPacket(oackPacket);
+			responsePacket = oackPacket;
+		}
+		else {
+			packetHandler.sendACKPacket((short) 0);
+			responsePacket = TFTPPacketBuilder.getACKDatagram((short) 0, remoteAddress, remotePort);
+		}
+
+		blockNumber = 1;
+		armTimer();
+	}
+
+	/**
+	 * Writes the expected DATA packet to the hard drive and acknowledges it
+	 */
+	@Override
+	public void onPacket(TFTPPacket receivePacket) {
+		// the last block is acknowledged once the file is closed
+		if (closingFile)
+			return;
+
+		PacketHandler.PacketHandlerReturn phRes = packetHandler.processDATAPacket(receivePacket, blockNumber);
+
+		// keep on waiting for the DATA packet, duplicates are already acknowledged
+		if (phRes.discarded)
+			return;
+
+		// an error occurred, end the connection
+		if (phRes.dataPacket == null) {
+			finish();
+			return;
+		}
+
+		DATAPacket dataPacket = phRes.dataPacket;
+		// the client received the response to its request
+		responsePacket = null;
+
+		// write file data from DATA packet to hard drive
+		FileManager.FileManagerResult res = fileManager.writeFile(fileWriter, dataPacket.getDataBytes());
+
+		// if error occurred end connection
+		if (res.error) {
+			sendFileErrorPacket(res);
+			finish();
+			return;
+		}
+
+		// once the packet is shorter than a full block then the file is complete
+		boolean lastBlock = dataPacket.getPacketLength() < maxPacketLength;
+		if (lastBlock) {
+			closeFile(dataPacket);
+			return;
+		}
+
+		// send ACK packet once per window
+		packetHandler.acknowledgeDATAPacket(dataPacket, false);
+
+		blockNumber++;
+		armTimer();
+	}
+
+	/**
+	 * Closes and publishes the file before the last block is acknowledged. The file is flushed,
+	 * the client may use the file as soon as the transfer ends. The event loop keeps on running while the group commit of
+	 * a FSYNCED upload is waited for
+	 *
+	 * @param dataPacket last DATA packet
+	 */
+	private void closeFile(DATAPacket dataPacket) {
+		CompletableFuture<FileManager.FileManagerResult> future = fileManager.finishFileAsync(fileName, fileWriter, NetworkConfig.DURABILITY_POLICY);
+
+		if (future.isDone()) {
+			onFileClosed(future.join(), dataPacket);
+			return;
+		}
+
+		closingFile = true;
+		future.thenAccept(res -> eventLoop.execute(() -> onFileClosed(res, dataPacket)));
+	}
+
+	/**
+	 * Acknowledges the last block once the file is closed
+	 *
+	 * @param res        result of closing the file
+	 * @param dataPacket last DATA packet
+	 */
+	private void onFileClosed(FileManager.FileManagerResult res, DATAPacket dataPacket) {
+		if (isFinished())
+			return;
+
+		if (res.error) {
+			if (!res.diskFull && !res.fileAlreadyExist)
+				res.accessViolation = true;
+			sendFileErrorPacket(res);
+			finish();
+			return;
+		}
+
+		// send ACK packet of the last block
+		packetHandler.acknowledgeDATAPacket(dataPacket, true);
+
+		String[] messages = {
+				String.format("finsihed writing file %s", fileName),
+				String.format("finsihed writing file %s", fileName)
+		};
+		UIManager.printMessage("WRQSession", messages);
+
+		finish();
+	}
+
+	/**
+	 * Sends the response to the request again while DATA packet 1 is waited for,
+	 * the client sends its request again when the OACK or ACK 0 packet is lost
+	 */
+	@Override
+	public void duplicateRequestReceived(TFTPPacket requestPacket) {
+		super.duplicateRequestReceived(requestPacket);
+
+		// only the write request is answered with the OACK or ACK 0 packet
+		if (requestPacket.getPacketType() != TFTPPacketType.WRQ)
+			return;
+
+		// a session that is not started yet sends the response once it starts
+		TFTPEventLoop eventLoop = this.eventLoop;
+		if (eventLoop == null)
+			return;
+
+		// called on the server thread, the packet handler belongs to the event loop thread
+		eventLoop.execute(() -> {
+			if (!isFinished() && responsePacket != null)
+				packetHandler.resendResponse(responsePacket);
+		});
+	}
+
+	/**
+	 * Keeps on waiting for the DATA packet until the retry budget is used up
+	 */
+	@Override
+	public void onTimeout() {
+		UIManager.printErrorMessage("WRQSession", "Socket timed out. Cannot receive DATA packet");
+
+		if (isRetryBudgetExhausted()) {
+			finish();
+			return;
+		}
+
+		rearmTimer();
+	}
+
+	/**
+	 * Discards the partial file if the session ended early
+	 */
+	@Override
+	protected void closeFiles() {
+		// a file that is being closed is published or discarded once the close completes
+		if (fileWriter != null && !fileWriter.isClosed())
+			fileManager.closeFileWriterAsync(fileWriter, DurabilityPolicy.WRITTEN).thenRun(() -> fileManager.discardFile(fileName));
+	}
+
+	/**
+	 * Sends the ERROR packet matching a failed file operation
+	 *
+	 * @param res result of the file operation
+	 */
+	private void sendFileErrorPacket(FileManager.FileManagerResult res) {
+		// access violation error will send an error packet with error code 2 and the connection
+		if (res.accessViolation)
+			errorHandler.sendAccessViolationErrorPacket(String.format("write access denied to file: %s", fileName), remoteAddress, remotePort);
+		// file already exists will send an error packet with error code 6 and close the connection
+		else if (res.fileAlreadyExist)
+			errorHandler.sendFileExistsErrorPacket(String.format("file already exists: %s", fileName), remoteAddress, remotePort);
+		// disk full error will send an error packet with error code 3 and close the connection
+		else if (res.diskFull)
+			errorHandler.sendDiskFullErrorPacket(String.format("Not enough disk space for file: %s", fileName), remoteAddress, remotePort);
+	}
+}